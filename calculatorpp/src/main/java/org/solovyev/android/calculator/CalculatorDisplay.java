@@ -7,7 +7,7 @@ package org.solovyev.android.calculator;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.text.Html;
+import android.text.Editable;
 import android.util.AttributeSet;
 import android.util.Log;
 import jscl.NumeralBase;
@@ -19,8 +19,10 @@ import org.jetbrains.annotations.Nullable;
 import org.solovyev.android.calculator.jscl.JsclOperation;
 import org.solovyev.android.calculator.model.CalculatorEngine;
 import org.solovyev.android.calculator.model.CalculatorParseException;
-import org.solovyev.android.calculator.model.TextProcessor;
 import org.solovyev.android.calculator.model.ToJsclTextProcessor;
+import org.solovyev.android.calculator.view.HighlightedText;
+import org.solovyev.android.calculator.view.HighlightedTextUpdater;
+import org.solovyev.android.calculator.view.HighlightingScheduler;
 import org.solovyev.android.calculator.view.NumeralBaseConverterDialog;
 import org.solovyev.android.calculator.view.TextHighlighter;
 import org.solovyev.android.calculator.view.UnitConverterViewBuilder;
@@ -32,6 +34,7 @@ import org.solovyev.common.utils.StringUtils;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * User: serso
@@ -74,7 +77,7 @@ public class CalculatorDisplay extends AutoResizeTextView implements ICalculator
 
         @Override
         public void onClick(@NotNull CalculatorDisplay data, @NotNull Context context) {
-            final NumeralBase fromNumeralBase = CalculatorEngine.instance.getEngine().getNumeralBase();
+            final NumeralBase fromNumeralBase = CalculatorEngine.instance.getNumeralBase();
 
             String to;
             try {
@@ -94,7 +97,7 @@ public class CalculatorDisplay extends AutoResizeTextView implements ICalculator
 
         @NotNull
         private String convert(@NotNull Generic generic) throws UnitConverterViewBuilder.ConversionException {
-            final NumeralBase fromNumeralBase = CalculatorEngine.instance.getEngine().getNumeralBase();
+            final NumeralBase fromNumeralBase = CalculatorEngine.instance.getNumeralBase();
 
             if (fromNumeralBase != toNumeralBase) {
                 String from = generic.toString();
@@ -240,7 +243,39 @@ public class CalculatorDisplay extends AutoResizeTextView implements ICalculator
 	private JsclOperation jsclOperation = JsclOperation.numeric;
 
 	@NotNull
-	private final static TextProcessor<TextHighlighter.Result, String> textHighlighter = new TextHighlighter(Color.WHITE, false, CalculatorEngine.instance.getEngine());
+	private final static TextHighlighter textHighlighter = new TextHighlighter(Color.WHITE, false, CalculatorEngine.instance.getEngine());
+
+	@NotNull
+	private final HighlightedTextUpdater highlightedTextUpdater = new HighlightedTextUpdater();
+
+	@NotNull
+	private final HighlightingScheduler highlightingScheduler = new HighlightingScheduler(new Executor() {
+		@Override
+		public void execute(@NotNull Runnable command) {
+			post(command);
+		}
+	});
+
+	@NotNull
+	private final HighlightingScheduler.Target highlightingTarget = new HighlightingScheduler.Target() {
+		@NotNull
+		@Override
+		public CharSequence getCurrentText() {
+			return getText();
+		}
+
+		@Override
+		public void onHighlighted(@NotNull HighlightedText highlightedText) {
+			if (isValid()) {
+				CalculatorDisplay.this.onHighlighted(highlightedText);
+			}
+		}
+
+		@Override
+		public void onHighlightingFailed(@NotNull String text, @NotNull CalculatorParseException e) {
+			Log.e(CalculatorDisplay.class.getName(), e.getMessage(), e);
+		}
+	};
 
 	@Nullable
 	private Generic genericResult;
@@ -304,19 +339,14 @@ public class CalculatorDisplay extends AutoResizeTextView implements ICalculator
 
 	public synchronized void redraw() {
 		if (isValid()) {
-			String text = getText().toString();
+			final String text = getText().toString();
 
 			Log.d(this.getClass().getName(), text);
 
-			try {
-				TextHighlighter.Result result = textHighlighter.process(text);
-				text = result.toString();
-			} catch (CalculatorParseException e) {
-				Log.e(this.getClass().getName(), e.getMessage(), e);
-			}
-
-			Log.d(this.getClass().getName(), text);
-			super.setText(Html.fromHtml(text), BufferType.EDITABLE);
+			// NOTE: text is already shown, spans are set after highlighting in background
+			highlightingScheduler.schedule(text, textHighlighter, highlightingTarget);
+		} else {
+			highlightingScheduler.cancel();
 		}
 
 		// todo serso: think where to move it (keep in mind org.solovyev.android.view.AutoResizeTextView.resetTextSize())
@@ -325,6 +355,21 @@ public class CalculatorDisplay extends AutoResizeTextView implements ICalculator
 		resizeText();
 	}
 
+	private void onHighlighted(@NotNull HighlightedText result) {
+		if (!(getText() instanceof Editable)) {
+			// text was set as not editable => spans cannot be changed
+			super.setText(result.getText(), BufferType.EDITABLE);
+		}
+
+		// NOTE: only changed characters and spans are updated (=> only changed part of text is laid out again)
+		highlightedTextUpdater.update((Editable) getText(), result);
+
+		Log.d(this.getClass().getName(), getText().toString());
+
+		// styled text might have another width
+		resizeText();
+	}
+
 	@Override
 	public void setGenericResult(@Nullable Generic genericResult) {
 		this.genericResult = genericResult;
@@ -9,7 +9,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Color;
 import android.os.Build;
-import android.text.Html;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ContextMenu;
@@ -17,10 +16,14 @@ import android.widget.EditText;
 import org.jetbrains.annotations.NotNull;
 import org.solovyev.android.calculator.model.CalculatorEngine;
 import org.solovyev.android.calculator.model.CalculatorParseException;
-import org.solovyev.android.calculator.model.TextProcessor;
+import org.solovyev.android.calculator.view.HighlightedText;
+import org.solovyev.android.calculator.view.HighlightedTextUpdater;
+import org.solovyev.android.calculator.view.HighlightingScheduler;
 import org.solovyev.android.calculator.view.TextHighlighter;
 import org.solovyev.common.utils.CollectionsUtils;
 
+import java.util.concurrent.Executor;
+
 /**
  * User: serso
  * Date: 9/17/11
@@ -34,7 +37,40 @@ public class CalculatorEditor extends EditText implements SharedPreferences.OnSh
 	private boolean highlightText = true;
 
 	@NotNull
-	private final static TextProcessor<TextHighlighter.Result, String> textHighlighter = new TextHighlighter(Color.WHITE, true, CalculatorEngine.instance.getEngine());
+	private final static TextHighlighter textHighlighter = new TextHighlighter(Color.WHITE, true, CalculatorEngine.instance.getEngine());
+
+	@NotNull
+	private final HighlightedTextUpdater highlightedTextUpdater = new HighlightedTextUpdater();
+
+	@NotNull
+	private final HighlightingScheduler highlightingScheduler = new HighlightingScheduler(new Executor() {
+		@Override
+		public void execute(@NotNull Runnable command) {
+			post(command);
+		}
+	});
+
+	@NotNull
+	private final HighlightingScheduler.Target highlightingTarget = new HighlightingScheduler.Target() {
+		@NotNull
+		@Override
+		public CharSequence getCurrentText() {
+			return getText();
+		}
+
+		@Override
+		public void onHighlighted(@NotNull HighlightedText highlightedText) {
+			if (highlightText) {
+				CalculatorEditor.this.onHighlighted(highlightedText);
+			}
+		}
+
+		@Override
+		public void onHighlightingFailed(@NotNull String text, @NotNull CalculatorParseException e) {
+			Log.e(CalculatorEditor.class.getName(), e.getMessage(), e);
+			setPlainText(text);
+		}
+	};
 
 	public CalculatorEditor(Context context) {
 		super(context);
@@ -114,32 +150,41 @@ public class CalculatorEditor extends EditText implements SharedPreferences.OnSh
 	}
 
 	public synchronized void redraw() {
-		String text = getText().toString();
-
-		int selectionStart = getSelectionStart();
-		int selectionEnd = getSelectionEnd();
-
 		if (highlightText) {
+			final String text = getText().toString();
 
 			Log.d(this.getClass().getName(), text);
 
-			try {
-				final TextHighlighter.Result result = textHighlighter.process(text);
-				selectionStart += result.getOffset();
-				selectionEnd += result.getOffset();
-				text = result.toString();
-			} catch (CalculatorParseException e) {
-				Log.e(this.getClass().getName(), e.getMessage(), e);
-			}
-
-			Log.d(this.getClass().getName(), text);
-			super.setText(Html.fromHtml(text), BufferType.EDITABLE);
+			// NOTE: text is already shown, spans are set after highlighting in background
+			highlightingScheduler.schedule(text, textHighlighter, highlightingTarget);
 		} else {
-			super.setText(text, BufferType.EDITABLE);
+			highlightingScheduler.cancel();
+			setPlainText(getText().toString());
 		}
+	}
+
+	private void onHighlighted(@NotNull HighlightedText result) {
+		int selectionStart = getSelectionStart() + result.getOffset();
+		int selectionEnd = getSelectionEnd() + result.getOffset();
+
+		// NOTE: only changed characters and spans are updated (=> only changed part of text is laid out again)
+		highlightedTextUpdater.update(getText(), result);
 
 		Log.d(this.getClass().getName(), getText().toString());
 
+		setSelectionInText(selectionStart, selectionEnd);
+	}
+
+	private void setPlainText(@NotNull String text) {
+		int selectionStart = getSelectionStart();
+		int selectionEnd = getSelectionEnd();
+
+		super.setText(text, BufferType.EDITABLE);
+
+		setSelectionInText(selectionStart, selectionEnd);
+	}
+
+	private void setSelectionInText(int selectionStart, int selectionEnd) {
 		int length = getText().length();
 		setSelection(Math.max(Math.min(length, selectionStart), 0), Math.max(Math.min(length, selectionEnd), 0));
 	}
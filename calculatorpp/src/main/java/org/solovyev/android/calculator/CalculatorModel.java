@@ -24,20 +24,22 @@ import org.solovyev.android.calculator.history.CalculatorHistory;
 import org.solovyev.android.calculator.history.CalculatorHistoryState;
 import org.solovyev.android.calculator.history.TextViewEditorAdapter;
 import org.solovyev.android.calculator.jscl.JsclOperation;
+import org.solovyev.android.calculator.math.MathLexer;
 import org.solovyev.android.calculator.math.MathType;
 import org.solovyev.android.calculator.model.CalculatorEngine;
 import org.solovyev.android.calculator.model.CalculatorEvalException;
 import org.solovyev.android.calculator.model.CalculatorParseException;
+import org.solovyev.android.calculator.model.EvaluationCallback;
 import org.solovyev.android.history.HistoryControl;
 import org.solovyev.android.menu.AMenuBuilder;
 import org.solovyev.android.menu.MenuImpl;
 import org.solovyev.common.msg.Message;
-import org.solovyev.common.utils.MutableObject;
 import org.solovyev.common.utils.StringUtils;
 import org.solovyev.common.utils.history.HistoryAction;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * User: serso
@@ -48,9 +50,6 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 
 	instance;
 
-	// millis to wait before evaluation after user edit action
-	public static final int EVAL_DELAY_MILLIS = 0;
-
 	@NotNull
 	private CalculatorEditor editor;
 
@@ -60,10 +59,22 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 	@NotNull
 	private CalculatorEngine calculatorEngine;
 
+	// results of background evaluations are posted to the UI thread
+	@NotNull
+	private Executor uiExecutor;
+
 	public CalculatorModel init(@NotNull final Activity activity, @NotNull SharedPreferences preferences, @NotNull CalculatorEngine calculator) {
 		Log.d(this.getClass().getName(), "CalculatorModel initialization with activity: " + activity);
 		this.calculatorEngine = calculator;
 
+		final Handler uiHandler = new Handler();
+		this.uiExecutor = new Executor() {
+			@Override
+			public void execute(@NotNull Runnable command) {
+				uiHandler.post(command);
+			}
+		};
+
 		this.editor = (CalculatorEditor) activity.findViewById(R.id.calculatorEditor);
 		this.editor.init(preferences);
 		preferences.registerOnSharedPreferenceChangeListener(editor);
@@ -158,9 +169,6 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 		}
 	}
 
-	@NotNull
-	private final static MutableObject<Runnable> pendingOperation = new MutableObject<Runnable>();
-
 	private void evaluate(boolean delayEvaluate,
 						  @NotNull final String expression,
 						  @NotNull final JsclOperation operation,
@@ -175,34 +183,20 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 			localHistoryState = historyState;
 		}
 
-		pendingOperation.setObject(new Runnable() {
-			@Override
-			public void run() {
-				// allow only one runner at one time
-				synchronized (pendingOperation) {
-					//lock all operations with history
-					if (pendingOperation.getObject() == this) {
-						// actually nothing shall be logged while text operations are done
-						evaluate(expression, operation, this);
-
-						if (pendingOperation.getObject() == this) {
-							// todo serso: of course there is small probability that someone will set pendingOperation after if statement but before .setObject(null)
-							pendingOperation.setObject(null);
-							localHistoryState.setDisplayState(getCurrentHistoryState().getDisplayState());
-						}
-					}
-				}
-			}
-		});
+		final DisplayEvaluationCallback callback = new DisplayEvaluationCallback(expression, operation, localHistoryState);
 
-		if (delayEvaluate) {
+		if (delayEvaluate && !StringUtils.isEmpty(expression)) {
 			if (historyState == null) {
 				CalculatorHistory.instance.addState(localHistoryState);
 			}
-            // todo serso: this is not correct - operation is processing still in the same thread
-			new Handler().postDelayed(pendingOperation.getObject(), EVAL_DELAY_MILLIS);
+
+			// typing must not be blocked by evaluation => evaluate in background, new evaluation cancels the previous one
+			calculatorEngine.evaluateAsync(this, operation, expression, uiExecutor, callback);
 		} else {
-			pendingOperation.getObject().run();
+			// result of previous background evaluation is not needed any more
+			calculatorEngine.cancelAsyncEvaluation(this);
+
+			evaluate(expression, operation, callback);
 			if (historyState == null) {
 				CalculatorHistory.instance.addState(localHistoryState);
 			}
@@ -225,35 +219,80 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 
 	private void evaluate(@Nullable final String expression,
 						  @NotNull JsclOperation operation,
-						  @NotNull Runnable currentRunner) {
+						  @NotNull DisplayEvaluationCallback callback) {
 
 		if (!StringUtils.isEmpty(expression)) {
 			try {
 				Log.d(CalculatorModel.class.getName(), "Trying to evaluate '" + operation + "': " + expression /*+ StringUtils.fromStackTrace(Thread.currentThread().getStackTrace())*/);
-				final CalculatorEngine.Result result = calculatorEngine.evaluate(operation, expression);
-
-				// todo serso: second condition might replaced with expression.equals(this.editor.getText().toString()) ONLY if expression will be formatted with text highlighter
-				if (currentRunner == pendingOperation.getObject() && this.editor.getText().length() > 0) {
-					display.setText(result.getResult());
-				} else {
-					display.setText("");
-				}
-				display.setJsclOperation(result.getUserOperation());
-				display.setGenericResult(result.getGenericResult());
+				callback.onSuccess(calculatorEngine.evaluate(operation, expression));
 			} catch (CalculatorParseException e) {
-				handleEvaluationException(expression, display, operation, e);
+				callback.onParseError(e);
 			} catch (CalculatorEvalException e) {
-				handleEvaluationException(expression, display, operation, e);
+				callback.onEvalError(e);
 			}
 		} else {
-			this.display.setText("");
-			this.display.setJsclOperation(operation);
-			this.display.setGenericResult(null);
+			callback.onEmptyExpression();
+		}
+	}
+
+	/**
+	 * Shows result of evaluation on display (NOTE: must be called on UI thread)
+	 */
+	private class DisplayEvaluationCallback implements EvaluationCallback {
+
+		@NotNull
+		private final String expression;
+
+		@NotNull
+		private final JsclOperation operation;
+
+		@NotNull
+		private final CalculatorHistoryState historyState;
+
+		private DisplayEvaluationCallback(@NotNull String expression, @NotNull JsclOperation operation, @NotNull CalculatorHistoryState historyState) {
+			this.expression = expression;
+			this.operation = operation;
+			this.historyState = historyState;
 		}
 
+		@Override
+		public void onSuccess(@NotNull CalculatorEngine.Result result) {
+			// NOTE: results of superseded evaluations are not delivered => only check for empty editor is needed
+			if (editor.getText().length() > 0) {
+				display.setText(result.getResult());
+			} else {
+				display.setText("");
+			}
+			display.setJsclOperation(result.getUserOperation());
+			display.setGenericResult(result.getGenericResult());
 
+			onDisplayChanged();
+		}
 
-		this.display.redraw();
+		@Override
+		public void onParseError(@NotNull CalculatorParseException e) {
+			handleEvaluationException(expression, display, operation, e);
+			onDisplayChanged();
+		}
+
+		@Override
+		public void onEvalError(@NotNull CalculatorEvalException e) {
+			handleEvaluationException(expression, display, operation, e);
+			onDisplayChanged();
+		}
+
+		public void onEmptyExpression() {
+			display.setText("");
+			display.setJsclOperation(operation);
+			display.setGenericResult(null);
+
+			onDisplayChanged();
+		}
+
+		private void onDisplayChanged() {
+			display.redraw();
+			historyState.setDisplayState(getCurrentHistoryState().getDisplayState());
+		}
 	}
 
 	private void handleEvaluationException(@NotNull String expression,
@@ -295,7 +334,7 @@ public enum CalculatorModel implements CursorControl, HistoryControl<CalculatorH
 					int cursorPositionOffset = 0;
 					final StringBuilder textToBeInserted = new StringBuilder(text);
 
-					final MathType.Result mathType = MathType.getType(text, 0, false);
+					final MathType.Result mathType = MathLexer.instance.tokenize(text, false).getResult(0);
 					switch (mathType.getMathType()) {
 						case function:
 							textToBeInserted.append("()");
@@ -54,17 +54,34 @@ public enum JsclOperation {
 
 	@NotNull
 	public final Generic evaluateGeneric(@NotNull String expression) throws ParseException {
+		return evaluateParsed(ParsedExpressionCache.instance.parse(expression), expression);
+	}
+
+	/**
+	 * Method does the operation on already parsed expression (see {@link ParsedExpressionCache})
+	 * NOTE: does the same as corresponding methods of math engine but without parsing
+	 *
+	 * @param parsed parsed jscl expression
+	 * @param expression jscl expression
+	 * @return result of operation
+	 */
+	@NotNull
+	public final Generic evaluateParsed(@NotNull Generic parsed, @NotNull String expression) {
+		// expressions with percent must not be expanded
+		final boolean percent = expression.contains(PERCENT);
+
 		switch (this) {
 			case simplify:
-				return CalculatorEngine.instance.getEngine().simplifyGeneric(expression);
+				return percent ? parsed : parsed.expand().simplify();
 			case elementary:
-				return CalculatorEngine.instance.getEngine().elementaryGeneric(expression);
+				return parsed.elementary();
 			case numeric:
-				return CalculatorEngine.instance.getEngine().evaluateGeneric(expression);
+				return percent ? parsed.numeric() : parsed.expand().numeric();
 			default:
 				throw new UnsupportedOperationException();
 		}
 	}
 
+	private static final String PERCENT = "%";
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.jscl;
+
+import jscl.NumeralBase;
+import jscl.math.Expression;
+import jscl.math.Generic;
+import jscl.text.ParseException;
+import org.jetbrains.annotations.NotNull;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed jscl expressions: parsing result depends only on jscl expression, numeral base and content of math registries
+ * => if only other settings are changed (e.g. precision) evaluation is done on already parsed expression.
+ *
+ * User: serso
+ * Date: 2/16/12
+ * Time: 9:12 PM
+ */
+public class ParsedExpressionCache {
+
+	@NotNull
+	public static final ParsedExpressionCache instance = new ParsedExpressionCache(100);
+
+	private final int maxEntries;
+
+	@NotNull
+	private final Map<Key, Generic> entries;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	public ParsedExpressionCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, Generic>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Generic> eldest) {
+				return size() > ParsedExpressionCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Method parses jscl expression or returns previously parsed expression
+	 *
+	 * @param jsclExpression expression in jscl format
+	 * @return parsed expression (NOTE: must not be modified)
+	 * @throws ParseException if expression cannot be parsed
+	 */
+	@NotNull
+	public Generic parse(@NotNull String jsclExpression) throws ParseException {
+		final CalculatorEngine engine = CalculatorEngine.instance;
+		// NOTE: numeral base is taken from math engine (and not from settings) as expression is parsed by math engine
+		final Key key = new Key(jsclExpression, engine.getEngine().getNumeralBase(), engine.getRegistriesVersion());
+
+		Generic result;
+		synchronized (this) {
+			result = entries.get(key);
+			if (result == null) {
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+
+		if (result == null) {
+			// NOTE: parsing is done outside of lock as it might take a while
+			result = Expression.valueOf(jsclExpression);
+
+			synchronized (this) {
+				entries.put(key, result);
+			}
+		}
+
+		return result;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	private static final class Key {
+
+		@NotNull
+		private final String expression;
+
+		@NotNull
+		private final NumeralBase numeralBase;
+
+		private final int registriesVersion;
+
+		private Key(@NotNull String expression, @NotNull NumeralBase numeralBase, int registriesVersion) {
+			this.expression = expression;
+			this.numeralBase = numeralBase;
+			this.registriesVersion = registriesVersion;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+
+			final Key that = (Key) o;
+
+			if (registriesVersion != that.registriesVersion) return false;
+			if (numeralBase != that.numeralBase) return false;
+			if (!expression.equals(that.expression)) return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = expression.hashCode();
+			result = 31 * result + numeralBase.hashCode();
+			result = 31 * result + registriesVersion;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import jscl.NumeralBase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+import org.solovyev.android.calculator.model.LiteNumberBuilder;
+
+/**
+ * Splits text into tokens: the same text is usually tokenized by several processors (highlighting of editor, conversion to jscl)
+ * => last token streams are cached and shared.
+ *
+ * Text which differs from one of the cached texts (e.g. editor text after key press) is tokenized incrementally: only tokens
+ * around changed characters are found again, others are taken from the cached stream.
+ *
+ * Tokens are the same as would be got by sequential calls of {@link MathType#getType(String, int, boolean)}
+ * with hex mode of number builder, except text type tokens which always contain one character.
+ *
+ * User: serso
+ * Date: 2/22/12
+ * Time: 9:31 PM
+ */
+public class MathLexer {
+
+	@NotNull
+	public static final MathLexer instance = new MathLexer();
+
+	// number of cached streams (editor, display, etc)
+	private static final int MAX_CACHED_STREAMS = 4;
+
+	@NotNull
+	private volatile CachedStreams cachedStreams = new CachedStreams(null, -1, new MathTokenStream[0]);
+
+	private MathLexer() {
+	}
+
+	@NotNull
+	public MathTokenStream tokenize(@NotNull String text) {
+		return tokenize(text, true);
+	}
+
+	/**
+	 * @param text text to be tokenized
+	 * @param shared if true token stream is taken from/stored to the cache of last streams
+	 *
+	 * @return stream of tokens of text
+	 */
+	@NotNull
+	public MathTokenStream tokenize(@NotNull String text, boolean shared) {
+		if (!shared) {
+			return tokenize(text, null, 0);
+		}
+
+		final CalculatorEngine engine = CalculatorEngine.instance;
+		final NumeralBase numeralBase = engine.getNumeralBase();
+		final int registriesVersion = engine.getRegistriesVersion();
+
+		CachedStreams cached = cachedStreams;
+		if (cached.numeralBase != numeralBase || cached.registriesVersion != registriesVersion) {
+			cached = new CachedStreams(numeralBase, registriesVersion, new MathTokenStream[0]);
+		}
+
+		// stream with the biggest number of same characters
+		MathTokenStream previous = null;
+		int maxSameChars = -1;
+		for (MathTokenStream stream : cached.streams) {
+			final String previousText = stream.getText();
+			if (previousText.equals(text)) {
+				return stream;
+			}
+
+			final int prefix = getCommonPrefix(previousText, text);
+			final int sameChars = prefix + getCommonSuffix(previousText, text, prefix);
+			if (sameChars > maxSameChars) {
+				maxSameChars = sameChars;
+				previous = stream;
+			}
+		}
+
+		final MathTokenStream result = tokenize(text, previous, MathTypeTrie.getInstance().getMaxTokenLength());
+		cachedStreams = cached.add(result);
+		return result;
+	}
+
+	/**
+	 * @param text text to be tokenized
+	 * @param previous stream of previous version of text (tokens for unchanged parts of text are taken from it) or null
+	 * @param maxTokenLength max length of token
+	 *
+	 * @return stream of tokens of text
+	 */
+	@NotNull
+	private static MathTokenStream tokenize(@NotNull String text, @Nullable MathTokenStream previous, int maxTokenLength) {
+		// NOTE: usually there are less tokens than characters
+		final MathTokenStream.Builder tokens = new MathTokenStream.Builder(text.length() / 2);
+
+		int i = 0;
+
+		// position in text from which text is the same as in the previous text
+		int changeEnd = 0;
+		// shift of positions of unchanged tail of text
+		int delta = 0;
+
+		if (previous != null) {
+			final String previousText = previous.getText();
+
+			final int prefix = getCommonPrefix(previousText, text);
+			changeEnd = text.length() - getCommonSuffix(previousText, text, prefix);
+			delta = text.length() - previousText.length();
+
+			// tokens far enough from the first changed character are the same, lexing is restarted from one of them
+			// which has no number before it (so new number builder has the same state)
+			int tokenIndex = previous.findLastTokenBefore(prefix - maxTokenLength);
+			while (tokenIndex >= 0 && !previous.isIdleBefore(tokenIndex)) {
+				tokenIndex--;
+			}
+
+			if (tokenIndex >= 0) {
+				tokens.addAll(previous, 0, tokenIndex, 0);
+				i = previous.getStart(tokenIndex);
+			}
+		}
+
+		// number builder is needed to determine hex mode
+		final LiteNumberBuilder nb = new LiteNumberBuilder(CalculatorEngine.instance.getEngine());
+
+		while (i < text.length()) {
+			if (previous != null && i >= changeEnd && nb.isIdle()) {
+				// rest of text is the same => if previous stream had the same token with the same state of number builder
+				// then all next tokens are the same
+				final int previousIndex = previous.indexOf(i - delta);
+				if (previousIndex >= 0 && previous.isIdleBefore(previousIndex)) {
+					tokens.addAll(previous, previousIndex, previous.size(), delta);
+					break;
+				}
+			}
+
+			MathType.Result result = MathType.findType(text, i, nb.isHexMode());
+			if (result == null) {
+				result = MathType.getCharResult(MathType.text, text.charAt(i));
+			}
+
+			final boolean idle = nb.isIdle();
+			nb.process(result);
+
+			final int end = i + result.getMatch().length();
+			tokens.add(result, i, end, idle);
+			i = end;
+		}
+
+		return tokens.build(text);
+	}
+
+	private static int getCommonPrefix(@NotNull String s1, @NotNull String s2) {
+		final int length = Math.min(s1.length(), s2.length());
+
+		int result = 0;
+		while (result < length && s1.charAt(result) == s2.charAt(result)) {
+			result++;
+		}
+		return result;
+	}
+
+	// NOTE: suffix doesn't overlap with prefix
+	private static int getCommonSuffix(@NotNull String s1, @NotNull String s2, int prefix) {
+		final int length = Math.min(s1.length(), s2.length()) - prefix;
+
+		int result = 0;
+		while (result < length && s1.charAt(s1.length() - 1 - result) == s2.charAt(s2.length() - 1 - result)) {
+			result++;
+		}
+		return result;
+	}
+
+	private static final class CachedStreams {
+
+		@Nullable
+		private final NumeralBase numeralBase;
+
+		private final int registriesVersion;
+
+		// most recent stream is the first
+		@NotNull
+		private final MathTokenStream[] streams;
+
+		private CachedStreams(@Nullable NumeralBase numeralBase, int registriesVersion, @NotNull MathTokenStream[] streams) {
+			this.numeralBase = numeralBase;
+			this.registriesVersion = registriesVersion;
+			this.streams = streams;
+		}
+
+		@NotNull
+		private CachedStreams add(@NotNull MathTokenStream stream) {
+			final MathTokenStream[] newStreams = new MathTokenStream[Math.min(streams.length + 1, MAX_CACHED_STREAMS)];
+			newStreams[0] = stream;
+			System.arraycopy(streams, 0, newStreams, 1, newStreams.length - 1);
+			return new CachedStreams(numeralBase, registriesVersion, newStreams);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Token of text: math type, match and position in text
+ *
+ * User: serso
+ * Date: 2/22/12
+ * Time: 9:15 PM
+ */
+public final class MathToken {
+
+	@NotNull
+	private final MathType.Result result;
+
+	private final int start;
+
+	private final int end;
+
+	MathToken(@NotNull MathType.Result result, int start, int end) {
+		this.result = result;
+		this.start = start;
+		this.end = end;
+	}
+
+	@NotNull
+	public MathType.Result getResult() {
+		return result;
+	}
+
+	@NotNull
+	public MathType getMathType() {
+		return result.getMathType();
+	}
+
+	@NotNull
+	public String getMatch() {
+		return result.getMatch();
+	}
+
+	/**
+	 * @return index of first character of token in text
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return index of character after last character of token in text
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	@Override
+	public String toString() {
+		return result.getMathType() + "(" + result.getMatch() + ")[" + start + ", " + end + ")";
+	}
+}
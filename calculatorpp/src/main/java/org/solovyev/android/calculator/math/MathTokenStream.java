@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable list of tokens of text (see {@link MathLexer}).
+ *
+ * Tokens are stored in parallel arrays (no object per token), results of tokens are shared between streams.
+ *
+ * User: serso
+ * Date: 2/22/12
+ * Time: 9:20 PM
+ */
+public final class MathTokenStream {
+
+	@NotNull
+	private final String text;
+
+	private final int size;
+
+	@NotNull
+	private final MathType.Result[] results;
+
+	@NotNull
+	private final int[] starts;
+
+	@NotNull
+	private final int[] ends;
+
+	// ith element is true if no number was being built before ith token (=> lexing can be restarted from this token)
+	@NotNull
+	private final boolean[] idle;
+
+	private MathTokenStream(@NotNull String text, @NotNull Builder builder) {
+		this.text = text;
+		this.size = builder.size;
+		this.results = builder.results;
+		this.starts = builder.starts;
+		this.ends = builder.ends;
+		this.idle = builder.idle;
+	}
+
+	@NotNull
+	public String getText() {
+		return text;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@NotNull
+	public MathType.Result getResult(int index) {
+		checkIndex(index);
+		return results[index];
+	}
+
+	@NotNull
+	public MathType getMathType(int index) {
+		return getResult(index).getMathType();
+	}
+
+	@NotNull
+	public String getMatch(int index) {
+		return getResult(index).getMatch();
+	}
+
+	/**
+	 * @return index of first character of token in text
+	 */
+	public int getStart(int index) {
+		checkIndex(index);
+		return starts[index];
+	}
+
+	/**
+	 * @return index of character after last character of token in text
+	 */
+	public int getEnd(int index) {
+		checkIndex(index);
+		return ends[index];
+	}
+
+	/**
+	 * NOTE: new object is created on each call, use methods with index for iterating over all tokens
+	 *
+	 * @return index-th token
+	 */
+	@NotNull
+	public MathToken get(int index) {
+		checkIndex(index);
+		return new MathToken(results[index], starts[index], ends[index]);
+	}
+
+	boolean isIdleBefore(int index) {
+		checkIndex(index);
+		return idle[index];
+	}
+
+	/**
+	 * @param position position in text
+	 * @return index of token which starts on specified position or -1 if there is no such token
+	 */
+	public int indexOf(int position) {
+		final int index = findLastTokenBefore(position);
+		return index >= 0 && starts[index] == position ? index : -1;
+	}
+
+	/**
+	 * @param position position in text
+	 * @return index of last token which starts not after specified position or -1
+	 */
+	int findLastTokenBefore(int position) {
+		int low = 0;
+		int high = size - 1;
+
+		int result = -1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			if (starts[mid] <= position) {
+				result = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return result;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+
+	static final class Builder {
+
+		private int size = 0;
+
+		@NotNull
+		private MathType.Result[] results;
+
+		@NotNull
+		private int[] starts;
+
+		@NotNull
+		private int[] ends;
+
+		@NotNull
+		private boolean[] idle;
+
+		Builder(int capacity) {
+			capacity = Math.max(capacity, 16);
+			this.results = new MathType.Result[capacity];
+			this.starts = new int[capacity];
+			this.ends = new int[capacity];
+			this.idle = new boolean[capacity];
+		}
+
+		void add(@NotNull MathType.Result result, int start, int end, boolean idleBefore) {
+			ensureCapacity(size + 1);
+			results[size] = result;
+			starts[size] = start;
+			ends[size] = end;
+			idle[size] = idleBefore;
+			size++;
+		}
+
+		/**
+		 * Method adds tokens of another stream
+		 *
+		 * @param stream stream
+		 * @param from index of first token to be added
+		 * @param to index after last token to be added
+		 * @param delta shift of positions of tokens
+		 */
+		void addAll(@NotNull MathTokenStream stream, int from, int to, int delta) {
+			final int count = to - from;
+			if (count > 0) {
+				ensureCapacity(size + count);
+				System.arraycopy(stream.results, from, results, size, count);
+				System.arraycopy(stream.idle, from, idle, size, count);
+				if (delta == 0) {
+					System.arraycopy(stream.starts, from, starts, size, count);
+					System.arraycopy(stream.ends, from, ends, size, count);
+				} else {
+					for (int i = 0; i < count; i++) {
+						starts[size + i] = stream.starts[from + i] + delta;
+						ends[size + i] = stream.ends[from + i] + delta;
+					}
+				}
+				size += count;
+			}
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > starts.length) {
+				final int newCapacity = Math.max(capacity, starts.length * 2);
+
+				final MathType.Result[] newResults = new MathType.Result[newCapacity];
+				System.arraycopy(results, 0, newResults, 0, size);
+				results = newResults;
+
+				final int[] newStarts = new int[newCapacity];
+				System.arraycopy(starts, 0, newStarts, 0, size);
+				starts = newStarts;
+
+				final int[] newEnds = new int[newCapacity];
+				System.arraycopy(ends, 0, newEnds, 0, size);
+				ends = newEnds;
+
+				final boolean[] newIdle = new boolean[newCapacity];
+				System.arraycopy(idle, 0, newIdle, 0, size);
+				idle = newIdle;
+			}
+		}
+
+		@NotNull
+		MathTokenStream build(@NotNull String text) {
+			// NOTE: builder must not be used after build
+			return new MathTokenStream(text, this);
+		}
+	}
+}
@@ -5,12 +5,10 @@
 
 package org.solovyev.android.calculator.math;
 
-import jscl.JsclMathEngine;
 import jscl.NumeralBase;
 import jscl.math.function.Constants;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.solovyev.common.StartsWithFinder;
 import org.solovyev.android.calculator.model.CalculatorEngine;
 import org.solovyev.android.calculator.model.CalculatorParseException;
 import org.solovyev.common.utils.CollectionsUtils;
@@ -209,6 +207,10 @@ public enum MathType {
 		this.tokens = Collections.unmodifiableList(tokens);
 	}
 
+	int getPriority() {
+		return priority;
+	}
+
 	@NotNull
 	public MathGroupType getGroupType() {
 		return groupType;
@@ -351,44 +353,87 @@ public enum MathType {
 			return new Result(MathType.text, text);
 		}
 
-		final StartsWithFinder startsWithFinder = new StartsWithFinder(text, i);
+		final Result result = findType(text, i, hexMode);
+		return result == null ? new Result(MathType.text, text.substring(i)) : result;
+	}
 
-		for (MathType mathType : getMathTypesByPriority()) {
-			final String s = CollectionsUtils.find(mathType.getTokens(), startsWithFinder);
-			if (s != null) {
-				if ( s.length() == 1 ) {
-					if (hexMode || JsclMathEngine.instance.getNumeralBase() == NumeralBase.hex) {
-						final Character ch = s.charAt(0);
-						if ( NumeralBase.hex.getAcceptableCharacters().contains(ch) ) {
-							return new Result(MathType.digit, s);
-						}
-					}
+	/**
+	 * Same as {@link #getType(String, int, boolean)} but returns null instead of text type
+	 */
+	@Nullable
+	static Result findType(@NotNull String text, int i, boolean hexMode) {
+		final Result result = MathTypeTrie.getInstance().find(text, i);
+		if (result != null) {
+			final String s = result.getMatch();
+			if ( s.length() == 1 ) {
+				final char ch = s.charAt(0);
+				// NOTE: numeral base of math engine might be temporarily changed by calculation with other settings
+				if (ch < 128 && hexDigits[ch] && (hexMode || CalculatorEngine.instance.getNumeralBase() == NumeralBase.hex)) {
+					return getCharResult(MathType.digit, ch);
 				}
-				return new Result(mathType, s);
 			}
 		}
+		return result;
+	}
 
-		return new Result(MathType.text, text.substring(i));
+	/**
+	 * @return length of the longest token of all math types
+	 */
+	public static int getMaxTokenLength() {
+		return MathTypeTrie.getInstance().getMaxTokenLength();
 	}
 
+	// hexDigits[c] is true if ASCII character c is acceptable in hex numbers
+	private static final boolean[] hexDigits = new boolean[128];
+	static {
+		for (Character c : NumeralBase.hex.getAcceptableCharacters()) {
+			if (c < 128) {
+				hexDigits[c] = true;
+			}
+		}
+	}
 
-	private static List<MathType> mathTypesByPriority;
+	// results for one ASCII character tokens of digit and text types (=> tokenization doesn't create new results)
+	private static final Result[] digitResults = new Result[128];
+	private static final Result[] textResults = new Result[128];
 
+	/**
+	 * @return result for one character token of digit or text type
+	 */
 	@NotNull
-	private static List<MathType> getMathTypesByPriority() {
-		if (mathTypesByPriority == null) {
-			final List<MathType> result = CollectionsUtils.asList(MathType.values());
-
-			Collections.sort(result, new Comparator<MathType>() {
-				@Override
-				public int compare(MathType l, MathType r) {
-					return l.priority.compareTo(r.priority);
-				}
-			});
-
-			mathTypesByPriority = result;
+	static Result getCharResult(@NotNull MathType mathType, char c) {
+		if (c < 128 && (mathType == digit || mathType == text)) {
+			final Result[] results = mathType == digit ? digitResults : textResults;
+			Result result = results[c];
+			if (result == null) {
+				// NOTE: results are immutable => race is harmless
+				result = new Result(mathType, String.valueOf(c));
+				results[c] = result;
+			}
+			return result;
+		} else {
+			return new Result(mathType, String.valueOf(c));
 		}
+	}
 
+	// NOTE: list is built on class initialization => can be used from any thread
+	@NotNull
+	private static final List<MathType> mathTypesByPriority;
+	static {
+		final List<MathType> result = CollectionsUtils.asList(MathType.values());
+
+		Collections.sort(result, new Comparator<MathType>() {
+			@Override
+			public int compare(MathType l, MathType r) {
+				return l.priority.compareTo(r.priority);
+			}
+		});
+
+		mathTypesByPriority = Collections.unmodifiableList(result);
+	}
+
+	@NotNull
+	static List<MathType> getMathTypesByPriority() {
 		return mathTypesByPriority;
 	}
 
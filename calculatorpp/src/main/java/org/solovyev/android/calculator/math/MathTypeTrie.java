@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix tree of tokens of all math types: finds token on position in time proportional to the length of the token
+ * (instead of checking all tokens of all math types).
+ *
+ * Rules are the same as in linear search: math type with the highest priority wins, if several tokens of this type
+ * match - the first one in order of {@link MathType#getTokens()} wins.
+ *
+ * NOTE: trie is immutable, new trie is built after any change of math registries
+ *
+ * User: serso
+ * Date: 2/21/12
+ * Time: 10:05 PM
+ */
+final class MathTypeTrie {
+
+	@Nullable
+	private static volatile MathTypeTrie instance;
+
+	private final int registriesVersion;
+
+	@NotNull
+	private final Node root = new Node();
+
+	// children of root for ASCII characters (=> first character of token is found without search, most of text is ASCII)
+	@NotNull
+	private final Node[] asciiRootChildren = new Node[128];
+
+	private final int maxTokenLength;
+
+	private MathTypeTrie(int registriesVersion) {
+		this.registriesVersion = registriesVersion;
+
+		int maxTokenLength = 1;
+
+		// types are added in order of priority => first type set on node is the type with the highest priority
+		for (MathType mathType : MathType.getMathTypesByPriority()) {
+			final List<String> tokens = mathType.getTokens();
+			for (int tokenIndex = 0; tokenIndex < tokens.size(); tokenIndex++) {
+				final String token = tokens.get(tokenIndex);
+				if (token != null && token.length() > 0) {
+					root.add(token, 0, mathType, tokenIndex);
+					maxTokenLength = Math.max(maxTokenLength, token.length());
+				}
+			}
+		}
+
+		for (char c = 0; c < asciiRootChildren.length; c++) {
+			asciiRootChildren[c] = root.getChild(c);
+		}
+
+		this.maxTokenLength = maxTokenLength;
+	}
+
+	@NotNull
+	static MathTypeTrie getInstance() {
+		final int registriesVersion = CalculatorEngine.instance.getRegistriesVersion();
+
+		MathTypeTrie result = instance;
+		if (result == null || result.registriesVersion != registriesVersion) {
+			result = new MathTypeTrie(registriesVersion);
+			instance = result;
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return length of the longest token (=> result of search depends only on this number of characters)
+	 */
+	int getMaxTokenLength() {
+		return maxTokenLength;
+	}
+
+	/**
+	 * Method finds token starting from ith position of text
+	 *
+	 * @param text text
+	 * @param i start position
+	 *
+	 * @return result or null if no token is found
+	 */
+	@Nullable
+	MathType.Result find(@NotNull String text, int i) {
+		if (i >= text.length()) {
+			return null;
+		}
+
+		Node best = null;
+
+		final char c = text.charAt(i);
+		Node node = c < asciiRootChildren.length ? asciiRootChildren[c] : root.getChild(c);
+		for (int j = i + 1; node != null; j++) {
+			final MathType mathType = node.mathType;
+			if (mathType != null) {
+				// NOTE: for the same type token which goes first in list of tokens wins
+				if (best == null || mathType.getPriority() < best.mathType.getPriority() || (mathType == best.mathType && node.tokenIndex < best.tokenIndex)) {
+					best = node;
+				}
+			}
+
+			node = j < text.length() ? node.getChild(text.charAt(j)) : null;
+		}
+
+		return best == null ? null : best.result;
+	}
+
+	private static final class Node {
+
+		@NotNull
+		private char[] chars = new char[0];
+
+		@NotNull
+		private Node[] children = new Node[0];
+
+		// type with the highest priority which has token ending in this node
+		@Nullable
+		private MathType mathType;
+
+		// index of the token ending in this node in list of tokens of math type
+		private int tokenIndex;
+
+		// result for the token ending in this node
+		@Nullable
+		private MathType.Result result;
+
+		private void add(@NotNull String token, int i, @NotNull MathType mathType, int tokenIndex) {
+			if (i == token.length()) {
+				if (this.mathType == null) {
+					this.mathType = mathType;
+					this.tokenIndex = tokenIndex;
+					this.result = new MathType.Result(mathType, token);
+				}
+			} else {
+				final char c = token.charAt(i);
+
+				Node child = getChild(c);
+				if (child == null) {
+					child = new Node();
+
+					// keep chars sorted for binary search
+					final int index = -(Arrays.binarySearch(chars, c) + 1);
+
+					final char[] newChars = new char[chars.length + 1];
+					System.arraycopy(chars, 0, newChars, 0, index);
+					newChars[index] = c;
+					System.arraycopy(chars, index, newChars, index + 1, chars.length - index);
+
+					final Node[] newChildren = new Node[children.length + 1];
+					System.arraycopy(children, 0, newChildren, 0, index);
+					newChildren[index] = child;
+					System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+
+					chars = newChars;
+					children = newChildren;
+				}
+
+				child.add(token, i + 1, mathType, tokenIndex);
+			}
+		}
+
+		@Nullable
+		private Node getChild(char c) {
+			final int index = Arrays.binarySearch(chars, c);
+			return index < 0 ? null : children[index];
+		}
+	}
+}
@@ -112,10 +112,15 @@ class VarEditorSaver<T extends MathEntity> implements DialogInterface.OnClickLis
 							boolean valid = CalculatorVarsActivity.isValidValue(value);
 
 							if (valid) {
-								varBuilder.setName(name);
-								varBuilder.setDescription(description);
-								varBuilder.setValue(value);
-								error = null;
+								if (CalculatorEngine.instance.getVarDependencyGraph().findCycle(name, value) == null) {
+									varBuilder.setName(name);
+									varBuilder.setDescription(description);
+									varBuilder.setValue(value);
+									error = null;
+								} else {
+									// value uses the variable itself (directly or through other variables)
+									error = R.string.c_var_cyclic_dependency;
+								}
 							} else {
 								error = R.string.c_value_is_not_a_number;
 							}
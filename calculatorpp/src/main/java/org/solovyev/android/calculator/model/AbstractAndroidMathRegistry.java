@@ -23,6 +23,7 @@ import org.solovyev.common.math.MathRegistry;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: serso
@@ -37,6 +38,12 @@ public abstract class AbstractAndroidMathRegistry<T extends MathEntity, P extend
 	@NotNull
 	private final String prefix;
 
+	@NotNull
+	private final AtomicInteger version = new AtomicInteger(0);
+
+	@Nullable
+	private volatile MathEntityNameIndex nameIndex;
+
 	protected AbstractAndroidMathRegistry(@NotNull MathRegistry<T> mathRegistry, @NotNull String prefix) {
 		this.mathRegistry = mathRegistry;
 		this.prefix = prefix;
@@ -151,18 +158,49 @@ public abstract class AbstractAndroidMathRegistry<T extends MathEntity, P extend
 
 	@Override
 	public T add(@NotNull IBuilder<? extends T> IBuilder) {
-		return mathRegistry.add(IBuilder);
+		try {
+			return mathRegistry.add(IBuilder);
+		} finally {
+			version.incrementAndGet();
+		}
 	}
 
 	@Override
 	public void remove(@NotNull T var) {
-		mathRegistry.remove(var);
+		try {
+			mathRegistry.remove(var);
+		} finally {
+			version.incrementAndGet();
+		}
 	}
 
+	@Override
+	public int getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * NOTE: returned list is immutable and is the same until registry is changed
+	 */
 	@NotNull
 	@Override
 	public List<String> getNames() {
-		return mathRegistry.getNames();
+		return getNameIndex().getNames();
+	}
+
+	@NotNull
+	@Override
+	public MathEntityNameIndex getNameIndex() {
+		// NOTE: version must be read before names => index might be built again but is never outdated
+		final int version = this.version.get();
+
+		MathEntityNameIndex result = nameIndex;
+		if (result == null || result.getVersion() != version) {
+			result = new MathEntityNameIndex(version, mathRegistry.getNames());
+			nameIndex = result;
+		}
+
+		return result;
 	}
 
 	@Override
@@ -31,7 +31,7 @@ public abstract class AbstractNumberBuilder {
 
 	protected AbstractNumberBuilder(@NotNull MathEngine engine) {
 		this.engine = engine;
-		this.nb = engine.getNumeralBase();
+		this.nb = getDefaultNumeralBase();
 	}
 
 	/**
@@ -75,11 +75,19 @@ public abstract class AbstractNumberBuilder {
 	}
 
 	public boolean isHexMode() {
-		return nb == NumeralBase.hex || (nb == null && engine.getNumeralBase() == NumeralBase.hex);
+		return nb == NumeralBase.hex || (nb == null && getDefaultNumeralBase() == NumeralBase.hex);
 	}
 
 	@NotNull
 	protected NumeralBase getNumeralBase() {
-		return nb == null ? engine.getNumeralBase() : nb;
+		return nb == null ? getDefaultNumeralBase() : nb;
+	}
+
+	/**
+	 * @return numeral base of numbers without numeral base prefix (see {@link CalculatorEngine#getNumeralBase(MathEngine)})
+	 */
+	@NotNull
+	protected NumeralBase getDefaultNumeralBase() {
+		return CalculatorEngine.instance.getNumeralBase(engine);
 	}
 }
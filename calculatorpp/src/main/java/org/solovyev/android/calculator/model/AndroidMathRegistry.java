@@ -29,4 +29,15 @@ public interface AndroidMathRegistry<T extends MathEntity> extends MathRegistry<
 	void load(@Nullable Context context, @Nullable SharedPreferences preferences);
 
 	void save(@NotNull Context context);
+
+	/**
+	 * @return version of registry, version is increased on each modification of registry
+	 */
+	int getVersion();
+
+	/**
+	 * @return index of names of registry for current version of registry
+	 */
+	@NotNull
+	MathEntityNameIndex getNameIndex();
 }
@@ -9,28 +9,48 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import jscl.*;
 import jscl.math.Generic;
+import jscl.math.NumericWrapper;
 import jscl.math.function.Function;
 import jscl.math.function.IConstant;
+import jscl.math.numeric.Real;
 import jscl.math.operator.Operator;
 import jscl.text.ParseInterruptedException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.solovyev.android.calculator.jscl.JsclOperation;
+import org.solovyev.android.calculator.jscl.ParsedExpressionCache;
+import org.solovyev.android.calculator.math.MathType;
 import org.solovyev.android.prefs.BooleanPreference;
 import org.solovyev.common.text.EnumMapper;
 import org.solovyev.android.prefs.Preference;
 import org.solovyev.android.prefs.StringPreference;
+import org.solovyev.common.msg.Message;
 import org.solovyev.common.msg.MessageRegistry;
 import org.solovyev.common.text.NumberMapper;
-import org.solovyev.common.utils.MutableObject;
 import org.solovyev.common.utils.StringUtils;
 
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * User: serso
@@ -94,14 +114,21 @@ public enum CalculatorEngine {
 		}
 	}
 
+	// math engine has only one set of settings: calculations with current settings use it concurrently (read lock),
+	// calculations with other settings and changes of math engine are done exclusively (write lock)
+	// NOTE: lock is held only by calculation threads while they run => settings never change under running calculation
 	@NotNull
-	private final Object lock = new Object();
+	private final ReentrantReadWriteLock engineLock = new ReentrantReadWriteLock();
+
+	// guards changes of settings (and not evaluations)
+	@NotNull
+	private final Object settingsLock = new Object();
 
 	@NotNull
 	private MathEngine engine = JsclMathEngine.instance;
 
 	@NotNull
-	public final TextProcessor<PreparedExpression, String> preprocessor = ToJsclTextProcessor.getInstance();
+	public final ToJsclTextProcessor preprocessor = ToJsclTextProcessor.getInstance();
 
 	@NotNull
 	private final AndroidMathRegistry<IConstant> varsRegistry = new AndroidVarsRegistryImpl(engine.getConstantsRegistry());
@@ -114,18 +141,78 @@ public enum CalculatorEngine {
 
 	private final AndroidMathRegistry<Operator> postfixFunctionsRegistry = new AndroidPostfixFunctionsRegistry(engine.getPostfixFunctionsRegistry());
 
+	// NOTE: calculations are stopped via cancellation tokens, thread killer is used only if calculation doesn't stop after cancellation
 	@Nullable
 	private ThreadKiller threadKiller = new AndroidThreadKiller();
 
-	// calculation thread timeout in seconds, after timeout thread would be interrupted
+	// time given to the calculation to stop after cancellation
+	private static final long CANCELLATION_GRACE_PERIOD_MILLIS = 100;
+
+	// max number of evaluations of batch if math registries are changed during evaluation
+	private static final int MAX_BATCH_ATTEMPTS = 3;
+
+	@NotNull
+	private final EvaluationResultCache resultCache = new EvaluationResultCache();
+
+	@NotNull
+	private final FormattedNumberCache formattedNumberCache = new FormattedNumberCache();
+
+	@NotNull
+	private volatile EvaluationMetrics metrics = new EvaluationMetricsImpl();
+
+	// graph of dependencies between variables: rebuilt after change of registries
+	@Nullable
+	private volatile VarDependencyGraph varDependencyGraph;
+
+	// calculations are done on the pooled threads (see maxCalculationTime for timeout)
+	@NotNull
+	private volatile Executor evaluationExecutor = new EvaluationExecutor();
+
+	// cancels calculations which are done inline on calculation threads (see CalculationRunner) after timeout
+	@NotNull
+	private final ScheduledExecutorService timeoutWatchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(@NotNull Runnable r) {
+			final Thread result = new Thread(r, "Calculation watchdog");
+			// watchdog must not prevent application from exit
+			result.setDaemon(true);
+			return result;
+		}
+	});
+
+	// last asynchronous evaluation of each owner
+	@NotNull
+	private final Map<Object, CancellationToken> asyncEvaluations = new HashMap<Object, CancellationToken>();
+
+	// calculation thread timeout in seconds, after timeout calculation would be cancelled
 	private int timeout = Integer.valueOf(MAX_CALCULATION_TIME_DEFAULT);
 
 	@NotNull
 	private String multiplicationSign = MULTIPLICATION_SIGN_DEFAULT;
 
+	// current settings (copy on write): setters never wait for running calculations, new settings are applied to the math engine
+	// as soon as it is not used (see applyPendingSettings())
+	@NotNull
+	private volatile EvaluationSettings settings;
+
+	// settings set in math engine (guarded by engineLock)
+	@NotNull
+	private EvaluationSettings appliedSettings;
+
+	// settings of calculation which holds engine lock on current thread (null if current thread is not calculating)
+	@NotNull
+	private final ThreadLocal<EvaluationSettings> calculationSettings = new ThreadLocal<EvaluationSettings>();
+
 	CalculatorEngine() {
-		this.engine.setRoundResult(true);
-		this.engine.setUseGroupingSeparator(true);
+		this.settings = EvaluationSettings.newInstance(Integer.valueOf(RESULT_PRECISION_DEFAULT),
+				ROUND_RESULT_DEFAULT,
+				engine.getAngleUnits(),
+				engine.getNumeralBase(),
+				SCIENCE_NOTATION_DEFAULT,
+				true,
+				JsclMathEngine.GROUPING_SEPARATOR_DEFAULT.charAt(0));
+		this.settings.apply(engine);
+		this.appliedSettings = settings;
 	}
 
 	@NotNull
@@ -170,169 +257,924 @@ public enum CalculatorEngine {
 		}
 	}
 
+	/**
+	 * Result of one expression of batch evaluation: either result or error
+	 */
+	public static class BatchResult {
+
+		@NotNull
+		private final String expression;
+
+		@Nullable
+		private final Result result;
+
+		@Nullable
+		private final Message error;
+
+		private BatchResult(@NotNull String expression, @Nullable Result result, @Nullable Message error) {
+			this.expression = expression;
+			this.result = result;
+			this.error = error;
+		}
+
+		@NotNull
+		public String getExpression() {
+			return expression;
+		}
+
+		@Nullable
+		public Result getResult() {
+			return result;
+		}
+
+		@Nullable
+		public Message getError() {
+			return error;
+		}
+
+		public boolean isSuccess() {
+			return result != null;
+		}
+	}
+
 	public Result evaluate(@NotNull JsclOperation operation,
 						   @NotNull String expression) throws CalculatorParseException, CalculatorEvalException {
 		return evaluate(operation, expression, null);
 	}
 
-	public Result evaluate(@NotNull final JsclOperation operation,
+	public Result evaluate(@NotNull JsclOperation operation,
+						   @NotNull String expression,
+						   @Nullable MessageRegistry mr) throws CalculatorParseException, CalculatorEvalException {
+		return evaluate(operation, expression, null, mr);
+	}
+
+	/**
+	 * Method evaluates expression with specified settings. Evaluations with settings equal to the current settings of engine
+	 * are done concurrently, evaluations with other settings are done exclusively (as math engine has only one set of settings).
+	 *
+	 * @param operation operation to be done
+	 * @param expression expression to be evaluated
+	 * @param settings settings snapshot, if null current settings of engine are used
+	 * @param mr message registry
+	 *
+	 * @return result of evaluation
+	 *
+	 * @throws CalculatorParseException if expression cannot be parsed or evaluation takes too long
+	 * @throws CalculatorEvalException if arithmetic error occurred while evaluating
+	 */
+	public Result evaluate(@NotNull JsclOperation operation,
+						   @NotNull String expression,
+						   @Nullable EvaluationSettings settings,
+						   @Nullable MessageRegistry mr) throws CalculatorParseException, CalculatorEvalException {
+		return evaluate(operation, expression, settings, new CancellationToken(), mr);
+	}
+
+	/**
+	 * Method evaluates expression with specified settings, evaluation stops as soon as possible after token is cancelled
+	 * (in that case {@link CalculatorParseException} is thrown)
+	 *
+	 * @see #evaluate(JsclOperation, String, EvaluationSettings, MessageRegistry)
+	 */
+	public Result evaluate(@NotNull JsclOperation operation,
 						   @NotNull String expression,
+						   @Nullable EvaluationSettings settings,
+						   @NotNull CancellationToken token,
 						   @Nullable MessageRegistry mr) throws CalculatorParseException, CalculatorEvalException {
-		synchronized (lock) {
-			final StringBuilder sb = new StringBuilder();
+		return evaluateOn(new CalculationRunner(evaluationExecutor, null), operation, expression, settings, token);
+	}
+
+	@NotNull
+	private Result evaluateOn(@NotNull CalculationRunner runner,
+							  @NotNull JsclOperation operation,
+							  @NotNull String expression,
+							  @Nullable EvaluationSettings settings,
+							  @NotNull CancellationToken token) throws CalculatorParseException, CalculatorEvalException {
+		final EvaluationSettings evaluationSettings = settings == null ? getEvaluationSettings() : settings;
+		final EvaluationResultCache.Key key = new EvaluationResultCache.Key(expression, operation, evaluationSettings, multiplicationSign, getRegistriesVersion());
+
+		final long start = System.nanoTime();
+		try {
+			Result result = resultCache.get(key);
+			if (result == null) {
+				result = doEvaluate(operation, expression, evaluationSettings, token, runner);
+				resultCache.put(key, result);
+			}
+			return result;
+		} finally {
+			// NOTE: failed evaluations (errors, timeouts) are also seen by caller
+			metrics.onStage(EvaluationMetrics.Stage.total, System.nanoTime() - start);
+		}
+	}
 
-			final PreparedExpression preparedExpression = preprocessor.process(expression);
-			sb.append(preparedExpression);
+	/**
+	 * Method evaluates all expressions in parallel with the same settings (snapshot of current settings is taken once
+	 * => changes of settings during evaluation don't affect results).
+	 * All results are also computed with the same content of math registries: if registries were changed during evaluation
+	 * expressions are evaluated once more (NOTE: after {@link #MAX_BATCH_ATTEMPTS} attempts results of the last attempt are returned).
+	 *
+	 * @param expressions expressions to be evaluated
+	 * @param operation operation to be done
+	 *
+	 * @return results of evaluation in the same order as expressions
+	 */
+	@NotNull
+	public List<BatchResult> evaluateAll(@NotNull List<String> expressions, @NotNull JsclOperation operation) {
+		final EvaluationSettings settings = getEvaluationSettings();
+
+		Batch batch;
+		int attempt = 0;
+		do {
+			attempt++;
+
+			// NOTE: registries versions only grow => same version before and after evaluation means that registries were not changed
+			final int registriesVersion = getRegistriesVersion();
+			batch = new Batch(expressions, operation, settings);
+			batch.evaluate();
+			if (batch.isInterrupted() || registriesVersion == getRegistriesVersion()) {
+				break;
+			}
+		} while (attempt < MAX_BATCH_ATTEMPTS);
 
-			//Log.d(CalculatorEngine.class.getName(), "Preprocessed expression: " + preparedExpression);
-			/*if (operation == JsclOperation.numeric && preparedExpression.isExistsUndefinedVar()) {
-				operation = JsclOperation.simplify;
+		return batch.getResults();
+	}
 
-				if (mr != null) {
-					final String undefinedVars = CollectionsUtils.formatValue(preparedExpression.getUndefinedVars(), ", ", new Formatter<Var>() {
+	/**
+	 * One evaluation of all expressions of batch: current thread and helpers (tasks of calculation pool) take expressions one by one
+	 */
+	private final class Batch {
+
+		@NotNull
+		private final List<String> expressions;
+
+		@NotNull
+		private final JsclOperation operation;
+
+		@NotNull
+		private final EvaluationSettings settings;
+
+		// NOTE: result is set only once (either by worker or as error of unfinished evaluation when batch is finished)
+		@NotNull
+		private final AtomicReferenceArray<BatchResult> results;
+
+		@NotNull
+		private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+		@NotNull
+		private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+		// tokens of running calculations (cancelled if current thread is interrupted)
+		@NotNull
+		private final Set<CancellationToken> runningTokens = Collections.synchronizedSet(new HashSet<CancellationToken>());
+
+		private boolean interrupted = false;
+
+		private Batch(@NotNull List<String> expressions, @NotNull JsclOperation operation, @NotNull EvaluationSettings settings) {
+			this.expressions = expressions;
+			this.operation = operation;
+			this.settings = settings;
+			this.results = new AtomicReferenceArray<BatchResult>(expressions.size());
+		}
+
+		private void evaluate() {
+			final Executor executor = evaluationExecutor;
+
+			// number of calculation threads of executor (executor might be replaced, e.g. by executor with one thread)
+			final int threads = executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getCorePoolSize() : EvaluationExecutor.DEFAULT_THREADS;
+
+			// current thread is also a worker (its calculations are done on calculation threads)
+			final int helpers = Math.min(expressions.size(), threads) - 1;
+			final CountDownLatch helpersDone = new CountDownLatch(Math.max(helpers, 0));
+			for (int i = 0; i < helpers; i++) {
+				try {
+					executor.execute(new Runnable() {
 						@Override
-						public String formatValue(@Nullable Var var) throws IllegalArgumentException {
-							return var != null ? var.getName() : "";
+						public void run() {
+							try {
+								// NOTE: helper is already a calculation thread => calculations are done here (and not on another calculation thread)
+								evaluateItems(new CalculationRunner(executor, this));
+							} finally {
+								helpersDone.countDown();
+							}
 						}
 					});
+				} catch (RejectedExecutionException e) {
+					// all calculation threads are busy => less workers
+					helpersDone.countDown();
+				}
+			}
+
+			evaluateItems(new CalculationRunner(executor, null));
+
+			try {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
 
-					mr.addMessage(new AndroidMessage(R.string.c_simplify_instead_of_numeric, MessageType.info, undefinedVars));
+				// NOTE: each helper has at most one running calculation which is stopped after timeout
+				// (or abandoned if it doesn't stop => helper might never end)
+				helpersDone.await(TimeUnit.SECONDS.toMillis(timeout) + CANCELLATION_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+				cancel();
+
+				try {
+					// cancelled calculations are given time to stop => their results are not reported as missing
+					helpersDone.await(CANCELLATION_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e1) {
+					// no more waiting
 				}
-			}*/
-
-			final String jsclExpression = sb.toString();
-
-			final MutableObject<Generic> calculationResult = new MutableObject<Generic>(null);
-			final MutableObject<CalculatorParseException> parseException = new MutableObject<CalculatorParseException>(null);
-			final MutableObject<CalculatorEvalException> evalException = new MutableObject<CalculatorEvalException>(null);
-			final MutableObject<Thread> calculationThread = new MutableObject<Thread>(null);
-
-			final CountDownLatch latch = new CountDownLatch(1);
-
-			new Thread(new Runnable() {
-				@Override
-				public void run() {
-					final Thread thread = Thread.currentThread();
-					try {
-						//Log.d(CalculatorEngine.class.getName(), "Calculation thread started work: " + thread.getName());
-						//System.out.println(jsclExpression);
-						calculationThread.setObject(thread);
-						final Generic genericResult = operation.evaluateGeneric(jsclExpression);
-
-						// NOTE: toString() method must be called here as ArithmeticOperationException may occur in it (just to avoid later check!)
-						genericResult.toString();
-
-						calculationResult.setObject(genericResult);
-					} catch (AbstractJsclArithmeticException e) {
-						evalException.setObject(new CalculatorEvalException(e, e, jsclExpression));
-					} catch (ArithmeticException e) {
-						//System.out.println(e.getMessage());
-						parseException.setObject(new CalculatorParseException(Messages.msg_1, jsclExpression, e.getMessage()));
-					} catch (StackOverflowError e) {
-						//System.out.println(StringUtils.fromStackTrace(e.getStackTrace()));
-						parseException.setObject(new CalculatorParseException(Messages.msg_2, jsclExpression));
-					} catch (jscl.text.ParseException e) {
-						//System.out.println(e.getMessage());
-						parseException.setObject(new CalculatorParseException(e));
-					} catch (ParseInterruptedException e) {
-						//System.out.println(e.getMessage());
-						// do nothing - we ourselves interrupt the calculations
-					} finally {
-						//Log.d(CalculatorEngine.class.getName(), "Calculation thread ended work: " + thread.getName());
-						calculationThread.setObject(null);
-						latch.countDown();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void evaluateItems(@NotNull CalculationRunner runner) {
+			final int size = expressions.size();
+			for (int i = nextIndex.getAndIncrement(); i < size && !cancelled.get() && !Thread.currentThread().isInterrupted(); i = nextIndex.getAndIncrement()) {
+				final String expression = expressions.get(i);
+
+				final CancellationToken token = new CancellationToken();
+				runningTokens.add(token);
+				try {
+					// NOTE: batch might be cancelled before token was registered
+					if (cancelled.get()) {
+						token.cancel();
 					}
+
+					results.compareAndSet(i, null, new BatchResult(expression, evaluateOn(runner, operation, expression, settings, token), null));
+				} catch (CalculatorParseException e) {
+					results.compareAndSet(i, null, new BatchResult(expression, null, e));
+				} catch (CalculatorEvalException e) {
+					results.compareAndSet(i, null, new BatchResult(expression, null, e));
+				} finally {
+					runningTokens.remove(token);
 				}
-			}).start();
+			}
+		}
 
-			try {
-				//Log.d(CalculatorEngine.class.getName(), "Main thread is waiting: " + Thread.currentThread().getName());
-				latch.await(timeout, TimeUnit.SECONDS);
-				//Log.d(CalculatorEngine.class.getName(), "Main thread got up: " + Thread.currentThread().getName());
-
-				final CalculatorParseException parseExceptionObject = parseException.getObject();
-				final CalculatorEvalException evalExceptionObject = evalException.getObject();
-				final Object calculationResultLocal = calculationResult.getObject();
-				final Thread calculationThreadLocal = calculationThread.getObject();
-
-				if (calculationThreadLocal != null) {
-                    if (threadKiller != null) {
-                        threadKiller.killThread(calculationThreadLocal);
-                    }
-                    //calculationThreadLocal.stop();
+		private void cancel() {
+			cancelled.set(true);
+
+			synchronized (runningTokens) {
+				for (CancellationToken token : runningTokens) {
+					token.cancel();
 				}
+			}
+		}
 
-				if (parseExceptionObject != null || evalExceptionObject != null) {
-					if (operation == JsclOperation.numeric &&
-							(preparedExpression.isExistsUndefinedVar() || (evalExceptionObject != null && evalExceptionObject.getCause() instanceof NumeralBaseException))) {
-						return evaluate(JsclOperation.simplify, expression, mr);
-					}
+		private boolean isInterrupted() {
+			return interrupted;
+		}
+
+		@NotNull
+		private List<BatchResult> getResults() {
+			final int size = expressions.size();
+
+			final List<BatchResult> result = new ArrayList<BatchResult>(size);
+			for (int i = 0; i < size; i++) {
+				final String expression = expressions.get(i);
 
-					if (parseExceptionObject != null) {
-						throw parseExceptionObject;
-					} else {
-						throw evalExceptionObject;
+				// not evaluated due to interruption or calculation is still running after timeout
+				final String messageCode = interrupted ? Messages.msg_4 : Messages.msg_3;
+				results.compareAndSet(i, null, new BatchResult(expression, null, new CalculatorParseException(messageCode, expression)));
+
+				result.add(results.get(i));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Method evaluates expression in background and delivers result to the callback via callback executor (e.g. on UI thread).
+	 * Only last evaluation of the owner is alive: new evaluation for the same owner cancels the previous one
+	 * and results of cancelled evaluations are never delivered.
+	 *
+	 * @param owner owner of evaluation (e.g. editor)
+	 * @param operation operation to be done
+	 * @param expression expression to be evaluated
+	 * @param callbackExecutor executor on which callback is invoked
+	 * @param callback callback to be notified about result of evaluation
+	 *
+	 * @return token of evaluation, might be used for cancellation
+	 */
+	@NotNull
+	public CancellationToken evaluateAsync(@NotNull final Object owner,
+										   @NotNull final JsclOperation operation,
+										   @NotNull final String expression,
+										   @NotNull final Executor callbackExecutor,
+										   @NotNull final EvaluationCallback callback) {
+		final CancellationToken token = new CancellationToken();
+
+		synchronized (asyncEvaluations) {
+			final CancellationToken previousToken = asyncEvaluations.put(owner, token);
+			if (previousToken != null) {
+				previousToken.cancel();
+			}
+		}
+
+		final Executor executor = this.evaluationExecutor;
+		final Runnable evaluation = new Runnable() {
+			@Override
+			public void run() {
+				if (token.isCancelled()) {
+					// superseded while waiting in queue (NOTE: nothing is delivered but callback executor is still notified)
+					deliverAsyncResult(owner, token, callbackExecutor, callback, null, null, null);
+					return;
+				}
+
+				Result result = null;
+				CalculatorParseException parseException = null;
+				CalculatorEvalException evalException = null;
+				try {
+					// NOTE: this is already a calculation thread => calculation is done here (and not on another calculation thread)
+					result = evaluateOn(new CalculationRunner(executor, this), operation, expression, null, token);
+				} catch (CalculatorParseException e) {
+					parseException = e;
+				} catch (CalculatorEvalException e) {
+					evalException = e;
+				}
+
+				deliverAsyncResult(owner, token, callbackExecutor, callback, result, parseException, evalException);
+			}
+		};
+
+		try {
+			executor.execute(evaluation);
+		} catch (RejectedExecutionException e) {
+			deliverAsyncResult(owner, token, callbackExecutor, callback, null, new CalculatorParseException(Messages.msg_4, expression), null);
+		}
+
+		return token;
+	}
+
+	/**
+	 * Method cancels last asynchronous evaluation of the owner (if any)
+	 *
+	 * @param owner owner of evaluation
+	 */
+	public void cancelAsyncEvaluation(@NotNull Object owner) {
+		synchronized (asyncEvaluations) {
+			final CancellationToken token = asyncEvaluations.remove(owner);
+			if (token != null) {
+				token.cancel();
+			}
+		}
+	}
+
+	private void deliverAsyncResult(@NotNull final Object owner,
+									@NotNull final CancellationToken token,
+									@NotNull Executor callbackExecutor,
+									@NotNull final EvaluationCallback callback,
+									@Nullable final Result result,
+									@Nullable final CalculatorParseException parseException,
+									@Nullable final CalculatorEvalException evalException) {
+		callbackExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// NOTE: evaluation might be superseded after result was posted => check once more
+					// (token itself is also cancelled on timeout => timeout error must still be delivered)
+					if (isLastAsyncEvaluation(owner, token)) {
+						if (result != null) {
+							callback.onSuccess(result);
+						} else if (parseException != null) {
+							callback.onParseError(parseException);
+						} else if (evalException != null) {
+							callback.onEvalError(evalException);
+						}
 					}
+				} finally {
+					finishAsyncEvaluation(owner, token);
 				}
+			}
+		});
+	}
+
+	private boolean isLastAsyncEvaluation(@NotNull Object owner, @NotNull CancellationToken token) {
+		synchronized (asyncEvaluations) {
+			return asyncEvaluations.get(owner) == token;
+		}
+	}
+
+	private void finishAsyncEvaluation(@NotNull Object owner, @NotNull CancellationToken token) {
+		synchronized (asyncEvaluations) {
+			if (asyncEvaluations.get(owner) == token) {
+				asyncEvaluations.remove(owner);
+			}
+		}
+	}
+
+	@NotNull
+	private Result doEvaluate(@NotNull JsclOperation operation,
+							  @NotNull String expression,
+							  @NotNull EvaluationSettings evaluationSettings,
+							  @NotNull CancellationToken token,
+							  @NotNull CalculationRunner runner) throws CalculatorParseException, CalculatorEvalException {
+		final Calculation calculation = new Calculation(operation, expression, evaluationSettings, token);
+		runner.run(calculation);
+
+		final CalculatorParseException parseException = calculation.parseException;
+		final CalculatorEvalException evalException = calculation.evalException;
+		final PreparedExpression preparedExpression = calculation.preparedExpression;
+		final String jsclExpression = preparedExpression == null ? expression : preparedExpression.getExpression();
+
+		if (parseException != null || evalException != null) {
+			if (operation == JsclOperation.numeric &&
+					((preparedExpression != null && preparedExpression.isExistsUndefinedVar()) || (evalException != null && evalException.getCause() instanceof NumeralBaseException))) {
+				metrics.onFallback();
+				return doEvaluate(JsclOperation.simplify, expression, evaluationSettings, token, runner);
+			}
+
+			if (parseException != null) {
+				throw parseException;
+			} else {
+				throw evalException;
+			}
+		}
+
+		final String result = calculation.result;
+		if (result == null) {
+			if (!calculation.timedOut && token.isCancelled()) {
+				throw new CalculatorParseException(Messages.msg_4, jsclExpression);
+			} else {
+				throw new CalculatorParseException(Messages.msg_3, jsclExpression);
+			}
+		}
+
+		return new Result(result, operation, calculation.genericResult);
+	}
+
+	/**
+	 * Calculation of one expression: preprocessing, evaluation and postprocessing
+	 */
+	private final class Calculation implements Runnable {
+
+		@NotNull
+		private final JsclOperation operation;
+
+		@NotNull
+		private final String expression;
+
+		@NotNull
+		private final EvaluationSettings evaluationSettings;
+
+		@NotNull
+		private final CancellationToken token;
 
-				if (calculationResultLocal == null) {
-					throw new CalculatorParseException(Messages.msg_3, jsclExpression);
+		@NotNull
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		// NOTE: fields below are written by calculation thread and read by waiting thread (even after timeout)
+
+		@Nullable
+		private volatile Thread thread;
+
+		@Nullable
+		private volatile PreparedExpression preparedExpression;
+
+		@Nullable
+		private volatile Generic genericResult;
+
+		@Nullable
+		private volatile String result;
+
+		@Nullable
+		private volatile CalculatorParseException parseException;
+
+		@Nullable
+		private volatile CalculatorEvalException evalException;
+
+		private volatile boolean timedOut = false;
+
+		private Calculation(@NotNull JsclOperation operation, @NotNull String expression, @NotNull EvaluationSettings evaluationSettings, @NotNull CancellationToken token) {
+			this.operation = operation;
+			this.expression = expression;
+			this.evaluationSettings = evaluationSettings;
+			this.token = token;
+		}
+
+		@Override
+		public void run() {
+			final Thread thread = Thread.currentThread();
+			String jsclExpression = expression;
+			boolean engineLocked = false;
+			boolean exclusive = false;
+			try {
+				if (token.isCancelled()) {
+					// caller has already timed out while calculation was waiting in queue
+					return;
 				}
 
+				//Log.d(CalculatorEngine.class.getName(), "Calculation thread started work: " + thread.getName());
+				this.thread = thread;
+				token.attach(thread);
+
+				exclusive = lockEngine(evaluationSettings);
+				engineLocked = true;
+
+				// NOTE: preprocessing is also done in calculation thread => it is also limited by timeout and can be cancelled
+				final long preprocessingStart = System.nanoTime();
+				final PreparedExpression localPreparedExpression = preprocessor.process(expression, token);
+				metrics.onStage(EvaluationMetrics.Stage.preprocessing, System.nanoTime() - preprocessingStart);
+				preparedExpression = localPreparedExpression;
+				jsclExpression = localPreparedExpression.getExpression();
+
+				//Log.d(CalculatorEngine.class.getName(), "Preprocessed expression: " + preparedExpression);
+				//System.out.println(jsclExpression);
+				token.checkCancelled();
+				final Generic localGenericResult = evaluateGeneric(operation, jsclExpression, evaluationSettings);
+
+				// NOTE: toString() method must be called here as ArithmeticOperationException may occur in it (just to avoid later check!)
+				token.checkCancelled();
+				final long toStringStart = System.nanoTime();
+				localGenericResult.toString();
+				metrics.onStage(EvaluationMetrics.Stage.to_string, System.nanoTime() - toStringStart);
+
+				genericResult = localGenericResult;
+
+				// NOTE: result is formatted according to the settings of math engine => must be done under the same lock
+				token.checkCancelled();
+				final long postprocessingStart = System.nanoTime();
+				result = operation.getFromProcessor().process(localGenericResult);
+				metrics.onStage(EvaluationMetrics.Stage.postprocessing, System.nanoTime() - postprocessingStart);
+			} catch (CalculatorParseException e) {
+				parseException = e;
+			} catch (AbstractJsclArithmeticException e) {
+				evalException = new CalculatorEvalException(e, e, jsclExpression);
+			} catch (ArithmeticException e) {
+				//System.out.println(e.getMessage());
+				parseException = new CalculatorParseException(Messages.msg_1, jsclExpression, e.getMessage());
+			} catch (StackOverflowError e) {
+				//System.out.println(StringUtils.fromStackTrace(e.getStackTrace()));
+				parseException = new CalculatorParseException(Messages.msg_2, jsclExpression);
+			} catch (jscl.text.ParseException e) {
+				//System.out.println(e.getMessage());
+				parseException = new CalculatorParseException(e);
+			} catch (ParseInterruptedException e) {
+				//System.out.println(e.getMessage());
+				// do nothing - we ourselves interrupt the calculations
+			} catch (EvaluationCancelledException e) {
+				// do nothing - we ourselves cancel the calculations
 			} catch (InterruptedException e) {
-				throw new CalculatorParseException(Messages.msg_4, jsclExpression);
+				// do nothing - calculation was cancelled while waiting for math engine
+			} finally {
+				//Log.d(CalculatorEngine.class.getName(), "Calculation thread ended work: " + thread.getName());
+				if (engineLocked) {
+					unlockEngine(exclusive);
+				}
+				token.detach();
+				this.thread = null;
+				done.countDown();
 			}
+		}
 
-			final Generic genericResult = calculationResult.getObject();
+		private boolean await(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+			return done.await(timeout, unit);
+		}
 
-			return new Result(operation.getFromProcessor().process(genericResult), operation, genericResult);
+		private boolean isDone() {
+			return done.getCount() == 0;
 		}
 	}
 
+	/**
+	 * Runs calculations either on calculation threads (current thread waits for result) or inline if current thread is
+	 * already a calculation thread (e.g. asynchronous evaluation) => no calculation thread is blocked waiting for another one.
+	 * In both cases calculation is cancelled after timeout.
+	 */
+	private final class CalculationRunner {
+
+		@NotNull
+		private final Executor executor;
+
+		// task of executor on which calculations are done inline or null if calculations are submitted to executor
+		@Nullable
+		private final Runnable inlineTask;
+
+		private CalculationRunner(@NotNull Executor executor, @Nullable Runnable inlineTask) {
+			this.executor = executor;
+			this.inlineTask = inlineTask;
+		}
+
+		private void run(@NotNull final Calculation calculation) throws CalculatorParseException {
+			if (inlineTask == null) {
+				try {
+					executor.execute(calculation);
+				} catch (RejectedExecutionException e) {
+					// all calculation threads are busy and queue is full
+					throw new CalculatorParseException(Messages.msg_4, calculation.expression);
+				}
+
+				try {
+					//Log.d(CalculatorEngine.class.getName(), "Main thread is waiting: " + Thread.currentThread().getName());
+					if (!calculation.await(timeout, TimeUnit.SECONDS)) {
+						onTimeout(calculation);
+
+						if (!calculation.await(CANCELLATION_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) {
+							stop(calculation, calculation);
+						}
+					}
+					//Log.d(CalculatorEngine.class.getName(), "Main thread got up: " + Thread.currentThread().getName());
+				} catch (InterruptedException e) {
+					calculation.token.cancel();
+					// NOTE: interruption status is kept for the caller
+					Thread.currentThread().interrupt();
+					throw new CalculatorParseException(Messages.msg_4, calculation.expression);
+				}
+			} else {
+				final Runnable task = inlineTask;
+				final ScheduledFuture<?> watchdog = timeoutWatchdog.schedule(new Runnable() {
+					@Override
+					public void run() {
+						onTimeout(calculation);
+
+						timeoutWatchdog.schedule(new Runnable() {
+							@Override
+							public void run() {
+								if (!calculation.isDone()) {
+									stop(calculation, task);
+								}
+							}
+						}, CANCELLATION_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+					}
+				}, timeout, TimeUnit.SECONDS);
+
+				try {
+					calculation.run();
+				} finally {
+					watchdog.cancel(false);
+				}
+			}
+		}
+
+		private void onTimeout(@NotNull Calculation calculation) {
+			metrics.onTimeout();
+			calculation.timedOut = true;
+
+			// cooperative cancellation
+			calculation.token.cancel();
+
+			if (executor instanceof ThreadPoolExecutor) {
+				// calculation has not been started yet => it must not take place in queue
+				((ThreadPoolExecutor) executor).remove(calculation);
+			}
+		}
+
+		/**
+		 * Method is called if calculation doesn't stop after cancellation (e.g. long loop inside jscl)
+		 *
+		 * @param calculation calculation
+		 * @param task task of executor which runs calculation
+		 */
+		private void stop(@NotNull Calculation calculation, @NotNull Runnable task) {
+			final Thread calculationThread = calculation.thread;
+			if (calculationThread != null) {
+				// kill the thread as last resort
+				if (threadKiller != null) {
+					threadKiller.killThread(calculationThread);
+				}
+
+				// thread might still be busy => it must not be counted as calculation thread any more
+				if (executor instanceof EvaluationExecutor) {
+					((EvaluationExecutor) executor).abandon(calculationThread, task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method locks math engine for calculation with specified settings (settings are applied to the engine if needed)
+	 *
+	 * @param evaluationSettings settings of calculation
+	 *
+	 * @return true if engine is locked exclusively (settings are not current and must be restored after calculation)
+	 *
+	 * @throws InterruptedException if calculation was cancelled while waiting for engine
+	 */
+	private boolean lockEngine(@NotNull EvaluationSettings evaluationSettings) throws InterruptedException {
+		engineLock.readLock().lockInterruptibly();
+		if (isApplied(evaluationSettings)) {
+			calculationSettings.set(evaluationSettings);
+			return false;
+		}
+		engineLock.readLock().unlock();
+
+		engineLock.writeLock().lockInterruptibly();
+		applySettings(evaluationSettings);
+		calculationSettings.set(evaluationSettings);
+		if (evaluationSettings.equals(settings)) {
+			// downgrade: other calculations with current settings can be done concurrently
+			engineLock.readLock().lock();
+			engineLock.writeLock().unlock();
+			return false;
+		}
+
+		return true;
+	}
+
+	private void unlockEngine(boolean exclusive) {
+		calculationSettings.remove();
+
+		if (exclusive) {
+			// NOTE: settings are restored by calculation thread itself => no calculation sees partly restored settings
+			applySettings(settings);
+			engineLock.writeLock().unlock();
+		} else {
+			engineLock.readLock().unlock();
+		}
+
+		// settings might be changed while engine was locked
+		applyPendingSettings();
+	}
+
+	/**
+	 * Method applies current settings to math engine if engine is not used by calculations (otherwise settings are applied
+	 * by the last of them, see unlockEngine())
+	 */
+	private void applyPendingSettings() {
+		if (engineLock.writeLock().tryLock()) {
+			try {
+				applySettings(settings);
+			} finally {
+				engineLock.writeLock().unlock();
+			}
+		}
+	}
+
+	// NOTE: must be called under write lock
+	private void applySettings(@NotNull EvaluationSettings newSettings) {
+		if (!isApplied(newSettings)) {
+			newSettings.apply(engine);
+			appliedSettings = newSettings;
+		}
+	}
+
+	// NOTE: must be called under lock
+	private boolean isApplied(@NotNull EvaluationSettings evaluationSettings) {
+		// numeral base and angle units are also checked in math engine as they might be changed directly
+		return evaluationSettings.equals(appliedSettings)
+				&& engine.getNumeralBase() == evaluationSettings.getNumeralBase()
+				&& engine.getAngleUnits() == evaluationSettings.getAngleUnits();
+	}
+
+	@NotNull
+	private Generic evaluateGeneric(@NotNull JsclOperation operation, @NotNull String jsclExpression, @NotNull EvaluationSettings evaluationSettings) throws jscl.text.ParseException {
+		if (operation == JsclOperation.numeric) {
+			// plain arithmetic is evaluated without jscl
+			final long fastPathStart = System.nanoTime();
+			final Double result = DoubleEvaluator.evaluate(jsclExpression, evaluationSettings);
+			if (result != null) {
+				metrics.onFastPath();
+				metrics.onStage(EvaluationMetrics.Stage.evaluation, System.nanoTime() - fastPathStart);
+				return new NumericWrapper(Real.valueOf(result));
+			}
+		}
+
+		final long parsingStart = System.nanoTime();
+		final Generic parsed = ParsedExpressionCache.instance.parse(jsclExpression);
+		final long evaluationStart = System.nanoTime();
+		metrics.onStage(EvaluationMetrics.Stage.parsing, evaluationStart - parsingStart);
+
+		final Generic result = operation.evaluateParsed(parsed, jsclExpression);
+		metrics.onStage(EvaluationMetrics.Stage.evaluation, System.nanoTime() - evaluationStart);
+
+		return result;
+	}
+
+	/**
+	 * @return version of all math registries used in evaluation (changes on any modification of any registry)
+	 */
+	public int getRegistriesVersion() {
+		return varsRegistry.getVersion() + functionsRegistry.getVersion() + operatorsRegistry.getVersion() + postfixFunctionsRegistry.getVersion();
+	}
+
+	/**
+	 * @return graph of dependencies between variables for current content of registries
+	 */
+	@NotNull
+	public VarDependencyGraph getVarDependencyGraph() {
+		// NOTE: version must be read before vars => graph might be built again but is never outdated
+		final int registriesVersion = getRegistriesVersion();
+
+		VarDependencyGraph result = varDependencyGraph;
+		if (result == null || result.getRegistriesVersion() != registriesVersion) {
+			result = VarDependencyGraph.newInstance(registriesVersion, varsRegistry.getEntities());
+			varDependencyGraph = result;
+		}
+
+		return result;
+	}
+
+	@NotNull
+	public EvaluationResultCache getResultCache() {
+		return resultCache;
+	}
+
+	@NotNull
+	public FormattedNumberCache getFormattedNumberCache() {
+		return formattedNumberCache;
+	}
+
+	public boolean isUseGroupingSeparator() {
+		return settings.isUseGroupingSeparator();
+	}
+
+	public char getGroupingSeparator() {
+		return settings.getGroupingSeparator();
+	}
+
+	@NotNull
+	public EvaluationMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(@NotNull EvaluationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return snapshot of current settings of engine
+	 */
+	@NotNull
+	public EvaluationSettings getEvaluationSettings() {
+		return settings;
+	}
+
+	/**
+	 * NOTE: numeral base of math engine must not be read directly outside of calculations: calculation with other settings
+	 * temporarily sets its numeral base in math engine
+	 *
+	 * @return numeral base of calculation if current thread is calculating, numeral base of current settings otherwise
+	 */
+	@NotNull
+	public NumeralBase getNumeralBase() {
+		final EvaluationSettings result = calculationSettings.get();
+		return result == null ? settings.getNumeralBase() : result.getNumeralBase();
+	}
+
+	/**
+	 * @param engine math engine
+	 * @return numeral base of math engine (for math engine of calculator see {@link #getNumeralBase()})
+	 */
+	@NotNull
+	public NumeralBase getNumeralBase(@NotNull MathEngine engine) {
+		return engine == this.engine ? getNumeralBase() : engine.getNumeralBase();
+	}
+
 	public void setPrecision(int precision) {
-		this.getEngine().setPrecision(precision);
+		synchronized (settingsLock) {
+			this.settings = settings.withPrecision(precision);
+		}
+		applyPendingSettings();
 	}
 
 	public void setRoundResult(boolean roundResult) {
-		this.getEngine().setRoundResult(roundResult);
+		synchronized (settingsLock) {
+			this.settings = settings.withRoundResult(roundResult);
+		}
+		applyPendingSettings();
 	}
 
 	public void init(@Nullable Context context, @Nullable SharedPreferences preferences) {
-		synchronized (lock) {
-			reset(context, preferences);
-		}
+		reset(context, preferences);
 	}
 
 	public void reset(@Nullable Context context, @Nullable SharedPreferences preferences) {
-		synchronized (lock) {
+		// NOTE: registries are loaded exclusively (done only on start of application or on reset of settings)
+		engineLock.writeLock().lock();
+		try {
 			softReset(context, preferences);
 
 			varsRegistry.load(context, preferences);
 			functionsRegistry.load(context, preferences);
 			operatorsRegistry.load(context, preferences);
 			postfixFunctionsRegistry.load(context, preferences);
+
+			// tables for search of tokens are built now and not on the first key press
+			MathType.getMaxTokenLength();
+		} finally {
+			engineLock.writeLock().unlock();
 		}
 	}
 
 	public void softReset(@Nullable Context context, @Nullable SharedPreferences preferences) {
-		synchronized (lock) {
-			if (preferences != null) {
-				this.setPrecision(Preferences.precision.getPreference(preferences));
-				this.setRoundResult(Preferences.roundResult.getPreference(preferences));
-				this.setAngleUnits(getAngleUnitsFromPrefs(preferences));
-				this.setNumeralBase(getNumeralBaseFromPrefs(preferences));
-				this.setMultiplicationSign(Preferences.multiplicationSign.getPreference(preferences));
-				this.setScienceNotation(Preferences.scienceNotation.getPreference(preferences));
-				this.setTimeout(Preferences.maxCalculationTime.getPreference(preferences));
-
-				final String groupingSeparator = Preferences.groupingSeparator.getPreference(preferences);
+		if (preferences != null) {
+			this.setPrecision(Preferences.precision.getPreference(preferences));
+			this.setRoundResult(Preferences.roundResult.getPreference(preferences));
+			this.setAngleUnits(getAngleUnitsFromPrefs(preferences));
+			this.setNumeralBase(getNumeralBaseFromPrefs(preferences));
+			this.setMultiplicationSign(Preferences.multiplicationSign.getPreference(preferences));
+			this.setScienceNotation(Preferences.scienceNotation.getPreference(preferences));
+			this.setTimeout(Preferences.maxCalculationTime.getPreference(preferences));
+
+			final String groupingSeparator = Preferences.groupingSeparator.getPreference(preferences);
+			synchronized (settingsLock) {
 				if (StringUtils.isEmpty(groupingSeparator)) {
-					this.getEngine().setUseGroupingSeparator(false);
+					this.settings = settings.withGroupingSeparator(false, settings.getGroupingSeparator());
 				} else {
-					this.getEngine().setUseGroupingSeparator(true);
-					this.getEngine().setGroupingSeparator(groupingSeparator.charAt(0));
+					this.settings = settings.withGroupingSeparator(true, groupingSeparator.charAt(0));
 				}
 			}
+			applyPendingSettings();
 		}
 	}
 
@@ -349,8 +1191,20 @@ public enum CalculatorEngine {
 
 	//for tests only
 	void setDecimalGroupSymbols(@NotNull DecimalFormatSymbols decimalGroupSymbols) {
-		synchronized (lock) {
+		// NOTE: decimal symbols are not part of evaluation settings => they are changed exclusively
+		engineLock.writeLock().lock();
+		try {
+			synchronized (settingsLock) {
+				this.settings = settings.withGroupingSeparator(settings.isUseGroupingSeparator(), decimalGroupSymbols.getGroupingSeparator());
+			}
 			this.getEngine().setDecimalGroupSymbols(decimalGroupSymbols);
+			applySettings(settings);
+
+			// decimal symbols are not part of evaluation settings
+			this.resultCache.clear();
+			this.formattedNumberCache.clear();
+		} finally {
+			engineLock.writeLock().unlock();
 		}
 	}
 
@@ -385,15 +1239,44 @@ public enum CalculatorEngine {
 	}
 
 	public void setAngleUnits(@NotNull AngleUnit angleUnits) {
-		getEngine().setAngleUnits(angleUnits);
+		synchronized (settingsLock) {
+			this.settings = settings.withAngleUnits(angleUnits);
+		}
+		applyPendingSettings();
 	}
 
 	public void setScienceNotation(boolean scienceNotation) {
-		getEngine().setScienceNotation(scienceNotation);
+		synchronized (settingsLock) {
+			this.settings = settings.withScienceNotation(scienceNotation);
+		}
+		applyPendingSettings();
 	}
 
 	public void setNumeralBase(@NotNull NumeralBase numeralBase) {
-		getEngine().setNumeralBase(numeralBase);
+		synchronized (settingsLock) {
+			this.settings = settings.withNumeralBase(numeralBase);
+		}
+		applyPendingSettings();
+	}
+
+	public void setEvaluationThreadPool(int threads, int queueCapacity) {
+		setEvaluationExecutor(new EvaluationExecutor(threads, queueCapacity));
+	}
+
+	// package protected for tests
+	void setEvaluationExecutor(@NotNull Executor evaluationExecutor) {
+		final Executor oldExecutor = this.evaluationExecutor;
+		this.evaluationExecutor = evaluationExecutor;
+
+		if (oldExecutor instanceof ExecutorService) {
+			// let already started calculations finish
+			((ExecutorService) oldExecutor).shutdown();
+		}
+	}
+
+	// for tests only
+	int getEngineReadLockCount() {
+		return engineLock.getReadLockCount();
 	}
 
 	// for tests only
@@ -405,6 +1288,7 @@ public enum CalculatorEngine {
 		void killThread(@NotNull Thread thread);
 	}
 
+	// NOTE: Thread.stop() is not supported on Android => thread which doesn't stop after interruption only gets lowest priority
 	private static class AndroidThreadKiller implements ThreadKiller {
 		@Override
 		public void killThread(@NotNull Thread thread) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Token used for cooperative cancellation of evaluation: evaluation pipeline checks token regularly
+ * (see {@link #checkCancelled()}) and stops as soon as token is cancelled.
+ * Thread doing the evaluation is also interrupted on cancellation as jscl checks interruption status while parsing.
+ *
+ * User: serso
+ * Date: 2/14/12
+ * Time: 9:05 PM
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled = false;
+
+	// thread currently doing the work for this token
+	@Nullable
+	private Thread thread;
+
+	public synchronized void cancel() {
+		if (!cancelled) {
+			cancelled = true;
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Method must be called regularly by code doing the work
+	 *
+	 * @throws EvaluationCancelledException if token was cancelled
+	 */
+	public void checkCancelled() throws EvaluationCancelledException {
+		if (cancelled) {
+			throw new EvaluationCancelledException();
+		}
+	}
+
+	synchronized void attach(@Nullable Thread thread) {
+		this.thread = thread;
+	}
+
+	synchronized void detach() {
+		if (this.thread != null) {
+			if (this.thread == Thread.currentThread()) {
+				// thread will be reused => interruption by this token must not affect next work
+				Thread.interrupted();
+			}
+			this.thread = null;
+		}
+	}
+
+	/**
+	 * Token which is never cancelled (NOTE: cancellation is ignored as token might be shared by several evaluations)
+	 */
+	public static final CancellationToken NONE = new CancellationToken() {
+		@Override
+		public void cancel() {
+			// never cancelled
+		}
+
+		@Override
+		synchronized void attach(@Nullable Thread thread) {
+			// nothing to attach
+		}
+	};
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.AngleUnit;
+import jscl.NumeralBase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fast path for numeric evaluation of plain arithmetic expressions: expression (in jscl format) is parsed
+ * directly into the tree of primitive double operations.
+ *
+ * Evaluator is conservative: if expression contains anything what jscl might evaluate differently (variables, constants,
+ * postfix functions, big numbers, complex results etc) null is returned and expression must be evaluated by jscl.
+ *
+ * User: serso
+ * Date: 2/19/12
+ * Time: 4:10 PM
+ */
+public final class DoubleEvaluator {
+
+	// max integer which can be exactly represented by double (jscl works with exact integers)
+	private static final double MAX_EXACT_VALUE = 9007199254740992d;
+
+	@NotNull
+	private static final Map<String, Function> functions = new HashMap<String, Function>();
+
+	private static final int MAX_FUNCTION_NAME_LENGTH;
+
+	static {
+		for (Function function : Function.values()) {
+			functions.put(function.name, function);
+		}
+
+		int maxFunctionNameLength = 0;
+		for (String name : functions.keySet()) {
+			maxFunctionNameLength = Math.max(maxFunctionNameLength, name.length());
+		}
+		MAX_FUNCTION_NAME_LENGTH = maxFunctionNameLength;
+	}
+
+	private DoubleEvaluator() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param settings evaluation settings
+	 * @return true if fast path can be used with specified settings
+	 */
+	public static boolean isApplicable(@NotNull EvaluationSettings settings) {
+		final AngleUnit angleUnits = settings.getAngleUnits();
+		// NOTE: not rounded result would show difference between double and exact arithmetic
+		return settings.isRoundResult()
+				&& settings.getNumeralBase() == NumeralBase.dec
+				&& (angleUnits == AngleUnit.deg || angleUnits == AngleUnit.rad || angleUnits == AngleUnit.grad);
+	}
+
+	/**
+	 * Method evaluates expression if it is possible
+	 *
+	 * @param jsclExpression expression in jscl format (see {@link ToJsclTextProcessor})
+	 * @param settings evaluation settings
+	 *
+	 * @return result of evaluation or null if expression must be evaluated by jscl
+	 */
+	@Nullable
+	public static Double evaluate(@NotNull String jsclExpression, @NotNull EvaluationSettings settings) {
+		if (!isApplicable(settings)) {
+			return null;
+		}
+
+		final Node node = parse(jsclExpression);
+		if (node == null) {
+			return null;
+		}
+
+		try {
+			final double result = node.value(settings.getAngleUnits());
+			// -0 => 0
+			return result == 0d ? 0d : result;
+		} catch (UnsupportedValueException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param jsclExpression expression in jscl format
+	 * @return evaluation tree or null if expression is not supported
+	 */
+	@Nullable
+	static Node parse(@NotNull String jsclExpression) {
+		final Parser parser = new Parser(jsclExpression);
+		try {
+			final Node result = parser.parseExpression();
+			return parser.isEnd() ? result : null;
+		} catch (UnsupportedExpressionException e) {
+			return null;
+		}
+	}
+
+	private static final class Parser {
+
+		@NotNull
+		private final String s;
+
+		private int i = 0;
+
+		private Parser(@NotNull String s) {
+			this.s = s;
+		}
+
+		private boolean isEnd() {
+			return i >= s.length();
+		}
+
+		private char current() {
+			return i < s.length() ? s.charAt(i) : 0;
+		}
+
+		// expression := ['-'] term { ('+' | '-') term }
+		@NotNull
+		private Node parseExpression() {
+			final boolean negate = current() == '-';
+			if (negate) {
+				i++;
+			}
+
+			Node result = parseTerm();
+			if (negate) {
+				result = new Negation(result);
+			}
+
+			while (current() == '+' || current() == '-') {
+				final char operation = current();
+				i++;
+				result = new BinaryOperation(operation, result, parseTerm());
+			}
+
+			return result;
+		}
+
+		// term := power { ('*' | '/') power }
+		@NotNull
+		private Node parseTerm() {
+			Node result = parsePower();
+
+			while (current() == '*' || current() == '/') {
+				final char operation = current();
+				i++;
+				result = new BinaryOperation(operation, result, parsePower());
+			}
+
+			return result;
+		}
+
+		// power := primary [ '^' primary ]
+		@NotNull
+		private Node parsePower() {
+			final Node result = parsePrimary();
+
+			if (current() == '^') {
+				i++;
+				final Node exponent = parsePrimary();
+				if (current() == '^') {
+					// associativity of chained powers is left to jscl
+					throw new UnsupportedExpressionException();
+				}
+				return new BinaryOperation('^', result, exponent);
+			}
+
+			return result;
+		}
+
+		// primary := number | '(' expression ')' | function '(' expression ')'
+		@NotNull
+		private Node parsePrimary() {
+			final char c = current();
+
+			if (c == '(') {
+				i++;
+				final Node result = parseExpression();
+				expect(')');
+				return result;
+			} else if (isDigit(c)) {
+				return parseNumber();
+			} else {
+				final Function function = parseFunctionName();
+				expect('(');
+				final Node argument = parseExpression();
+				expect(')');
+				return new FunctionCall(function, argument);
+			}
+		}
+
+		@NotNull
+		private Node parseNumber() {
+			final int start = i;
+
+			skipDigits();
+			if (current() == '.') {
+				i++;
+				if (!isDigit(current())) {
+					throw new UnsupportedExpressionException();
+				}
+				skipDigits();
+			}
+
+			if (current() == 'E') {
+				i++;
+				if (current() == '-' || current() == '+') {
+					i++;
+				}
+				if (!isDigit(current())) {
+					throw new UnsupportedExpressionException();
+				}
+				skipDigits();
+			}
+
+			final double value = Double.parseDouble(s.substring(start, i));
+			if (Math.abs(value) > MAX_EXACT_VALUE) {
+				throw new UnsupportedExpressionException();
+			}
+			return new NumberNode(value);
+		}
+
+		@NotNull
+		private Function parseFunctionName() {
+			// function names are followed by open bracket
+			final int maxEnd = Math.min(s.length(), i + MAX_FUNCTION_NAME_LENGTH);
+			for (int end = i + 1; end <= maxEnd; end++) {
+				if (end < s.length() && s.charAt(end) == '(') {
+					final Function result = functions.get(s.substring(i, end));
+					if (result != null) {
+						i = end;
+						return result;
+					}
+				}
+			}
+
+			throw new UnsupportedExpressionException();
+		}
+
+		private void skipDigits() {
+			while (isDigit(current())) {
+				i++;
+			}
+		}
+
+		private void expect(char c) {
+			if (current() != c) {
+				throw new UnsupportedExpressionException();
+			}
+			i++;
+		}
+
+		private static boolean isDigit(char c) {
+			return c >= '0' && c <= '9';
+		}
+	}
+
+	static abstract class Node {
+
+		abstract double value(@NotNull AngleUnit angleUnit);
+	}
+
+	private static final class NumberNode extends Node {
+
+		private final double value;
+
+		private NumberNode(double value) {
+			this.value = value;
+		}
+
+		@Override
+		double value(@NotNull AngleUnit angleUnit) {
+			return value;
+		}
+	}
+
+	private static final class Negation extends Node {
+
+		@NotNull
+		private final Node node;
+
+		private Negation(@NotNull Node node) {
+			this.node = node;
+		}
+
+		@Override
+		double value(@NotNull AngleUnit angleUnit) {
+			return -node.value(angleUnit);
+		}
+	}
+
+	private static final class BinaryOperation extends Node {
+
+		private final char operation;
+
+		@NotNull
+		private final Node left;
+
+		@NotNull
+		private final Node right;
+
+		private BinaryOperation(char operation, @NotNull Node left, @NotNull Node right) {
+			this.operation = operation;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		double value(@NotNull AngleUnit angleUnit) {
+			final double l = left.value(angleUnit);
+			final double r = right.value(angleUnit);
+
+			final double result;
+			switch (operation) {
+				case '+':
+					result = l + r;
+					break;
+				case '-':
+					result = l - r;
+					break;
+				case '*':
+					result = l * r;
+					break;
+				case '/':
+					result = l / r;
+					break;
+				case '^':
+					result = Math.pow(l, r);
+					break;
+				default:
+					throw new UnsupportedValueException();
+			}
+
+			return checkValue(result);
+		}
+	}
+
+	private static final class FunctionCall extends Node {
+
+		@NotNull
+		private final Function function;
+
+		@NotNull
+		private final Node argument;
+
+		private FunctionCall(@NotNull Function function, @NotNull Node argument) {
+			this.function = function;
+			this.argument = argument;
+		}
+
+		@Override
+		double value(@NotNull AngleUnit angleUnit) {
+			return checkValue(function.value(argument.value(angleUnit), angleUnit));
+		}
+	}
+
+	private static enum Function {
+
+		sin("sin") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.sin(toRadians(x, angleUnit));
+			}
+		},
+
+		cos("cos") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.cos(toRadians(x, angleUnit));
+			}
+		},
+
+		tan("tan") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.tan(toRadians(x, angleUnit));
+			}
+		},
+
+		asin("asin") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return fromRadians(Math.asin(x), angleUnit);
+			}
+		},
+
+		acos("acos") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return fromRadians(Math.acos(x), angleUnit);
+			}
+		},
+
+		atan("atan") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return fromRadians(Math.atan(x), angleUnit);
+			}
+		},
+
+		sinh("sinh") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.sinh(x);
+			}
+		},
+
+		cosh("cosh") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.cosh(x);
+			}
+		},
+
+		tanh("tanh") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.tanh(x);
+			}
+		},
+
+		ln("ln") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.log(x);
+			}
+		},
+
+		lg("lg") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.log10(x);
+			}
+		},
+
+		exp("exp") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.exp(x);
+			}
+		},
+
+		sqrt("√") {
+			@Override
+			double value(double x, @NotNull AngleUnit angleUnit) {
+				return Math.sqrt(x);
+			}
+		};
+
+		@NotNull
+		private final String name;
+
+		Function(@NotNull String name) {
+			this.name = name;
+		}
+
+		abstract double value(double x, @NotNull AngleUnit angleUnit);
+
+		private static double toRadians(double x, @NotNull AngleUnit angleUnit) {
+			switch (angleUnit) {
+				case deg:
+					return x * Math.PI / 180d;
+				case grad:
+					return x * Math.PI / 200d;
+				default:
+					return x;
+			}
+		}
+
+		private static double fromRadians(double x, @NotNull AngleUnit angleUnit) {
+			switch (angleUnit) {
+				case deg:
+					return x * 180d / Math.PI;
+				case grad:
+					return x * 200d / Math.PI;
+				default:
+					return x;
+			}
+		}
+	}
+
+	/**
+	 * Method checks that value can be processed by fast path: complex (NaN), infinite and too big values must be processed by jscl
+	 *
+	 * @param value value to be checked
+	 * @return the same value
+	 */
+	private static double checkValue(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) > MAX_EXACT_VALUE) {
+			throw new UnsupportedValueException();
+		}
+		return value;
+	}
+
+	private static class UnsupportedExpressionException extends RuntimeException {
+	}
+
+	private static class UnsupportedValueException extends RuntimeException {
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives result of asynchronous evaluation (see {@link CalculatorEngine#evaluateAsync})
+ *
+ * User: serso
+ * Date: 2/17/12
+ * Time: 7:48 PM
+ */
+public interface EvaluationCallback {
+
+	void onSuccess(@NotNull CalculatorEngine.Result result);
+
+	void onParseError(@NotNull CalculatorParseException e);
+
+	void onEvalError(@NotNull CalculatorEvalException e);
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+/**
+ * Thrown from evaluation pipeline if evaluation was cancelled (see {@link CancellationToken})
+ *
+ * User: serso
+ * Date: 2/14/12
+ * Time: 9:11 PM
+ */
+public class EvaluationCancelledException extends RuntimeException {
+
+	public EvaluationCancelledException() {
+		super("Evaluation was cancelled");
+	}
+}
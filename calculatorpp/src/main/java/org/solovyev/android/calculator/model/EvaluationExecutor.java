@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of warm calculation threads: evaluation is done on every key press
+ * and creation of new thread for each evaluation costs too much.
+ *
+ * NOTE: calculation which doesn't stop after cancellation (e.g. long loop inside jscl which ignores interruption) holds its thread
+ * => such thread must be abandoned (see {@link #abandon(Thread, Runnable)}) and pool grows by one thread until the calculation ends
+ *
+ * User: serso
+ * Date: 2/12/12
+ * Time: 1:14 PM
+ */
+public class EvaluationExecutor extends ThreadPoolExecutor {
+
+	// evaluations might be done concurrently => one thread per processor (but at least one spare thread in case if previous calculation is not stopped yet)
+	public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+	// max number of replacements of abandoned threads (runaway calculations must not create threads without limit)
+	private final int maxAbandonedThreads;
+
+	// task currently run by each thread
+	@NotNull
+	private final Map<Thread, Runnable> runningTasks = new HashMap<Thread, Runnable>();
+
+	@NotNull
+	private final Set<Thread> abandonedThreads = new HashSet<Thread>();
+
+	public EvaluationExecutor() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public EvaluationExecutor(int threads, int queueCapacity) {
+		super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), new CalculationThreadFactory());
+
+		this.maxAbandonedThreads = threads;
+
+		// threads must be ready before first evaluation
+		prestartAllCoreThreads();
+	}
+
+	/**
+	 * Method abandons thread which still runs the task after the task was cancelled: new thread is started instead of it
+	 * and pool is shrunk back when the task ends
+	 *
+	 * @param thread thread running the task
+	 * @param task task submitted via {@link #execute(Runnable)}
+	 *
+	 * @return true if thread was replaced, false if task has already ended or too many threads are abandoned
+	 */
+	public synchronized boolean abandon(@NotNull Thread thread, @NotNull Runnable task) {
+		if (runningTasks.get(thread) != task || abandonedThreads.contains(thread) || abandonedThreads.size() >= maxAbandonedThreads) {
+			return false;
+		}
+
+		abandonedThreads.add(thread);
+
+		// NOTE: maximum pool size must not be less than core pool size
+		setMaximumPoolSize(getMaximumPoolSize() + 1);
+		setCorePoolSize(getCorePoolSize() + 1);
+		prestartCoreThread();
+
+		return true;
+	}
+
+	/**
+	 * @return number of threads which still run abandoned tasks
+	 */
+	public synchronized int getAbandonedThreadsCount() {
+		return abandonedThreads.size();
+	}
+
+	@Override
+	protected void beforeExecute(@NotNull Thread thread, @NotNull Runnable task) {
+		synchronized (this) {
+			runningTasks.put(thread, task);
+		}
+		super.beforeExecute(thread, task);
+	}
+
+	@Override
+	protected void afterExecute(@NotNull Runnable task, Throwable t) {
+		super.afterExecute(task, t);
+
+		final Thread thread = Thread.currentThread();
+		synchronized (this) {
+			runningTasks.remove(thread);
+			if (abandonedThreads.remove(thread)) {
+				// abandoned task has finally ended => extra thread is not needed any more (idle threads above core size are stopped)
+				setCorePoolSize(getCorePoolSize() - 1);
+				setMaximumPoolSize(getMaximumPoolSize() - 1);
+			}
+		}
+	}
+
+	private static class CalculationThreadFactory implements ThreadFactory {
+
+		@NotNull
+		private final AtomicInteger counter = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(@NotNull Runnable r) {
+			final Thread result = new Thread(r, "Calculation thread #" + counter.incrementAndGet());
+			// calculation threads must not prevent application from exit
+			result.setDaemon(true);
+			return result;
+		}
+	}
+}
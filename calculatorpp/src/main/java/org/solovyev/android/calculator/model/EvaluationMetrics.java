@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Timings of evaluation stages and counters of special events of {@link CalculatorEngine}
+ *
+ * User: serso
+ * Date: 2/20/12
+ * Time: 8:37 PM
+ */
+public interface EvaluationMetrics {
+
+	enum Stage {
+
+		// conversion of expression to jscl format (see ToJsclTextProcessor)
+		preprocessing,
+
+		// parsing of jscl expression
+		parsing,
+
+		// numeric/simplify/elementary operation on parsed expression (or double fast path)
+		evaluation,
+
+		// conversion of result to string inside calculation thread
+		to_string,
+
+		// conversion of result to the user format (see FromJscl* processors)
+		postprocessing,
+
+		// full evaluation as seen by caller
+		total
+	}
+
+	void onStage(@NotNull Stage stage, long nanos);
+
+	// evaluation was stopped after timeout
+	void onTimeout();
+
+	// numeric evaluation was retried as simplify (undefined vars or numeral base problems)
+	void onFallback();
+
+	// numeric evaluation was done by double fast path
+	void onFastPath();
+
+	long getTimeoutCount();
+
+	long getFallbackCount();
+
+	long getFastPathCount();
+
+	@NotNull
+	StageSummary getSummary(@NotNull Stage stage);
+
+	/**
+	 * Method writes human readable summary of all metrics
+	 *
+	 * @param writer target
+	 * @throws IOException if writing fails
+	 */
+	void dump(@NotNull Writer writer) throws IOException;
+
+	void reset();
+
+	/**
+	 * Summary of timings of one stage (values in nanoseconds)
+	 */
+	final class StageSummary {
+
+		private final long count;
+
+		private final long p50;
+
+		private final long p95;
+
+		private final long p99;
+
+		private final long max;
+
+		public StageSummary(long count, long p50, long p95, long p99, long max) {
+			this.count = count;
+			this.p50 = p50;
+			this.p95 = p95;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP95() {
+			return p95;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", p50=" + p50 + "ns, p95=" + p95 + "ns, p99=" + p99 + "ns, max=" + max + "ns";
+		}
+	}
+}
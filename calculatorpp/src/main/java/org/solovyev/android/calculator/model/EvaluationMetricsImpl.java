@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps last N timings of each stage (percentiles are calculated on them) and total counters
+ *
+ * User: serso
+ * Date: 2/20/12
+ * Time: 8:52 PM
+ */
+public class EvaluationMetricsImpl implements EvaluationMetrics {
+
+	public static final int DEFAULT_SAMPLES_COUNT = 1024;
+
+	@NotNull
+	private final Map<Stage, Samples> samples = new EnumMap<Stage, Samples>(Stage.class);
+
+	@NotNull
+	private final AtomicLong timeouts = new AtomicLong(0);
+
+	@NotNull
+	private final AtomicLong fallbacks = new AtomicLong(0);
+
+	@NotNull
+	private final AtomicLong fastPaths = new AtomicLong(0);
+
+	public EvaluationMetricsImpl() {
+		this(DEFAULT_SAMPLES_COUNT);
+	}
+
+	public EvaluationMetricsImpl(int samplesCount) {
+		for (Stage stage : Stage.values()) {
+			samples.put(stage, new Samples(samplesCount));
+		}
+	}
+
+	@Override
+	public void onStage(@NotNull Stage stage, long nanos) {
+		samples.get(stage).add(nanos);
+	}
+
+	@Override
+	public void onTimeout() {
+		timeouts.incrementAndGet();
+	}
+
+	@Override
+	public void onFallback() {
+		fallbacks.incrementAndGet();
+	}
+
+	@Override
+	public void onFastPath() {
+		fastPaths.incrementAndGet();
+	}
+
+	@Override
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getFallbackCount() {
+		return fallbacks.get();
+	}
+
+	@Override
+	public long getFastPathCount() {
+		return fastPaths.get();
+	}
+
+	@NotNull
+	@Override
+	public StageSummary getSummary(@NotNull Stage stage) {
+		return samples.get(stage).getSummary();
+	}
+
+	@Override
+	public void dump(@NotNull Writer writer) throws IOException {
+		for (Stage stage : Stage.values()) {
+			writer.write(stage.name() + ": " + getSummary(stage) + "\n");
+		}
+		writer.write("timeouts: " + getTimeoutCount() + "\n");
+		writer.write("fallbacks: " + getFallbackCount() + "\n");
+		writer.write("fast paths: " + getFastPathCount() + "\n");
+		writer.flush();
+	}
+
+	/**
+	 * Method writes summary of metrics to the file (file is overwritten)
+	 *
+	 * @param file target file
+	 * @throws IOException if writing fails
+	 */
+	public void dump(@NotNull File file) throws IOException {
+		final Writer writer = new FileWriter(file);
+		try {
+			dump(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Override
+	public void reset() {
+		for (Samples stageSamples : samples.values()) {
+			stageSamples.clear();
+		}
+		timeouts.set(0);
+		fallbacks.set(0);
+		fastPaths.set(0);
+	}
+
+	// ring buffer of last timings
+	private static final class Samples {
+
+		@NotNull
+		private final long[] values;
+
+		// total number of added values
+		private long count = 0;
+
+		private Samples(int size) {
+			this.values = new long[size];
+		}
+
+		private synchronized void add(long value) {
+			values[(int) (count % values.length)] = value;
+			count++;
+		}
+
+		private synchronized void clear() {
+			count = 0;
+		}
+
+		@NotNull
+		private StageSummary getSummary() {
+			final long[] sorted;
+			final long localCount;
+			synchronized (this) {
+				localCount = count;
+				// NOTE: Arrays.copyOf() is not available before API 9
+				sorted = new long[(int) Math.min(count, values.length)];
+				System.arraycopy(values, 0, sorted, 0, sorted.length);
+			}
+
+			if (sorted.length == 0) {
+				return new StageSummary(0, 0, 0, 0, 0);
+			}
+
+			Arrays.sort(sorted);
+			return new StageSummary(localCount, percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), sorted[sorted.length - 1]);
+		}
+
+		private static long percentile(@NotNull long[] sorted, int percent) {
+			final int index = (int) Math.ceil(percent / 100d * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+}
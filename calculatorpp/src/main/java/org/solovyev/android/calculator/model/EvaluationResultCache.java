@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of evaluation results: same expressions are evaluated again and again (history, undo/redo, redraw after settings change).
+ * Cache is bounded both by number of entries and by estimated memory consumption.
+ *
+ * User: serso
+ * Date: 2/15/12
+ * Time: 8:44 PM
+ */
+public class EvaluationResultCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 200;
+
+	// estimated size in bytes
+	public static final long DEFAULT_MAX_SIZE = 512 * 1024;
+
+	// approximate number of bytes of one cache entry without strings and result
+	private static final int ENTRY_OVERHEAD = 160;
+
+	// approximate number of bytes per character of result needed for storing generic result
+	private static final int GENERIC_SIZE_PER_CHAR = 24;
+
+	private final int maxEntries;
+
+	private final long maxSize;
+
+	// access ordered => eldest entry is least recently used
+	@NotNull
+	private final LinkedHashMap<Key, CalculatorEngine.Result> entries = new LinkedHashMap<Key, CalculatorEngine.Result>(16, 0.75f, true);
+
+	private long size = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	public EvaluationResultCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_SIZE);
+	}
+
+	public EvaluationResultCache(int maxEntries, long maxSize) {
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+	}
+
+	@Nullable
+	public synchronized CalculatorEngine.Result get(@NotNull Key key) {
+		final CalculatorEngine.Result result = entries.get(key);
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return result;
+	}
+
+	public synchronized void put(@NotNull Key key, @NotNull CalculatorEngine.Result result) {
+		final CalculatorEngine.Result oldResult = entries.put(key, result);
+		if (oldResult != null) {
+			size -= estimateSize(key, oldResult);
+		}
+		size += estimateSize(key, result);
+
+		final Iterator<Map.Entry<Key, CalculatorEngine.Result>> it = entries.entrySet().iterator();
+		while (it.hasNext() && (entries.size() > maxEntries || size > maxSize)) {
+			final Map.Entry<Key, CalculatorEngine.Result> eldest = it.next();
+			size -= estimateSize(eldest.getKey(), eldest.getValue());
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	public synchronized int getEntriesCount() {
+		return entries.size();
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	private static long estimateSize(@NotNull Key key, @NotNull CalculatorEngine.Result result) {
+		final int resultLength = result.getResult().length();
+		return ENTRY_OVERHEAD + 2 * (key.expression.length() + key.multiplicationSign.length() + resultLength) + GENERIC_SIZE_PER_CHAR * resultLength;
+	}
+
+	/**
+	 * Key of cache: result of evaluation depends on expression, operation, settings of math engine and content of math registries
+	 */
+	public static final class Key {
+
+		@NotNull
+		private final String expression;
+
+		@NotNull
+		private final JsclOperation operation;
+
+		@NotNull
+		private final EvaluationSettings settings;
+
+		@NotNull
+		private final String multiplicationSign;
+
+		private final int registriesVersion;
+
+		public Key(@NotNull String expression,
+				   @NotNull JsclOperation operation,
+				   @NotNull EvaluationSettings settings,
+				   @NotNull String multiplicationSign,
+				   int registriesVersion) {
+			this.expression = expression;
+			this.operation = operation;
+			this.settings = settings;
+			this.multiplicationSign = multiplicationSign;
+			this.registriesVersion = registriesVersion;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+
+			final Key that = (Key) o;
+
+			if (registriesVersion != that.registriesVersion) return false;
+			if (operation != that.operation) return false;
+			if (!expression.equals(that.expression)) return false;
+			if (!settings.equals(that.settings)) return false;
+			if (!multiplicationSign.equals(that.multiplicationSign)) return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = expression.hashCode();
+			result = 31 * result + operation.hashCode();
+			result = 31 * result + settings.hashCode();
+			result = 31 * result + multiplicationSign.hashCode();
+			result = 31 * result + registriesVersion;
+			return result;
+		}
+	}
+}
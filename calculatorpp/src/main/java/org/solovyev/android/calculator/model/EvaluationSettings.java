@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.AngleUnit;
+import jscl.MathEngine;
+import jscl.NumeralBase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Immutable snapshot of math engine settings which affect result of evaluation.
+ * Snapshot is captured once per evaluation request => request is not affected by concurrent changes of settings.
+ *
+ * User: serso
+ * Date: 2/13/12
+ * Time: 10:21 PM
+ */
+public final class EvaluationSettings {
+
+	private final int precision;
+
+	private final boolean roundResult;
+
+	@NotNull
+	private final AngleUnit angleUnits;
+
+	@NotNull
+	private final NumeralBase numeralBase;
+
+	private final boolean scienceNotation;
+
+	private final boolean useGroupingSeparator;
+
+	private final char groupingSeparator;
+
+	private EvaluationSettings(int precision,
+							   boolean roundResult,
+							   @NotNull AngleUnit angleUnits,
+							   @NotNull NumeralBase numeralBase,
+							   boolean scienceNotation,
+							   boolean useGroupingSeparator,
+							   char groupingSeparator) {
+		this.precision = precision;
+		this.roundResult = roundResult;
+		this.angleUnits = angleUnits;
+		this.numeralBase = numeralBase;
+		this.scienceNotation = scienceNotation;
+		this.useGroupingSeparator = useGroupingSeparator;
+		this.groupingSeparator = groupingSeparator;
+	}
+
+	@NotNull
+	public static EvaluationSettings newInstance(int precision,
+												 boolean roundResult,
+												 @NotNull AngleUnit angleUnits,
+												 @NotNull NumeralBase numeralBase,
+												 boolean scienceNotation,
+												 boolean useGroupingSeparator,
+												 char groupingSeparator) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	/**
+	 * Method sets all the settings of snapshot to the math engine
+	 *
+	 * @param engine math engine to be modified
+	 */
+	void apply(@NotNull MathEngine engine) {
+		engine.setPrecision(precision);
+		engine.setRoundResult(roundResult);
+		engine.setAngleUnits(angleUnits);
+		engine.setNumeralBase(numeralBase);
+		engine.setScienceNotation(scienceNotation);
+		engine.setUseGroupingSeparator(useGroupingSeparator);
+		if (useGroupingSeparator) {
+			engine.setGroupingSeparator(groupingSeparator);
+		}
+	}
+
+	// NOTE: snapshot is immutable => change of setting creates new snapshot
+
+	@NotNull
+	EvaluationSettings withPrecision(int precision) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	@NotNull
+	EvaluationSettings withRoundResult(boolean roundResult) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	@NotNull
+	EvaluationSettings withAngleUnits(@NotNull AngleUnit angleUnits) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	@NotNull
+	EvaluationSettings withNumeralBase(@NotNull NumeralBase numeralBase) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	@NotNull
+	EvaluationSettings withScienceNotation(boolean scienceNotation) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	@NotNull
+	EvaluationSettings withGroupingSeparator(boolean useGroupingSeparator, char groupingSeparator) {
+		return new EvaluationSettings(precision, roundResult, angleUnits, numeralBase, scienceNotation, useGroupingSeparator, groupingSeparator);
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public boolean isRoundResult() {
+		return roundResult;
+	}
+
+	@NotNull
+	public AngleUnit getAngleUnits() {
+		return angleUnits;
+	}
+
+	@NotNull
+	public NumeralBase getNumeralBase() {
+		return numeralBase;
+	}
+
+	public boolean isScienceNotation() {
+		return scienceNotation;
+	}
+
+	public boolean isUseGroupingSeparator() {
+		return useGroupingSeparator;
+	}
+
+	public char getGroupingSeparator() {
+		return groupingSeparator;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof EvaluationSettings)) return false;
+
+		final EvaluationSettings that = (EvaluationSettings) o;
+
+		if (precision != that.precision) return false;
+		if (roundResult != that.roundResult) return false;
+		if (scienceNotation != that.scienceNotation) return false;
+		if (useGroupingSeparator != that.useGroupingSeparator) return false;
+		if (groupingSeparator != that.groupingSeparator) return false;
+		if (angleUnits != that.angleUnits) return false;
+		if (numeralBase != that.numeralBase) return false;
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = precision;
+		result = 31 * result + (roundResult ? 1 : 0);
+		result = 31 * result + angleUnits.hashCode();
+		result = 31 * result + numeralBase.hashCode();
+		result = 31 * result + (scienceNotation ? 1 : 0);
+		result = 31 * result + (useGroupingSeparator ? 1 : 0);
+		result = 31 * result + (int) groupingSeparator;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "EvaluationSettings{" +
+				"precision=" + precision +
+				", roundResult=" + roundResult +
+				", angleUnits=" + angleUnits +
+				", numeralBase=" + numeralBase +
+				", scienceNotation=" + scienceNotation +
+				", useGroupingSeparator=" + useGroupingSeparator +
+				", groupingSeparator=" + groupingSeparator +
+				'}';
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.NumeralBase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of formatted numbers: on each redraw all numbers of the text are formatted again although usually
+ * only the number being typed is changed.
+ *
+ * NOTE: formatting also depends on decimal symbols of math engine which are not part of key => cache must be cleared if they are changed
+ *
+ * User: serso
+ * Date: 2/27/12
+ * Time: 8:15 PM
+ */
+public class FormattedNumberCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 100;
+
+	private final int maxEntries;
+
+	@NotNull
+	private final Map<Key, String> entries;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	public FormattedNumberCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public FormattedNumberCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		// access ordered => eldest entry is least recently used
+		this.entries = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+				return size() > FormattedNumberCache.this.maxEntries;
+			}
+		};
+	}
+
+	@Nullable
+	public synchronized String get(@NotNull Key key) {
+		final String result = entries.get(key);
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return result;
+	}
+
+	public synchronized void put(@NotNull Key key, @NotNull String formattedNumber) {
+		entries.put(key, formattedNumber);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int getEntriesCount() {
+		return entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Key of cache: formatted number depends on number (without grouping separators), numeral base and grouping settings
+	 */
+	public static final class Key {
+
+		@NotNull
+		private final String number;
+
+		@NotNull
+		private final NumeralBase numeralBase;
+
+		private final boolean useGroupingSeparator;
+
+		private final char groupingSeparator;
+
+		public Key(@NotNull String number, @NotNull NumeralBase numeralBase, boolean useGroupingSeparator, char groupingSeparator) {
+			this.number = number;
+			this.numeralBase = numeralBase;
+			this.useGroupingSeparator = useGroupingSeparator;
+			this.groupingSeparator = groupingSeparator;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+
+			final Key that = (Key) o;
+
+			if (useGroupingSeparator != that.useGroupingSeparator) return false;
+			if (groupingSeparator != that.groupingSeparator) return false;
+			if (numeralBase != that.numeralBase) return false;
+			if (!number.equals(that.number)) return false;
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = number.hashCode();
+			result = 31 * result + numeralBase.hashCode();
+			result = 31 * result + (useGroupingSeparator ? 1 : 0);
+			result = 31 * result + (int) groupingSeparator;
+			return result;
+		}
+	}
+}
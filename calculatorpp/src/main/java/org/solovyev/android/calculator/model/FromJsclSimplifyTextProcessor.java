@@ -3,6 +3,8 @@ package org.solovyev.android.calculator.model;
 import jscl.math.Generic;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathTokenStream;
 import org.solovyev.android.calculator.math.MathType;
 
 import java.util.Arrays;
@@ -34,40 +36,23 @@ public class FromJsclSimplifyTextProcessor implements TextProcessor<String, Gene
 	private String removeMultiplicationSigns(String s) {
 		final StringBuilder sb = new StringBuilder();
 
-		MathType.Result mathTypeBefore;
-		MathType.Result mathType = null;
-		MathType.Result mathTypeAfter = null;
+		final MathTokenStream tokens = MathLexer.instance.tokenize(s, false);
 
-		for (int i = 0; i < s.length(); i++) {
-			mathTypeBefore = mathType;
-			if (mathTypeAfter == null) {
-				mathType = MathType.getType(s, i, false);
-			} else {
-				mathType = mathTypeAfter;
-			}
+		MathType.Result mathTypeBefore = null;
+		for (int t = 0; t < tokens.size(); t++) {
+			final MathType.Result mathType = tokens.getResult(t);
 
-			char ch = s.charAt(i);
-			if (ch == '*') {
-				if (i + 1 < s.length()) {
-					mathTypeAfter = MathType.getType(s, i + 1, false);
-				} else {
-					mathTypeAfter = null;
-				}
+			if (mathType.getMatch().equals("*")) {
+				final MathType.Result mathTypeAfter = t + 1 < tokens.size() ? tokens.getResult(t + 1) : null;
 
 				if (needMultiplicationSign(mathTypeBefore == null ? null : mathTypeBefore.getMathType(), mathTypeAfter == null ? null : mathTypeAfter.getMathType())) {
 					sb.append(CalculatorEngine.instance.getMultiplicationSign());
 				}
-
 			} else {
-				if (mathType.getMathType() == MathType.constant || mathType.getMathType() == MathType.function || mathType.getMathType() == MathType.operator) {
-					sb.append(mathType.getMatch());
-					i += mathType.getMatch().length() - 1;
-				} else {
-					sb.append(ch);
-				}
-				mathTypeAfter = null;
+				sb.append(mathType.getMatch());
 			}
 
+			mathTypeBefore = mathType;
 		}
 
 		return sb.toString();
@@ -21,7 +21,7 @@ public class LiteNumberBuilder extends AbstractNumberBuilder {
 
 	public LiteNumberBuilder(@NotNull MathEngine engine) {
 		super(engine);
-		this.nb = engine.getNumeralBase();
+		this.nb = getDefaultNumeralBase();
 	}
 
 	public void process(@NotNull MathType.Result mathTypeResult) {
@@ -46,10 +46,15 @@ public class LiteNumberBuilder extends AbstractNumberBuilder {
 				numberBuilder = null;
 
 				// must set default numeral base (exit numeral base mode)
-				nb = engine.getNumeralBase();
+				nb = getDefaultNumeralBase();
 			}
 		}
 	}
 
+	/**
+	 * @return true if no number is being built at the moment (state of builder is the same as state of new builder)
+	 */
+	public boolean isIdle() {
+		return numberBuilder == null;
+	}
 }
-
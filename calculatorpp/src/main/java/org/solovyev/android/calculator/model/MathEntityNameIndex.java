@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of names of math registry with index for fast search of name in text.
+ * Snapshot is built for one version of registry (see {@link AndroidMathRegistry#getNameIndex()}) => can be reused until registry is changed.
+ *
+ * User: serso
+ * Date: 2/24/12
+ * Time: 7:55 PM
+ */
+public final class MathEntityNameIndex {
+
+	@NotNull
+	private static final Comparator<String> LONGEST_FIRST = new Comparator<String>() {
+		@Override
+		public int compare(String s1, String s2) {
+			final int result = s2.length() - s1.length();
+			return result != 0 ? result : s1.compareTo(s2);
+		}
+	};
+
+	private final int version;
+
+	// names in order of registry
+	@NotNull
+	private final List<String> names;
+
+	// sorted first characters of names
+	@NotNull
+	private final char[] firstChars;
+
+	// names starting with ith first character, the longest names are first
+	@NotNull
+	private final String[][] buckets;
+
+	private final int maxNameLength;
+
+	public MathEntityNameIndex(int version, @NotNull List<String> names) {
+		this.version = version;
+		this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+
+		final SortedMap<Character, List<String>> buckets = new TreeMap<Character, List<String>>();
+
+		int maxNameLength = 0;
+		for (String name : names) {
+			if (name != null && name.length() > 0) {
+				List<String> bucket = buckets.get(name.charAt(0));
+				if (bucket == null) {
+					bucket = new ArrayList<String>();
+					buckets.put(name.charAt(0), bucket);
+				}
+				bucket.add(name);
+				maxNameLength = Math.max(maxNameLength, name.length());
+			}
+		}
+
+		this.firstChars = new char[buckets.size()];
+		this.buckets = new String[buckets.size()][];
+
+		int i = 0;
+		for (Map.Entry<Character, List<String>> entry : buckets.entrySet()) {
+			final List<String> bucket = entry.getValue();
+			Collections.sort(bucket, LONGEST_FIRST);
+
+			this.firstChars[i] = entry.getKey();
+			this.buckets[i] = bucket.toArray(new String[bucket.size()]);
+			i++;
+		}
+
+		this.maxNameLength = maxNameLength;
+	}
+
+	/**
+	 * @return version of registry for which index was built
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return names of registry (in the same order as in registry)
+	 */
+	@NotNull
+	public List<String> getNames() {
+		return names;
+	}
+
+	public int getMaxNameLength() {
+		return maxNameLength;
+	}
+
+	/**
+	 * Method finds the longest name which starts at ith position of text
+	 *
+	 * @param text text
+	 * @param i position in text
+	 *
+	 * @return name or null if no name starts at position
+	 */
+	@Nullable
+	public String findLongest(@NotNull CharSequence text, int i) {
+		if (i < text.length()) {
+			final int index = Arrays.binarySearch(firstChars, text.charAt(i));
+			if (index >= 0) {
+				for (String name : buckets[index]) {
+					if (startsWith(text, i, name)) {
+						return name;
+					}
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private static boolean startsWith(@NotNull CharSequence text, int i, @NotNull String name) {
+		if (i + name.length() > text.length()) {
+			return false;
+		}
+
+		// NOTE: first character is already checked
+		for (int j = 1; j < name.length(); j++) {
+			if (text.charAt(i + j) != name.charAt(j)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
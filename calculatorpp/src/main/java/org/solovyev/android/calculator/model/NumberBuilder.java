@@ -9,15 +9,13 @@ package org.solovyev.android.calculator.model;
 import jscl.MathContext;
 import jscl.MathEngine;
 import jscl.NumeralBase;
-import jscl.math.numeric.Real;
 import jscl.text.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.solovyev.android.calculator.math.MathType;
-import org.solovyev.common.utils.MutableObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * User: serso
@@ -26,6 +24,32 @@ import java.util.List;
  */
 public class NumberBuilder extends AbstractNumberBuilder {
 
+	// NOTE: all grouping separators consist of one character
+	@NotNull
+	private static final String groupingSeparators;
+
+	// digits.get(nb)[c] is true if ASCII character c is acceptable in numbers of numeral base nb
+	@NotNull
+	private static final Map<NumeralBase, boolean[]> digits = new EnumMap<NumeralBase, boolean[]>(NumeralBase.class);
+
+	static {
+		final StringBuilder separators = new StringBuilder();
+		for (String groupingSeparator : MathType.grouping_separator.getTokens()) {
+			separators.append(groupingSeparator);
+		}
+		groupingSeparators = separators.toString();
+
+		for (NumeralBase nb : NumeralBase.values()) {
+			final boolean[] nbDigits = new boolean[128];
+			for (Character c : nb.getAcceptableCharacters()) {
+				if (c < 128) {
+					nbDigits[c] = true;
+				}
+			}
+			digits.put(nb, nbDigits);
+		}
+	}
+
 	public NumberBuilder(@NotNull MathEngine engine) {
 		super(engine);
 	}
@@ -35,13 +59,14 @@ public class NumberBuilder extends AbstractNumberBuilder {
 	 *
 	 * @param text text where number can be replaced
 	 * @param mathTypeResult math type result of current token
-	 * @param offset offset between new number length and old number length (newNumberLength - oldNumberLength)
+	 * @param offset holder (array of one element) of offset between new number length and old number length (newNumberLength - oldNumberLength),
+	 * NOTE: set only if number is replaced
 	 *
 	 *
 	 * @return new math type result (as one can be changed due to substituting of number with constant)
 	 */
 	@NotNull
-	public MathType.Result process(@NotNull StringBuilder text, @NotNull MathType.Result mathTypeResult, @Nullable MutableObject<Integer> offset) {
+	public MathType.Result process(@NotNull StringBuilder text, @NotNull MathType.Result mathTypeResult, @Nullable int[] offset) {
 		final MathType.Result possibleResult;
 		if (canContinue(mathTypeResult)) {
 			// let's continue building number
@@ -71,12 +96,13 @@ public class NumberBuilder extends AbstractNumberBuilder {
 	 * Method replaces number in text according to some rules (e.g. formatting)
 	 *
 	 * @param text text where number can be replaced
-	 * @param offset offset between new number length and old number length (newNumberLength - oldNumberLength)
+	 * @param offset holder (array of one element) of offset between new number length and old number length (newNumberLength - oldNumberLength),
+	 * NOTE: set only if number is replaced
 	 *
 	 * @return new math type result (as one can be changed due to substituting of number with constant)
 	 */
 	@Nullable
-	public MathType.Result processNumber(@NotNull StringBuilder text, @Nullable MutableObject<Integer> offset) {
+	public MathType.Result processNumber(@NotNull StringBuilder text, @Nullable int[] offset) {
 		// total number of trimmed chars
 		int trimmedChars = 0;
 
@@ -87,21 +113,15 @@ public class NumberBuilder extends AbstractNumberBuilder {
 
 		if (numberBuilder != null) {
 			try {
-				number = numberBuilder.toString();
-
 				// let's get rid of unnecessary characters (grouping separators, + after E)
-				final List<String> tokens = new ArrayList<String>();
-				tokens.addAll(MathType.grouping_separator.getTokens());
-				// + after E can be omitted: 10+E = 10E (NOTE: - cannot be omitted )
-				tokens.add("+");
-				for (String groupingSeparator : tokens) {
-					final String trimmedNumber = number.replace(groupingSeparator, "");
-					trimmedChars += number.length() - trimmedNumber.length();
-					number = trimmedNumber;
-				}
+				number = trimNumber(numberBuilder);
+				trimmedChars = numberBuilder.length() - number.length();
 
-				// check if number still valid
-				toDouble(number, getNumeralBase(), engine);
+				// check if number still valid: number which starts with digit is always valid (integer part is parsed),
+				// other numbers must be checked by parsers
+				if (!startsWithDigit(number, localNb)) {
+					checkNumber(number, localNb, engine);
+				}
 
 			} catch (NumberFormatException e) {
 				// number is not valid => stop
@@ -111,17 +131,44 @@ public class NumberBuilder extends AbstractNumberBuilder {
 			numberBuilder = null;
 
 			// must set default numeral base (exit numeral base mode)
-			nb = engine.getNumeralBase();
+			nb = getDefaultNumeralBase();
 		}
 
 		return replaceNumberInText(text, number, trimmedChars, offset, localNb, engine);
 	}
 
+	/**
+	 * @return number without grouping separators and '+' (+ after E can be omitted: 10E+2 = 10E2, NOTE: - cannot be omitted)
+	 */
+	@NotNull
+	private static String trimNumber(@NotNull CharSequence number) {
+		final StringBuilder result = new StringBuilder(number.length());
+		for (int i = 0; i < number.length(); i++) {
+			final char ch = number.charAt(i);
+			if (ch != '+' && groupingSeparators.indexOf(ch) < 0) {
+				result.append(ch);
+			}
+		}
+		return result.toString();
+	}
+
+	private static boolean startsWithDigit(@NotNull String number, @NotNull NumeralBase nb) {
+		if (number.length() > 0) {
+			final char ch = number.charAt(0);
+			if (ch < 128) {
+				return digits.get(nb)[ch];
+			} else {
+				return nb.getAcceptableCharacters().contains(ch);
+			}
+		}
+		return false;
+	}
+
 	@Nullable
 	private static MathType.Result replaceNumberInText(@NotNull StringBuilder text,
 													   @Nullable String number,
 													   int trimmedChars,
-													   @Nullable MutableObject<Integer> offset,
+													   @Nullable int[] offset,
 													   @NotNull NumeralBase nb,
 													   @NotNull final MathEngine engine) {
 		MathType.Result result = null;
@@ -131,10 +178,10 @@ public class NumberBuilder extends AbstractNumberBuilder {
 			final int oldNumberLength = number.length() + trimmedChars;
 			text.delete(text.length() - oldNumberLength, text.length());
 
-			final String newNumber = formatNumber(number, nb, engine);
+			final String newNumber = getFormattedNumber(number, nb, engine);
 			if (offset != null) {
 				// register offset between old number and new number
-				offset.setObject(newNumber.length() - oldNumberLength);
+				offset[0] = newNumber.length() - oldNumberLength;
 			}
 			text.append(newNumber);
 		}
@@ -142,6 +189,25 @@ public class NumberBuilder extends AbstractNumberBuilder {
 		return result;
 	}
 
+	@NotNull
+	private static String getFormattedNumber(@NotNull String number, @NotNull NumeralBase nb, @NotNull MathEngine engine) {
+		final CalculatorEngine calculatorEngine = CalculatorEngine.instance;
+		if (engine == calculatorEngine.getEngine()) {
+			// NOTE: grouping settings are known only for engine of calculator => only its numbers are cached
+			final FormattedNumberCache.Key key = new FormattedNumberCache.Key(number, nb, calculatorEngine.isUseGroupingSeparator(), calculatorEngine.getGroupingSeparator());
+
+			final FormattedNumberCache cache = calculatorEngine.getFormattedNumberCache();
+			String result = cache.get(key);
+			if (result == null) {
+				result = formatNumber(number, nb, engine);
+				cache.put(key, result);
+			}
+			return result;
+		} else {
+			return formatNumber(number, nb, engine);
+		}
+	}
+
 	@NotNull
 	private static String formatNumber(@NotNull String number, @NotNull NumeralBase nb, @NotNull MathEngine engine) {
 		String result;
@@ -179,24 +245,31 @@ public class NumberBuilder extends AbstractNumberBuilder {
 		return result;
 	}
 
-	@NotNull
-	private static Double toDouble(@NotNull String s, @NotNull NumeralBase nb, @NotNull final MathContext mc) throws NumberFormatException {
-		final NumeralBase defaultNb = mc.getNumeralBase();
-		try {
-			mc.setNumeralBase(nb);
-
+	/**
+	 * Method checks if number can be parsed by jscl.
+	 * NOTE: numeral base is passed to the parsers as prefix of number => numeral base of math context is not changed
+	 * (math context is shared with calculation threads which might use it at the same time)
+	 *
+	 * @throws NumberFormatException if number is not valid
+	 */
+	private static void checkNumber(@NotNull String s, @NotNull NumeralBase nb, @NotNull final MathContext mc) throws NumberFormatException {
+		final String jsclPrefix = nb.getJsclPrefix();
+		if (jsclPrefix == null) {
+			// numeral base cannot be set by prefix => only fractional part without integer part can be checked (e.g. '.5')
+			if (s.length() < 2 || s.charAt(0) != '.' || !startsWithDigit(s.substring(1), nb)) {
+				throw new NumberFormatException();
+			}
+		} else {
+			final String number = jsclPrefix + s;
 			try {
-				return JsclIntegerParser.parser.parse(Parser.Parameters.newInstance(s, new MutableInt(0), mc), null).content().doubleValue();
+				JsclIntegerParser.parser.parse(Parser.Parameters.newInstance(number, new MutableInt(0), mc), null);
 			} catch (ParseException e) {
 				try {
-					return ((Real) DoubleParser.parser.parse(Parser.Parameters.newInstance(s, new MutableInt(0), mc), null).content()).doubleValue();
+					DoubleParser.parser.parse(Parser.Parameters.newInstance(number, new MutableInt(0), mc), null);
 				} catch (ParseException e1) {
 					throw new NumberFormatException();
 				}
 			}
-
-		} finally {
-			mc.setNumeralBase(defaultNb);
 		}
 	}
 }
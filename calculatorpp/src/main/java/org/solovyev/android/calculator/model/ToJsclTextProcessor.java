@@ -6,14 +6,18 @@
 
 package org.solovyev.android.calculator.model;
 
+import jscl.NumeralBase;
 import jscl.math.function.IConstant;
 import org.jetbrains.annotations.NotNull;
-import org.solovyev.common.StartsWithFinder;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathTokenStream;
 import org.solovyev.android.calculator.math.MathType;
-import org.solovyev.common.utils.CollectionsUtils;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ToJsclTextProcessor implements TextProcessor<PreparedExpression, String> {
 
@@ -21,45 +25,214 @@ public class ToJsclTextProcessor implements TextProcessor<PreparedExpression, St
 	private static final Integer MAX_DEPTH = 20;
 
     @NotNull
-    private static final TextProcessor<PreparedExpression, String> instance = new ToJsclTextProcessor();
+    private static final ToJsclTextProcessor instance = new ToJsclTextProcessor();
+
+	// result of last processing: next expression is processed only from the first changed position
+	@Nullable
+	private volatile ProcessingState lastState;
+
+	// expanded values of variables defined by expressions
+	@Nullable
+	private static volatile VarExpansions varExpansions;
 
     private ToJsclTextProcessor() {
     }
 
 
     @NotNull
-    public static TextProcessor<PreparedExpression, String> getInstance() {
+    public static ToJsclTextProcessor getInstance() {
         return instance;
     }
 
     @Override
 	@NotNull
 	public PreparedExpression process(@NotNull String s) throws CalculatorParseException {
-		return processWithDepth(s, 0, new ArrayList<IConstant>());
+		return process(s, CancellationToken.NONE);
+	}
+
+	/**
+	 * Method converts expression to the jscl format checking cancellation token on each processed token.
+	 * NOTE: if expression shares prefix with previously processed expression (e.g. when user types) only changed part is processed
+	 *
+	 * @param s expression to be converted
+	 * @param token cancellation token
+	 *
+	 * @return expression prepared for jscl
+	 *
+	 * @throws CalculatorParseException if expression cannot be converted
+	 * @throws EvaluationCancelledException if token was cancelled
+	 */
+	@NotNull
+	public PreparedExpression process(@NotNull String s, @NotNull CancellationToken token) throws CalculatorParseException {
+		return process(s, token, true);
+	}
+
+	/**
+	 * @param incremental if true results of previous processing are reused for common prefix
+	 *
+	 * @see #process(String, CancellationToken)
+	 */
+	@NotNull
+	public PreparedExpression process(@NotNull String s, @NotNull CancellationToken token, boolean incremental) throws CalculatorParseException {
+		final CalculatorEngine engine = CalculatorEngine.instance;
+		final NumeralBase numeralBase = engine.getNumeralBase();
+		final int registriesVersion = engine.getRegistriesVersion();
+
+		final ProcessingState previous = incremental ? lastState : null;
+		final boolean reusable = previous != null && previous.numeralBase == numeralBase && previous.registriesVersion == registriesVersion;
+		final int maxTokenLength = reusable ? getMaxTokenLength() : 0;
+
+		final ProcessedText result = processExpression(s, 0, token, reusable ? previous.result : null, maxTokenLength, true);
+
+		lastState = new ProcessingState(numeralBase, registriesVersion, result);
+
+		return new PreparedExpression(result.result, new ArrayList<IConstant>(result.undefinedVars));
+	}
+
+	/**
+	 * Method returns expanded value of variable defined by expression: value is expanded only once per version of registries
+	 *
+	 * @param varName name of variable
+	 * @param value value of variable
+	 * @param depth depth of variable in currently processed expression
+	 * @param token cancellation token
+	 *
+	 * @return expanded value
+	 *
+	 * @throws CalculatorParseException if value cannot be expanded
+	 */
+	@NotNull
+	private static Expansion getExpansion(@NotNull String varName, @NotNull String value, int depth, @NotNull CancellationToken token) throws CalculatorParseException {
+		final VarExpansions expansions = getVarExpansions();
+
+		Expansion result = expansions.values.get(varName);
+		if (result == null) {
+			// cycles and too deep definitions are found without expansion
+			final VarDependencyGraph graph = CalculatorEngine.instance.getVarDependencyGraph();
+			if (graph.isCyclic(varName) || depth + graph.getHeight(varName) > MAX_DEPTH) {
+				throw new CalculatorParseException(Messages.msg_6, value);
+			}
+
+			// variables used in value are expanded first => expansion of value doesn't need recursion
+			for (String dependency : graph.getExpansionOrder(varName)) {
+				if (!dependency.equals(varName) && !expansions.values.containsKey(dependency)) {
+					final IConstant var = CalculatorEngine.instance.getVarsRegistry().get(dependency);
+					final String dependencyValue = var == null ? null : VarDependencyGraph.getExpression(var);
+					if (dependencyValue != null) {
+						expansions.values.put(dependency, expand(dependencyValue, 0, token));
+					}
+				}
+			}
+
+			result = expand(value, depth, token);
+			expansions.values.put(varName, result);
+		} else if (depth + result.height > MAX_DEPTH) {
+			// value was expanded on lower depth
+			throw new CalculatorParseException(Messages.msg_6, value);
+		}
+
+		return result;
+	}
+
+	@NotNull
+	private static Expansion expand(@NotNull String value, int depth, @NotNull CancellationToken token) throws CalculatorParseException {
+		final ProcessedText expanded = processExpression(value, depth, token, null, 0, false);
+		return new Expansion("(" + expanded.result + ")", expanded.undefinedVars, expanded.height);
+	}
+
+	@NotNull
+	private static VarExpansions getVarExpansions() {
+		final CalculatorEngine engine = CalculatorEngine.instance;
+		final NumeralBase numeralBase = engine.getNumeralBase();
+		final int registriesVersion = engine.getRegistriesVersion();
+
+		VarExpansions result = varExpansions;
+		if (result == null || result.numeralBase != numeralBase || result.registriesVersion != registriesVersion) {
+			result = new VarExpansions(numeralBase, registriesVersion);
+			varExpansions = result;
+		}
+
+		return result;
 	}
 
-	private static PreparedExpression processWithDepth(@NotNull String s, int depth, @NotNull List<IConstant> undefinedVars) throws CalculatorParseException {
-		return replaceVariables(processExpression(s).toString(), depth, undefinedVars);
+	/**
+	 * @return max length of token which can be matched (token starting before changed position might be changed if it reaches it)
+	 */
+	private static int getMaxTokenLength() {
+		return MathType.getMaxTokenLength();
 	}
 
+	/**
+	 * Method converts expression to the jscl format in one pass over tokens of expression: variables are replaced by their values
+	 * in the same pass, result is written into one string builder
+	 *
+	 * @param s expression
+	 * @param depth depth of expression (0 for expression entered by user, n for value of variable used on (n - 1)th level)
+	 * @param token cancellation token
+	 * @param previous result of processing of previous expression or null
+	 * @param maxTokenLength max length of token
+	 * @param shared if true token stream of expression is shared with other processors (e.g. highlighter of editor), values of variables
+	 *                  should not replace shared stream
+	 *
+	 * @return processed expression
+	 *
+	 * @throws CalculatorParseException if expression cannot be converted
+	 */
 	@NotNull
-	private static StringBuilder processExpression(@NotNull String s) throws CalculatorParseException {
-		final StartsWithFinder startsWithFinder = new StartsWithFinder(s, 0);
-		final StringBuilder result = new StringBuilder();
+	private static ProcessedText processExpression(@NotNull String s,
+												   int depth,
+												   @NotNull CancellationToken token,
+												   @Nullable ProcessedText previous,
+												   int maxTokenLength,
+												   boolean shared) throws CalculatorParseException {
+		if (depth >= MAX_DEPTH) {
+			throw new CalculatorParseException(Messages.msg_6, s);
+		} else {
+			depth++;
+		}
+
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+		final MathTokenStream tokens = MathLexer.instance.tokenize(s, shared);
+
+		// NOTE: usually result is not much longer than expression
+		final StringBuilder result = new StringBuilder(s.length() + 16);
+		final Checkpoints checkpoints = new Checkpoints(tokens.size() + 1);
+		final List<IConstant> undefinedVars = new ArrayList<IConstant>();
+
+		// max height of expanded variables
+		int height = 0;
 
 		MathType.Result mathTypeResult = null;
 		MathType.Result mathTypeBefore;
 
-		final LiteNumberBuilder nb = new LiteNumberBuilder(CalculatorEngine.instance.getEngine());
-		for (int i = 0; i < s.length(); i++) {
-			if (s.charAt(i) == ' ') continue;
-			startsWithFinder.setI(i);
+		int start = 0;
+		final int checkpointIndex = previous == null ? -1 : previous.findCheckpoint(s, maxTokenLength);
+		if (checkpointIndex >= 0) {
+			// continue from the checkpoint (NOTE: checkpoint itself will be added again in the loop)
+			final Checkpoints previousCheckpoints = previous.checkpoints;
+			final int tokenIndex = tokens.indexOf(previousCheckpoints.positions[checkpointIndex]);
+			if (tokenIndex >= 0) {
+				start = tokenIndex;
+				result.append(previous.result, 0, previousCheckpoints.resultLengths[checkpointIndex]);
+				mathTypeResult = previousCheckpoints.mathTypesBefore[checkpointIndex];
+				undefinedVars.addAll(previous.undefinedVars.subList(0, previousCheckpoints.undefinedVarsCounts[checkpointIndex]));
+				checkpoints.addAll(previousCheckpoints, checkpointIndex);
+			}
+		}
+
+		for (int t = start; t < tokens.size(); t++) {
+			token.checkCancelled();
+
+			final int i = tokens.getStart(t);
+
+			// tokens before changed position are the same => processing can be restarted from any token
+			checkpoints.add(i, result.length(), mathTypeResult, undefinedVars.size());
 
-			mathTypeBefore = mathTypeResult == null ? null : mathTypeResult;
+			if (s.charAt(i) == ' ') continue;
 
-			mathTypeResult = MathType.getType(s, i, nb.isHexMode());
+			mathTypeBefore = mathTypeResult;
 
-			nb.process(mathTypeResult);
+			mathTypeResult = tokens.getResult(t);
 
 			if (mathTypeBefore != null) {
 
@@ -72,74 +245,236 @@ public class ToJsclTextProcessor implements TextProcessor<PreparedExpression, St
 
 			if (mathTypeBefore != null &&
 					(mathTypeBefore.getMathType() == MathType.function || mathTypeBefore.getMathType() == MathType.operator) &&
-						CollectionsUtils.find(MathType.openGroupSymbols, startsWithFinder) != null) {
+						startsWithOpenGroupSymbol(s, i)) {
 				throw new CalculatorParseException(Messages.msg_5, i, s, mathTypeBefore.getMatch());
 			}
 
-			i = mathTypeResult.processToJscl(result, i);
+			final IConstant var = mathTypeResult.getMathType() == MathType.constant ? varsRegistry.get(mathTypeResult.getMatch()) : null;
+			if (var == null) {
+				mathTypeResult.processToJscl(result, i);
+			} else if (!var.isDefined()) {
+				undefinedVars.add(var);
+				mathTypeResult.processToJscl(result, i);
+			} else {
+				final String value = VarDependencyGraph.getExpression(var);
+				if (value == null) {
+					// NOTE: append varName as JSCL engine will convert it to double if needed
+					mathTypeResult.processToJscl(result, i);
+				} else {
+					final Expansion expansion = getExpansion(var.getName(), value, depth, token);
+					result.append(expansion.value);
+					undefinedVars.addAll(expansion.undefinedVars);
+					height = Math.max(height, expansion.height);
+				}
+			}
 		}
-		return result;
+
+		return new ProcessedText(s, result.toString(), checkpoints, undefinedVars, height + 1);
 	}
 
-	@NotNull
-	private static PreparedExpression replaceVariables(@NotNull final String s, int depth, @NotNull List<IConstant> undefinedVars) throws CalculatorParseException {
-		if (depth >= MAX_DEPTH) {
-			throw new CalculatorParseException(Messages.msg_6, s);
-		} else {
-			depth++;
+	private static boolean startsWithOpenGroupSymbol(@NotNull String s, int i) {
+		for (String openGroupSymbol : MathType.openGroupSymbols) {
+			if (s.startsWith(openGroupSymbol, i)) {
+				return true;
+			}
 		}
+		return false;
+	}
 
-		final StartsWithFinder startsWithFinder = new StartsWithFinder(s, 0);
-
-		final StringBuilder result = new StringBuilder();
-		for (int i = 0; i < s.length(); i++) {
-			startsWithFinder.setI(i);
-
-			int offset = 0;
-			String functionName = CollectionsUtils.find(MathType.function.getTokens(), startsWithFinder);
-			if (functionName == null) {
-				String operatorName = CollectionsUtils.find(MathType.operator.getTokens(), startsWithFinder);
-				if (operatorName == null) {
-					String varName = CollectionsUtils.find(CalculatorEngine.instance.getVarsRegistry().getNames(), startsWithFinder);
-					if (varName != null) {
-						final IConstant var = CalculatorEngine.instance.getVarsRegistry().get(varName);
-						if (var != null) {
-							if (!var.isDefined()) {
-								undefinedVars.add(var);
-								result.append(varName);
-								offset = varName.length();
-							} else {
-								final String value = var.getValue();
-								assert value != null;
-
-								if ( var.getDoubleValue() != null ) {
-									//result.append(value);
-									// NOTE: append varName as JSCL engine will convert it to double if needed
-									result.append(varName);
-								} else {
-									result.append("(").append(processWithDepth(value, depth, undefinedVars)).append(")");
-								}
-								offset = varName.length();
-							}
-						}
-					}
+	/**
+	 * Result of last processing (used for incremental processing)
+	 */
+	private static final class ProcessingState {
+
+		@NotNull
+		private final NumeralBase numeralBase;
+
+		private final int registriesVersion;
+
+		@NotNull
+		private final ProcessedText result;
+
+		private ProcessingState(@NotNull NumeralBase numeralBase, int registriesVersion, @NotNull ProcessedText result) {
+			this.numeralBase = numeralBase;
+			this.registriesVersion = registriesVersion;
+			this.result = result;
+		}
+	}
+
+	private static final class ProcessedText {
+
+		@NotNull
+		private final String source;
+
+		@NotNull
+		private final String result;
+
+		@NotNull
+		private final Checkpoints checkpoints;
+
+		@NotNull
+		private final List<IConstant> undefinedVars;
+
+		// number of levels of variable replacement used for processing (NOTE: only valid if text was not processed incrementally)
+		private final int height;
+
+		private ProcessedText(@NotNull String source, @NotNull String result, @NotNull Checkpoints checkpoints, @NotNull List<IConstant> undefinedVars, int height) {
+			this.source = source;
+			this.result = result;
+			this.checkpoints = checkpoints;
+			this.undefinedVars = undefinedVars;
+			this.height = height;
+		}
+
+		/**
+		 * Method finds last checkpoint from which new text can be processed
+		 *
+		 * @param s new text
+		 * @param maxTokenLength max length of token
+		 *
+		 * @return index of checkpoint or -1 if text must be processed from the start
+		 */
+		private int findCheckpoint(@NotNull String s, int maxTokenLength) {
+			final int length = Math.min(source.length(), s.length());
+
+			int commonPrefix = 0;
+			while (commonPrefix < length && source.charAt(commonPrefix) == s.charAt(commonPrefix)) {
+				commonPrefix++;
+			}
+
+			// NOTE: all tokens before checkpoint must be far enough from the first changed character
+			return checkpoints.findLastBefore(commonPrefix - maxTokenLength);
+		}
+	}
+
+	private static final class VarExpansions {
+
+		@NotNull
+		private final NumeralBase numeralBase;
+
+		private final int registriesVersion;
+
+		@NotNull
+		private final Map<String, Expansion> values = new ConcurrentHashMap<String, Expansion>();
+
+		private VarExpansions(@NotNull NumeralBase numeralBase, int registriesVersion) {
+			this.numeralBase = numeralBase;
+			this.registriesVersion = registriesVersion;
+		}
+	}
+
+	private static final class Expansion {
+
+		// expanded value in brackets
+		@NotNull
+		private final String value;
+
+		// undefined variables used in value
+		@NotNull
+		private final List<IConstant> undefinedVars;
+
+		// number of levels of variable replacement needed for expansion
+		private final int height;
+
+		private Expansion(@NotNull String value, @NotNull List<IConstant> undefinedVars, int height) {
+			this.value = value;
+			this.undefinedVars = undefinedVars;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * Positions from which processing can be restarted (stored in parallel arrays => no object per checkpoint)
+	 */
+	private static final class Checkpoints {
+
+		private int size = 0;
+
+		// position in source text
+		@NotNull
+		private int[] positions;
+
+		// length of result on position
+		@NotNull
+		private int[] resultLengths;
+
+		// math type of the token before position
+		@NotNull
+		private MathType.Result[] mathTypesBefore;
+
+		// number of undefined vars found before position
+		@NotNull
+		private int[] undefinedVarsCounts;
+
+		private Checkpoints(int capacity) {
+			positions = new int[capacity];
+			resultLengths = new int[capacity];
+			mathTypesBefore = new MathType.Result[capacity];
+			undefinedVarsCounts = new int[capacity];
+		}
+
+		private void add(int position, int resultLength, @Nullable MathType.Result mathTypeBefore, int undefinedVarsCount) {
+			ensureCapacity(size + 1);
+			positions[size] = position;
+			resultLengths[size] = resultLength;
+			mathTypesBefore[size] = mathTypeBefore;
+			undefinedVarsCounts[size] = undefinedVarsCount;
+			size++;
+		}
+
+		/**
+		 * Method adds first count checkpoints of another checkpoints
+		 */
+		private void addAll(@NotNull Checkpoints that, int count) {
+			ensureCapacity(size + count);
+			System.arraycopy(that.positions, 0, positions, size, count);
+			System.arraycopy(that.resultLengths, 0, resultLengths, size, count);
+			System.arraycopy(that.mathTypesBefore, 0, mathTypesBefore, size, count);
+			System.arraycopy(that.undefinedVarsCounts, 0, undefinedVarsCounts, size, count);
+			size += count;
+		}
+
+		/**
+		 * @return index of last checkpoint which position is not after specified position or -1
+		 */
+		private int findLastBefore(int position) {
+			int low = 0;
+			int high = size - 1;
+
+			int result = -1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				if (positions[mid] <= position) {
+					result = mid;
+					low = mid + 1;
 				} else {
-					result.append(operatorName);
-					offset = operatorName.length();
+					high = mid - 1;
 				}
-			} else {
-				result.append(functionName);
-				offset = functionName.length();
 			}
 
+			return result;
+		}
 
-			if (offset == 0) {
-				result.append(s.charAt(i));
-			} else {
-				i += offset - 1;
+		private void ensureCapacity(int capacity) {
+			if (capacity > positions.length) {
+				final int newCapacity = Math.max(capacity, positions.length * 2);
+
+				final int[] newPositions = new int[newCapacity];
+				System.arraycopy(positions, 0, newPositions, 0, size);
+				positions = newPositions;
+
+				final int[] newResultLengths = new int[newCapacity];
+				System.arraycopy(resultLengths, 0, newResultLengths, 0, size);
+				resultLengths = newResultLengths;
+
+				final MathType.Result[] newMathTypesBefore = new MathType.Result[newCapacity];
+				System.arraycopy(mathTypesBefore, 0, newMathTypesBefore, 0, size);
+				mathTypesBefore = newMathTypesBefore;
+
+				final int[] newUndefinedVarsCounts = new int[newCapacity];
+				System.arraycopy(undefinedVarsCounts, 0, newUndefinedVarsCounts, 0, size);
+				undefinedVarsCounts = newUndefinedVarsCounts;
 			}
 		}
-
-		return new PreparedExpression(result.toString(), undefinedVars);
 	}
 }
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.math.function.IConstant;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathTokenStream;
+import org.solovyev.android.calculator.math.MathType;
+
+import java.util.*;
+
+/**
+ * Graph of dependencies between variables defined by expressions (variable depends on variables used in its value).
+ * Graph is immutable: it is built for one version of the vars registry (see {@link CalculatorEngine#getVarDependencyGraph()}).
+ *
+ * User: serso
+ * Date: 2/23/12
+ * Time: 8:40 PM
+ */
+public final class VarDependencyGraph {
+
+	// version of registries for which graph was built
+	private final int registriesVersion;
+
+	// variable name => names of variables used in its value (only for variables defined by expressions)
+	@NotNull
+	private final Map<String, Set<String>> dependencies;
+
+	// variable name => value (only for variables defined by expressions)
+	@NotNull
+	private final Map<String, String> values;
+
+	// variables defined by expressions in order of expansion: dependencies before dependent variables (cyclic variables are not included)
+	@NotNull
+	private final List<String> topologicalOrder;
+
+	// variables which depend on themselves (directly or through other variables)
+	@NotNull
+	private final Set<String> cyclic;
+
+	// variable name => number of levels of variables replacement needed for expansion of its value
+	@NotNull
+	private final Map<String, Integer> heights;
+
+	private VarDependencyGraph(int registriesVersion, @NotNull Map<String, Set<String>> dependencies, @NotNull Map<String, String> values) {
+		this.registriesVersion = registriesVersion;
+		this.dependencies = dependencies;
+		this.values = values;
+
+		final List<String> topologicalOrder = new ArrayList<String>(dependencies.size());
+		final Set<String> cyclic = new HashSet<String>();
+		final Map<String, Integer> heights = new HashMap<String, Integer>();
+
+		final Set<String> visiting = new HashSet<String>();
+		for (String name : dependencies.keySet()) {
+			visit(name, visiting, topologicalOrder, cyclic, heights);
+		}
+
+		this.topologicalOrder = Collections.unmodifiableList(topologicalOrder);
+		this.cyclic = Collections.unmodifiableSet(cyclic);
+		this.heights = heights;
+	}
+
+	@NotNull
+	public static VarDependencyGraph newInstance(int registriesVersion, @NotNull List<? extends IConstant> vars) {
+		final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+		final Map<String, String> values = new HashMap<String, String>();
+
+		for (IConstant var : vars) {
+			final String value = getExpression(var);
+			if (value != null) {
+				dependencies.put(var.getName(), findDependencies(value, null));
+				values.put(var.getName(), value);
+			}
+		}
+
+		return new VarDependencyGraph(registriesVersion, dependencies, values);
+	}
+
+	/**
+	 * @return version of registries for which graph was built (see {@link CalculatorEngine#getRegistriesVersion()})
+	 */
+	public int getRegistriesVersion() {
+		return registriesVersion;
+	}
+
+	/**
+	 * @param var variable
+	 * @return value of variable if it is defined by expression (i.e. value must be expanded on preprocessing), null otherwise
+	 */
+	@Nullable
+	static String getExpression(@NotNull IConstant var) {
+		if (var.isDefined() && var.getDoubleValue() == null) {
+			return var.getValue();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * @param value value of variable
+	 * @param newName name of variable which is not registered yet (e.g. new or renamed variable) but must be treated as variable, may be null
+	 * @return names of variables used in value
+	 */
+	@NotNull
+	static Set<String> findDependencies(@NotNull String value, @Nullable String newName) {
+		final Set<String> result = new HashSet<String>();
+
+		final MathTokenStream tokens = MathLexer.instance.tokenize(value, false);
+		for (int i = 0; i < tokens.size(); i++) {
+			final MathType mathType = tokens.getMathType(i);
+			if (mathType == MathType.constant) {
+				result.add(tokens.getMatch(i));
+			} else if (mathType == MathType.text && newName != null && value.startsWith(newName, tokens.getStart(i))) {
+				// not registered name is not recognized by lexer => will be found only after variable is saved
+				result.add(newName);
+			}
+		}
+
+		return result;
+	}
+
+	private void visit(@NotNull String name,
+					   @NotNull Set<String> visiting,
+					   @NotNull List<String> topologicalOrder,
+					   @NotNull Set<String> cyclic,
+					   @NotNull Map<String, Integer> heights) {
+		if (heights.containsKey(name) || cyclic.contains(name)) {
+			// already visited
+			return;
+		}
+
+		final Set<String> varDependencies = dependencies.get(name);
+		if (varDependencies == null) {
+			// variable is not defined by expression => nothing to expand
+			return;
+		}
+
+		if (!visiting.add(name)) {
+			// variable is already on the current path => cycle
+			cyclic.add(name);
+			return;
+		}
+
+		int height = 0;
+		boolean isCyclic = false;
+		for (String dependency : varDependencies) {
+			visit(dependency, visiting, topologicalOrder, cyclic, heights);
+			if (cyclic.contains(dependency)) {
+				isCyclic = true;
+			} else {
+				final Integer dependencyHeight = heights.get(dependency);
+				if (dependencyHeight != null) {
+					height = Math.max(height, dependencyHeight);
+				}
+			}
+		}
+
+		visiting.remove(name);
+
+		if (isCyclic || cyclic.contains(name)) {
+			cyclic.add(name);
+		} else {
+			heights.put(name, height + 1);
+			topologicalOrder.add(name);
+		}
+	}
+
+	/**
+	 * @return variables defined by expressions ordered so that each variable goes after all variables used in its value
+	 * (variables with cyclic dependencies are not included)
+	 */
+	@NotNull
+	public List<String> getTopologicalOrder() {
+		return topologicalOrder;
+	}
+
+	/**
+	 * @param name name of variable
+	 * @return true if value of variable cannot be expanded as it depends on itself (directly or through other variables)
+	 */
+	public boolean isCyclic(@NotNull String name) {
+		return cyclic.contains(name);
+	}
+
+	/**
+	 * @param name name of variable
+	 * @return number of levels of variables replacement needed for expansion of variable's value
+	 * (0 if variable is not defined by expression, -1 if variable is cyclic)
+	 */
+	public int getHeight(@NotNull String name) {
+		if (cyclic.contains(name)) {
+			return -1;
+		} else {
+			final Integer result = heights.get(name);
+			return result == null ? 0 : result;
+		}
+	}
+
+	/**
+	 * @param name name of variable
+	 * @return variables which must be expanded for expansion of variable in order of expansion (variable itself is the last one),
+	 * empty list if variable is not defined by expression or is cyclic
+	 */
+	@NotNull
+	public List<String> getExpansionOrder(@NotNull String name) {
+		final List<String> result = new ArrayList<String>();
+		if (dependencies.containsKey(name) && !cyclic.contains(name)) {
+			addToExpansionOrder(name, result, new HashSet<String>());
+		}
+		return result;
+	}
+
+	private void addToExpansionOrder(@NotNull String name, @NotNull List<String> result, @NotNull Set<String> visited) {
+		if (visited.add(name)) {
+			for (String dependency : dependencies.get(name)) {
+				if (dependencies.containsKey(dependency)) {
+					addToExpansionOrder(dependency, result, visited);
+				}
+			}
+			result.add(name);
+		}
+	}
+
+	/**
+	 * @param name name of variable
+	 * @return names of variables used in value of variable
+	 */
+	@NotNull
+	public Set<String> getDependencies(@NotNull String name) {
+		final Set<String> result = dependencies.get(name);
+		return result == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Method checks if new value of variable would introduce cycle
+	 *
+	 * @param name name of variable
+	 * @param value new value of variable
+	 *
+	 * @return variables forming cycle (starting and ending with variable itself) or null if there is no cycle
+	 */
+	@Nullable
+	public List<String> findCycle(@NotNull String name, @Nullable String value) {
+		if (value == null) {
+			return null;
+		}
+
+		// NOTE: variable might be not registered yet (new or renamed variable) => its name must be searched also in text
+		final Set<String> valueDependencies = findDependencies(value, name);
+
+		final LinkedList<String> path = new LinkedList<String>();
+		path.add(name);
+		if (valueDependencies.contains(name)) {
+			// variable is used in its own value
+			path.add(name);
+			return path;
+		} else if (findPath(valueDependencies, name, path, new HashSet<String>())) {
+			return path;
+		} else {
+			return null;
+		}
+	}
+
+	private boolean findPath(@NotNull Set<String> from, @NotNull String to, @NotNull LinkedList<String> path, @NotNull Set<String> visited) {
+		for (String name : from) {
+			path.addLast(name);
+			if (name.equals(to)) {
+				return true;
+			}
+
+			if (visited.add(name)) {
+				final String varValue = values.get(name);
+				// dependencies are found again as variable 'to' might be not registered when graph was built
+				final Set<String> varDependencies = varValue == null ? null : findDependencies(varValue, to);
+				if (varDependencies != null && findPath(varDependencies, to, path, visited)) {
+					return true;
+				}
+			}
+			path.removeLast();
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.view;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of highlighting of text as plain text and list of spans which must be set on it
+ * (see {@link TextHighlighter#highlight(String)}).
+ *
+ * NOTE: class doesn't depend on android classes, spans are converted to android spans in {@link HighlightedTextUtils}
+ *
+ * User: serso
+ * Date: 2/26/12
+ * Time: 11:40 AM
+ */
+public final class HighlightedText {
+
+	@NotNull
+	private final String text;
+
+	// offset between length of highlighted text and length of original text (due to number formatting)
+	private final int offset;
+
+	// spans of tokens (italic, bold) ordered by position followed by spans of bracket groups (color) ordered by position
+	@NotNull
+	private final List<Span> spans;
+
+	HighlightedText(@NotNull String text, int offset, @NotNull List<Span> spans) {
+		this.text = text;
+		this.offset = offset;
+		this.spans = Collections.unmodifiableList(spans);
+	}
+
+	@NotNull
+	public String getText() {
+		return text;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	@NotNull
+	public List<Span> getSpans() {
+		return spans;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	public static enum Style {
+		italic,
+		bold,
+		color
+	}
+
+	/**
+	 * Style set on range of characters [start, end)
+	 */
+	public static final class Span {
+
+		private final int start;
+
+		private final int end;
+
+		@NotNull
+		private final Style style;
+
+		// ARGB color (only for color style)
+		private final int color;
+
+		public Span(int start, int end, @NotNull Style style, int color) {
+			this.start = start;
+			this.end = end;
+			this.style = style;
+			this.color = color;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		@NotNull
+		public Style getStyle() {
+			return style;
+		}
+
+		public int getColor() {
+			return color;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Span)) return false;
+
+			final Span that = (Span) o;
+
+			return start == that.start && end == that.end && color == that.color && style == that.style;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = start;
+			result = 31 * result + end;
+			result = 31 * result + style.hashCode();
+			result = 31 * result + color;
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return style + "[" + start + ", " + end + ")" + (style == Style.color ? "#" + Integer.toHexString(color) : "");
+		}
+	}
+}
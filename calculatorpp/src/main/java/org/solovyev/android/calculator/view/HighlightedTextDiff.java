@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.view;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Difference between text shown in the text view (with spans set on previous highlighting) and new highlighted text:
+ * only characters in range [start, oldEnd) must be replaced by characters [start, newEnd) of new text and only changed spans
+ * must be removed/added => text view doesn't need to lay out and restyle the whole text.
+ *
+ * User: serso
+ * Date: 2/26/12
+ * Time: 4:10 PM
+ */
+public final class HighlightedTextDiff {
+
+	// first changed position
+	private final int start;
+
+	// end of changed range in old text
+	private final int oldEnd;
+
+	// end of changed range in new text
+	private final int newEnd;
+
+	// indices of old spans which must be removed
+	@NotNull
+	private final int[] removedSpans;
+
+	// new spans which must be added
+	@NotNull
+	private final List<HighlightedText.Span> addedSpans;
+
+	private HighlightedTextDiff(int start, int oldEnd, int newEnd, @NotNull int[] removedSpans, @NotNull List<HighlightedText.Span> addedSpans) {
+		this.start = start;
+		this.oldEnd = oldEnd;
+		this.newEnd = newEnd;
+		this.removedSpans = removedSpans;
+		this.addedSpans = addedSpans;
+	}
+
+	/**
+	 * @param oldText text currently shown
+	 * @param oldSpans spans currently set on old text (positions in old text)
+	 * @param newText new highlighted text
+	 *
+	 * @return difference between old and new texts
+	 */
+	@NotNull
+	public static HighlightedTextDiff newInstance(@NotNull CharSequence oldText,
+												  @NotNull List<HighlightedText.Span> oldSpans,
+												  @NotNull HighlightedText newText) {
+		final String text = newText.getText();
+
+		final int length = Math.min(oldText.length(), text.length());
+
+		int prefix = 0;
+		while (prefix < length && oldText.charAt(prefix) == text.charAt(prefix)) {
+			prefix++;
+		}
+
+		// NOTE: suffix doesn't overlap with prefix
+		int suffix = 0;
+		while (suffix < length - prefix && oldText.charAt(oldText.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+			suffix++;
+		}
+
+		final int oldEnd = oldText.length() - suffix;
+		final int newEnd = text.length() - suffix;
+		final int delta = newEnd - oldEnd;
+
+		final Set<HighlightedText.Span> newSpans = new HashSet<HighlightedText.Span>(newText.getSpans());
+
+		final int[] removedSpans = new int[oldSpans.size()];
+		int removedCount = 0;
+		for (int i = 0; i < oldSpans.size(); i++) {
+			final HighlightedText.Span span = oldSpans.get(i);
+
+			// position of span after replacement of changed characters (spans which intersect changed range are always removed)
+			final HighlightedText.Span movedSpan;
+			if (span.getEnd() <= prefix) {
+				movedSpan = span;
+			} else if (span.getStart() >= oldEnd) {
+				movedSpan = new HighlightedText.Span(span.getStart() + delta, span.getEnd() + delta, span.getStyle(), span.getColor());
+			} else {
+				movedSpan = null;
+			}
+
+			if (movedSpan == null || !newSpans.remove(movedSpan)) {
+				removedSpans[removedCount++] = i;
+			}
+		}
+
+		// NOTE: order of new spans is kept
+		final List<HighlightedText.Span> addedSpans = new ArrayList<HighlightedText.Span>(newSpans.size());
+		for (HighlightedText.Span span : newText.getSpans()) {
+			if (newSpans.contains(span)) {
+				addedSpans.add(span);
+			}
+		}
+
+		final int[] removed = new int[removedCount];
+		System.arraycopy(removedSpans, 0, removed, 0, removedCount);
+
+		return new HighlightedTextDiff(prefix, oldEnd, newEnd, removed, addedSpans);
+	}
+
+	public boolean isTextChanged() {
+		return start != oldEnd || start != newEnd;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getOldEnd() {
+		return oldEnd;
+	}
+
+	public int getNewEnd() {
+		return newEnd;
+	}
+
+	/**
+	 * @return indices of old spans which must be removed
+	 */
+	@NotNull
+	public int[] getRemovedSpans() {
+		return removedSpans;
+	}
+
+	/**
+	 * @return new spans which must be added
+	 */
+	@NotNull
+	public List<HighlightedText.Span> getAddedSpans() {
+		return addedSpans;
+	}
+}
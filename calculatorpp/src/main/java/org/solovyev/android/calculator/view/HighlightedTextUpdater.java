@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.view;
+
+import android.text.Editable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies highlighted text to the editable of text view incrementally: only changed characters are replaced
+ * and only changed spans are removed/added (see {@link HighlightedTextDiff}).
+ *
+ * NOTE: one updater must be used for one text view (updater remembers spans set by it)
+ *
+ * User: serso
+ * Date: 2/26/12
+ * Time: 4:50 PM
+ */
+public final class HighlightedTextUpdater {
+
+	// android spans set by updater
+	@NotNull
+	private List<Object> spans = new ArrayList<Object>();
+
+	// styles of android spans (positions are taken from editable as they are changed with text)
+	@NotNull
+	private List<HighlightedText.Span> styles = new ArrayList<HighlightedText.Span>();
+
+	public void update(@NotNull Editable editable, @NotNull HighlightedText highlightedText) {
+		// current positions of spans set by previous update (spans which are not in editable any more are ignored)
+		final List<Object> oldSpans = new ArrayList<Object>(spans.size());
+		final List<HighlightedText.Span> oldStyles = new ArrayList<HighlightedText.Span>(spans.size());
+		for (int i = 0; i < spans.size(); i++) {
+			final Object span = spans.get(i);
+			final int start = editable.getSpanStart(span);
+			final int end = editable.getSpanEnd(span);
+			if (start >= 0 && end >= 0) {
+				final HighlightedText.Span style = styles.get(i);
+				oldSpans.add(span);
+				oldStyles.add(new HighlightedText.Span(start, end, style.getStyle(), style.getColor()));
+			}
+		}
+
+		final HighlightedTextDiff diff = HighlightedTextDiff.newInstance(editable, oldStyles, highlightedText);
+
+		for (int i : diff.getRemovedSpans()) {
+			editable.removeSpan(oldSpans.get(i));
+			oldSpans.set(i, null);
+		}
+
+		if (diff.isTextChanged()) {
+			editable.replace(diff.getStart(), diff.getOldEnd(), highlightedText.getText(), diff.getStart(), diff.getNewEnd());
+		}
+
+		final List<Object> newSpans = new ArrayList<Object>(highlightedText.getSpans().size());
+		final List<HighlightedText.Span> newStyles = new ArrayList<HighlightedText.Span>(highlightedText.getSpans().size());
+		for (int i = 0; i < oldSpans.size(); i++) {
+			if (oldSpans.get(i) != null) {
+				newSpans.add(oldSpans.get(i));
+				newStyles.add(oldStyles.get(i));
+			}
+		}
+
+		for (HighlightedText.Span span : diff.getAddedSpans()) {
+			final Object androidSpan = HighlightedTextUtils.newSpan(span);
+			editable.setSpan(androidSpan, span.getStart(), span.getEnd(), Editable.SPAN_EXCLUSIVE_EXCLUSIVE);
+			newSpans.add(androidSpan);
+			newStyles.add(span);
+		}
+
+		this.spans = newSpans;
+		this.styles = newStyles;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.view;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * User: serso
+ * Date: 2/26/12
+ * Time: 12:20 PM
+ */
+public final class HighlightedTextUtils {
+
+	private HighlightedTextUtils() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * @param highlightedText result of highlighting
+	 * @return text with android spans (can be set directly to the text view, no HTML parsing is needed)
+	 */
+	@NotNull
+	public static SpannableStringBuilder toSpannable(@NotNull HighlightedText highlightedText) {
+		final SpannableStringBuilder result = new SpannableStringBuilder(highlightedText.getText());
+		for (HighlightedText.Span span : highlightedText.getSpans()) {
+			result.setSpan(newSpan(span), span.getStart(), span.getEnd(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+		return result;
+	}
+
+	/**
+	 * @return android span object for span
+	 */
+	@NotNull
+	public static Object newSpan(@NotNull HighlightedText.Span span) {
+		switch (span.getStyle()) {
+			case italic:
+				return new StyleSpan(Typeface.ITALIC);
+			case bold:
+				return new StyleSpan(Typeface.BOLD);
+			default:
+				return new ForegroundColorSpan(span.getColor());
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.view;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.model.CalculatorParseException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Highlights text of text view in background: text view shows plain text immediately and spans are set later
+ * => UI thread is not blocked by highlighting during fast input (or after pasting of long text).
+ *
+ * Highlighting is started only after text was not changed for some time (debounce), new request supersedes
+ * the previous one (pending request is cancelled and result of running one is dropped). Result is passed to the target
+ * on UI thread and only if text of the target is still the same as highlighted text.
+ *
+ * NOTE: one scheduler must be used for one text view
+ *
+ * User: serso
+ * Date: 2/28/12
+ * Time: 7:30 PM
+ */
+public class HighlightingScheduler {
+
+	public static final long DEFAULT_DELAY_MILLIS = 50;
+
+	/**
+	 * Text view which text is highlighted (all methods are called on UI thread)
+	 */
+	public static interface Target {
+
+		/**
+		 * @return current text of text view
+		 */
+		@NotNull
+		CharSequence getCurrentText();
+
+		/**
+		 * Method is called if text was highlighted and current text of text view is the same as highlighted text
+		 *
+		 * @param highlightedText result of highlighting
+		 */
+		void onHighlighted(@NotNull HighlightedText highlightedText);
+
+		/**
+		 * Method is called if text cannot be highlighted and current text of text view is the same as highlighted text
+		 *
+		 * @param text text which was highlighted
+		 * @param e cause
+		 */
+		void onHighlightingFailed(@NotNull String text, @NotNull CalculatorParseException e);
+	}
+
+	// NOTE: one thread for all schedulers => texts of different views are not highlighted concurrently
+	@NotNull
+	private static final ScheduledExecutorService defaultWorker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(@NotNull Runnable r) {
+			final Thread result = new Thread(r, "Highlighting thread");
+			// highlighting thread must not prevent application from exit
+			result.setDaemon(true);
+			return result;
+		}
+	});
+
+	@NotNull
+	private final Executor uiExecutor;
+
+	@NotNull
+	private final ScheduledExecutorService worker;
+
+	private final long delayMillis;
+
+	// number of last request: results of previous requests are dropped
+	@NotNull
+	private final AtomicInteger generation = new AtomicInteger(0);
+
+	@Nullable
+	private Future<?> pendingRequest;
+
+	/**
+	 * @param uiExecutor executor which runs commands on UI thread (e.g. {@link android.view.View#post(Runnable)})
+	 */
+	public HighlightingScheduler(@NotNull Executor uiExecutor) {
+		this(uiExecutor, defaultWorker, DEFAULT_DELAY_MILLIS);
+	}
+
+	public HighlightingScheduler(@NotNull Executor uiExecutor, @NotNull ScheduledExecutorService worker, long delayMillis) {
+		this.uiExecutor = uiExecutor;
+		this.worker = worker;
+		this.delayMillis = delayMillis;
+	}
+
+	/**
+	 * Method schedules highlighting of text (previous highlighting is superseded)
+	 *
+	 * @param text text to be highlighted
+	 * @param textHighlighter highlighter (NOTE: used on worker thread)
+	 * @param target text view which text is highlighted
+	 */
+	public synchronized void schedule(@NotNull final String text, @NotNull final TextHighlighter textHighlighter, @NotNull final Target target) {
+		final int requestGeneration = newGeneration();
+
+		pendingRequest = worker.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (isSuperseded(requestGeneration)) {
+					return;
+				}
+
+				HighlightedText result = null;
+				CalculatorParseException error = null;
+				try {
+					result = textHighlighter.highlight(text);
+				} catch (CalculatorParseException e) {
+					error = e;
+				}
+
+				if (!isSuperseded(requestGeneration)) {
+					postResult(requestGeneration, text, result, error, target);
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method cancels scheduled highlighting (result of running highlighting will be dropped)
+	 */
+	public synchronized void cancel() {
+		newGeneration();
+	}
+
+	private int newGeneration() {
+		if (pendingRequest != null) {
+			pendingRequest.cancel(false);
+			pendingRequest = null;
+		}
+		return generation.incrementAndGet();
+	}
+
+	private boolean isSuperseded(int requestGeneration) {
+		return generation.get() != requestGeneration;
+	}
+
+	private void postResult(final int requestGeneration,
+							@NotNull final String text,
+							@Nullable final HighlightedText result,
+							@Nullable final CalculatorParseException error,
+							@NotNull final Target target) {
+		uiExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				// text might be changed while result was posted
+				if (!isSuperseded(requestGeneration) && text.contentEquals(target.getCurrentText())) {
+					if (result != null) {
+						target.onHighlighted(result);
+					} else if (error != null) {
+						target.onHighlightingFailed(text, error);
+					}
+				}
+			}
+		});
+	}
+}
@@ -9,11 +9,14 @@ package org.solovyev.android.calculator.view;
 import jscl.MathContext;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathTokenStream;
 import org.solovyev.android.calculator.math.MathType;
 import org.solovyev.android.calculator.model.*;
-import org.solovyev.common.utils.MutableObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,9 +32,34 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 		nbFontAttributes.put("color", "#008000");
 	}
 
+	@NotNull
+	private static final String openGroupSymbols = concat(MathType.open_group_symbol.getTokens());
+
+	@NotNull
+	private static final String closeGroupSymbols = concat(MathType.close_group_symbol.getTokens());
+
 	@NotNull
 	public final MathContext mathContext;
 
+	/**
+	 * Result of highlighting of tokens (before coloring of bracket groups)
+	 */
+	private static final class Highlighting {
+
+		@NotNull
+		private final StringBuilder text;
+
+		private final int offset;
+
+		private final int maxNumberOfOpenGroupSymbols;
+
+		private Highlighting(@NotNull StringBuilder text, int offset, int maxNumberOfOpenGroupSymbols) {
+			this.text = text;
+			this.offset = offset;
+			this.maxNumberOfOpenGroupSymbols = maxNumberOfOpenGroupSymbols;
+		}
+	}
+
 	public static class Result implements CharSequence {
 
 		@NotNull
@@ -75,6 +103,10 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 	private final int colorBlue;
 	private final boolean formatNumber;
 
+	// colors of bracket groups calculated for last max number of groups
+	@Nullable
+	private volatile GroupColors groupColors;
+
 	public TextHighlighter(int baseColor, boolean formatNumber, @NotNull MathContext mathContext) {
 		this.color = baseColor;
 		this.formatNumber = formatNumber;
@@ -92,6 +124,61 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 	public Result process(@NotNull String text) throws CalculatorParseException {
 		final String result;
 
+		final Highlighting highlighting = highlightTokens(text, null);
+		final StringBuilder text1 = highlighting.text;
+
+		if (highlighting.maxNumberOfOpenGroupSymbols > 0) {
+
+			final StringBuilder text2 = new StringBuilder();
+
+			String s = text1.toString();
+			int i = processBracketGroup(text2, s, highlighting.maxNumberOfOpenGroupSymbols);
+			for (; i < s.length(); i++) {
+				text2.append(s.charAt(i));
+			}
+
+			//Log.d(CalculatorEditor.class.getName(), text2.toString());
+
+			result = text2.toString();
+		} else {
+			result = text1.toString();
+		}
+
+		return new Result(result, highlighting.offset);
+	}
+
+	/**
+	 * Method highlights text in the same way as {@link #process(String)} but instead of HTML returns plain text
+	 * and spans => result can be set to the text view without parsing of HTML
+	 *
+	 * @param text text to be highlighted
+	 *
+	 * @return highlighted text
+	 *
+	 * @throws CalculatorParseException if text cannot be highlighted
+	 */
+	@NotNull
+	public HighlightedText highlight(@NotNull String text) throws CalculatorParseException {
+		final List<HighlightedText.Span> spans = new ArrayList<HighlightedText.Span>();
+
+		final Highlighting highlighting = highlightTokens(text, spans);
+		final String result = highlighting.text.toString();
+
+		if (highlighting.maxNumberOfOpenGroupSymbols > 0) {
+			addBracketGroupSpans(spans, result, highlighting.maxNumberOfOpenGroupSymbols);
+		}
+
+		return new HighlightedText(result, highlighting.offset, spans);
+	}
+
+	/**
+	 * @param text text to be highlighted
+	 * @param spans list to which spans of tokens must be added or null if tokens must be highlighted by HTML tags
+	 *
+	 * @return text with formatted numbers (and HTML tags if spans is null)
+	 */
+	@NotNull
+	private Highlighting highlightTokens(@NotNull String text, @Nullable List<HighlightedText.Span> spans) throws CalculatorParseException {
 		int maxNumberOfOpenGroupSymbols = 0;
 		int numberOfOpenGroupSymbols = 0;
 
@@ -105,13 +192,17 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 		} else {
 			numberBuilder = new NumberBuilder(CalculatorEngine.instance.getEngine());
 		}
-		for (int i = 0; i < text.length(); i++) {
-			MathType.Result mathType = MathType.getType(text, i, numberBuilder.isHexMode());
+		// NOTE: one holder is used for all tokens (primitive => no boxing for each number)
+		final int[] numberOffset = new int[1];
+
+		final MathTokenStream tokens = MathLexer.instance.tokenize(text);
+		for (int t = 0; t < tokens.size(); t++) {
+			final MathType.Result mathType = tokens.getResult(t);
 
 			if (numberBuilder instanceof NumberBuilder) {
-				final MutableObject<Integer> numberOffset = new MutableObject<Integer>(0);
+				numberOffset[0] = 0;
 				((NumberBuilder) numberBuilder).process(text1, mathType, numberOffset);
-				resultOffset += numberOffset.getObject();
+				resultOffset += numberOffset[0];
 			} else {
 				((LiteNumberBuilder) numberBuilder).process(mathType);
 			}
@@ -121,64 +212,51 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 				case open_group_symbol:
 					numberOfOpenGroupSymbols++;
 					maxNumberOfOpenGroupSymbols = Math.max(maxNumberOfOpenGroupSymbols, numberOfOpenGroupSymbols);
-					text1.append(text.charAt(i));
+					text1.append(match);
 					break;
 				case close_group_symbol:
 					numberOfOpenGroupSymbols--;
-					text1.append(text.charAt(i));
-					break;
-				case operator:
 					text1.append(match);
-					if (match.length() > 1) {
-						i += match.length() - 1;
-					}
 					break;
 				case function:
-					i = processHighlightedText(text1, i, match, "i", null);
+					processHighlightedText(text1, spans, match, "i", HighlightedText.Style.italic);
 					break;
 				case constant:
-					i = processHighlightedText(text1, i, match, "b", null);
+					processHighlightedText(text1, spans, match, "b", HighlightedText.Style.bold);
 					break;
 				case numeral_base:
-					i = processHighlightedText(text1, i, match, "b", null);
+					processHighlightedText(text1, spans, match, "b", HighlightedText.Style.bold);
 					break;
 				default:
-					if (mathType.getMathType() == MathType.text || match.length() <= 1) {
-						text1.append(text.charAt(i));
-					} else {
-						text1.append(match);
-						i += match.length() - 1;
-					}
+					// NOTE: tokens of text type contain only one character
+					text1.append(match);
 			}
 		}
 
 		if (numberBuilder instanceof NumberBuilder) {
-			final MutableObject<Integer> numberOffset = new MutableObject<Integer>(0);
+			numberOffset[0] = 0;
 			((NumberBuilder) numberBuilder).processNumber(text1, numberOffset);
-			resultOffset += numberOffset.getObject();
+			resultOffset += numberOffset[0];
 		}
 
-		if (maxNumberOfOpenGroupSymbols > 0) {
-
-			final StringBuilder text2 = new StringBuilder();
-
-			String s = text1.toString();
-			int i = processBracketGroup(text2, s, 0, 0, maxNumberOfOpenGroupSymbols);
-			for (; i < s.length(); i++) {
-				text2.append(s.charAt(i));
-			}
-
-			//Log.d(CalculatorEditor.class.getName(), text2.toString());
+		return new Highlighting(text1, resultOffset, maxNumberOfOpenGroupSymbols);
+	}
 
-			result = text2.toString();
+	private void processHighlightedText(@NotNull StringBuilder result,
+										@Nullable List<HighlightedText.Span> spans,
+										@NotNull String match,
+										@NotNull String tag,
+										@NotNull HighlightedText.Style style) {
+		if (spans == null) {
+			processHighlightedText(result, match, tag, null);
 		} else {
-			result = text1.toString();
+			// NOTE: numbers are replaced only at the end of text => span positions stay valid
+			spans.add(new HighlightedText.Span(result.length(), result.length() + match.length(), style, 0));
+			result.append(match);
 		}
-
-		return new Result(result, resultOffset);
 	}
 
-	private int processHighlightedText(@NotNull StringBuilder result, int i, @NotNull String match, @NotNull String tag, @Nullable Map<String, String> tagAttributes) {
+	private void processHighlightedText(@NotNull StringBuilder result, @NotNull String match, @NotNull String tag, @Nullable Map<String, String> tagAttributes) {
 		result.append("<").append(tag);
 
 		if (tagAttributes != null) {
@@ -189,30 +267,42 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 		}
 
 		result.append(">").append(match).append("</").append(tag).append(">");
-		if (match.length() > 1) {
-			return i + match.length() - 1;
-		} else {
-			return i;
-		}
 	}
 
-	private int processBracketGroup(@NotNull StringBuilder result, @NotNull String s, int i, int numberOfOpenings, int maxNumberOfGroups) {
+	/**
+	 * Method colors bracket groups of text: each group has color depending on its depth. Text is processed in one pass
+	 * without recursion => deeply nested groups don't overflow the stack.
+	 *
+	 * NOTE: rest of text after not opened close bracket is not colored, not closed groups are closed at the end of text
+	 *
+	 * @return position from which text was not colored
+	 */
+	private int processBracketGroup(@NotNull StringBuilder result, @NotNull String s, int maxNumberOfGroups) {
+		final GroupColors groupColors = getGroupColors(maxNumberOfGroups);
 
-		result.append("<font color=\"").append(getColor(maxNumberOfGroups, numberOfOpenings)).append("\">");
+		int numberOfOpenings = 0;
 
+		appendFontTag(result, groupColors.getHtmlColor(0));
+
+		int i = 0;
 		for (; i < s.length(); i++) {
-			char ch = s.charAt(i);
+			final char ch = s.charAt(i);
 
-			if (MathType.open_group_symbol.getTokens().contains(String.valueOf(ch))) {
+			if (isOpenGroupSymbol(ch)) {
+				// bracket itself has color of outer group
 				result.append(ch);
 				result.append("</font>");
-				i = processBracketGroup(result, s, i + 1, numberOfOpenings + 1, maxNumberOfGroups);
-				result.append("<font color=\"").append(getColor(maxNumberOfGroups, numberOfOpenings)).append("\">");
-				if (i < s.length() && MathType.close_group_symbol.getTokens().contains(String.valueOf(s.charAt(i)))) {
-					result.append(s.charAt(i));
+				numberOfOpenings++;
+				appendFontTag(result, groupColors.getHtmlColor(numberOfOpenings));
+			} else if (isCloseGroupSymbol(ch)) {
+				if (numberOfOpenings == 0) {
+					break;
 				}
-			} else if (MathType.close_group_symbol.getTokens().contains(String.valueOf(ch))) {
-				break;
+				// bracket itself has color of outer group
+				result.append("</font>");
+				numberOfOpenings--;
+				appendFontTag(result, groupColors.getHtmlColor(numberOfOpenings));
+				result.append(ch);
 			} else {
 				result.append(ch);
 			}
@@ -220,19 +310,159 @@ public class TextHighlighter implements TextProcessor<TextHighlighter.Result, St
 
 		result.append("</font>");
 
+		// not closed groups: each outer group gets empty font tag (as it was done by recursive implementation)
+		while (numberOfOpenings > 0) {
+			numberOfOpenings--;
+			appendFontTag(result, groupColors.getHtmlColor(numberOfOpenings));
+			result.append("</font>");
+		}
 
 		return i;
 	}
 
-	private String getColor(int totalNumberOfOpenings, int numberOfOpenings) {
+	private static void appendFontTag(@NotNull StringBuilder result, @NotNull String color) {
+		result.append("<font color=\"").append(color).append("\">");
+	}
+
+	/**
+	 * Method adds color spans of bracket groups: colors are the same as set by {@link #processBracketGroup(StringBuilder, String, int)}
+	 */
+	private void addBracketGroupSpans(@NotNull List<HighlightedText.Span> spans, @NotNull String s, int maxNumberOfGroups) {
+		final GroupColors groupColors = getGroupColors(maxNumberOfGroups);
+
+		int numberOfOpenings = 0;
+
+		// start of current span
+		int start = 0;
+		int color = groupColors.getColor(0);
+
+		int i = 0;
+		for (; i < s.length(); i++) {
+			final char ch = s.charAt(i);
+
+			if (isOpenGroupSymbol(ch)) {
+				// bracket itself has color of outer group
+				numberOfOpenings++;
+				final int newColor = groupColors.getColor(numberOfOpenings);
+				if (newColor != color) {
+					addColorSpan(spans, start, i + 1, color);
+					start = i + 1;
+					color = newColor;
+				}
+			} else if (isCloseGroupSymbol(ch)) {
+				if (numberOfOpenings == 0) {
+					// not opened group is closed => rest of text is not colored
+					break;
+				}
+				// bracket itself has color of outer group
+				numberOfOpenings--;
+				final int newColor = groupColors.getColor(numberOfOpenings);
+				if (newColor != color) {
+					addColorSpan(spans, start, i, color);
+					start = i;
+					color = newColor;
+				}
+			}
+		}
+
+		addColorSpan(spans, start, i, color);
+	}
+
+	// NOTE: all group symbols consist of one character
+	private static boolean isOpenGroupSymbol(char ch) {
+		return openGroupSymbols.indexOf(ch) >= 0;
+	}
+
+	private static boolean isCloseGroupSymbol(char ch) {
+		return closeGroupSymbols.indexOf(ch) >= 0;
+	}
+
+	@NotNull
+	private static String concat(@NotNull List<String> tokens) {
+		final StringBuilder result = new StringBuilder();
+		for (String token : tokens) {
+			result.append(token);
+		}
+		return result.toString();
+	}
+
+	@NotNull
+	private GroupColors getGroupColors(int maxNumberOfGroups) {
+		GroupColors result = this.groupColors;
+		if (result == null || result.maxNumberOfGroups != maxNumberOfGroups) {
+			result = new GroupColors(maxNumberOfGroups);
+			this.groupColors = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Colors of bracket groups for fixed max number of groups (calculated once and reused while max number of groups is the same)
+	 */
+	private final class GroupColors {
+
+		private final int maxNumberOfGroups;
+
+		// ARGB colors by group depth
+		@NotNull
+		private final int[] colors;
+
+		// HTML colors by group depth
+		@NotNull
+		private final String[] htmlColors;
+
+		private GroupColors(int maxNumberOfGroups) {
+			this.maxNumberOfGroups = maxNumberOfGroups;
+			this.colors = new int[maxNumberOfGroups + 1];
+			this.htmlColors = new String[maxNumberOfGroups + 1];
+			for (int i = 0; i <= maxNumberOfGroups; i++) {
+				colors[i] = getColorValue(maxNumberOfGroups, i);
+				htmlColors[i] = toHtmlColor(colors[i]);
+			}
+		}
+
+		private int getColor(int numberOfOpenings) {
+			if (numberOfOpenings < colors.length) {
+				return colors[numberOfOpenings];
+			} else {
+				return getColorValue(maxNumberOfGroups, numberOfOpenings);
+			}
+		}
+
+		@NotNull
+		private String getHtmlColor(int numberOfOpenings) {
+			if (numberOfOpenings < htmlColors.length) {
+				return htmlColors[numberOfOpenings];
+			} else {
+				return toHtmlColor(getColorValue(maxNumberOfGroups, numberOfOpenings));
+			}
+		}
+	}
+
+	private static void addColorSpan(@NotNull List<HighlightedText.Span> spans, int start, int end, int color) {
+		if (start < end) {
+			spans.add(new HighlightedText.Span(start, end, HighlightedText.Style.color, color));
+		}
+	}
+
+	/**
+	 * @return ARGB color of group
+	 */
+	private int getColorValue(int totalNumberOfOpenings, int numberOfOpenings) {
 		double c = 0.8;
 
 		int offset = ((int) (255 * c)) * numberOfOpenings / (totalNumberOfOpenings + 1);
 
 		// for tests:
 		// innt result = Color.rgb(BASE_COLOUR_RED_COMPONENT - offset, BASE_COLOUR_GREEN_COMPONENT - offset, BASE_COLOUR_BLUE_COMPONENT - offset);
-		int result = (0xFF << 24) | ((colorRed - offset) << 16) | ((colorGreen - offset) << 8) | (colorBlue - offset);
+		int result = ((colorRed - offset) << 16) | ((colorGreen - offset) << 8) | (colorBlue - offset);
 
-		return "#" + Integer.toHexString(result).substring(2);
+		// NOTE: components might be negative => only lower 24 bits are used
+		return 0xFF000000 | (result & 0xFFFFFF);
+	}
+
+	@NotNull
+	private static String toHtmlColor(int color) {
+		return "#" + Integer.toHexString(color).substring(2);
 	}
 }
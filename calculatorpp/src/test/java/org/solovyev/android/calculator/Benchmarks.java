@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator;
+
+import org.junit.Assume;
+
+/**
+ * Benchmarks are part of unit tests but are run only on demand (they are slow and their results depend on machine):
+ * mvn test -Pbenchmarks (or -Dcalculatorpp.benchmarks=true).
+ *
+ * NOTE: bounds checked by benchmarks are generous => benchmark fails only if optimization is broken
+ *
+ * User: serso
+ * Date: 3/3/12
+ * Time: 4:10 PM
+ */
+public final class Benchmarks {
+
+	public static final String ENABLED_PROPERTY = "calculatorpp.benchmarks";
+
+	private Benchmarks() {
+		throw new AssertionError();
+	}
+
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(ENABLED_PROPERTY);
+	}
+
+	/**
+	 * Method skips current test if benchmarks are not enabled
+	 */
+	public static void assumeEnabled() {
+		Assume.assumeTrue(isEnabled());
+	}
+}
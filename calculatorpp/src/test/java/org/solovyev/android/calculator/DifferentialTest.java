@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator;
+
+import jscl.JsclMathEngine;
+import jscl.NumeralBase;
+import jscl.math.function.IConstant;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.model.*;
+import org.solovyev.android.calculator.view.ReferenceTextHighlighter;
+import org.solovyev.android.calculator.view.TextHighlighter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimized text processors are run side by side with their straightforward reference implementations
+ * on random expressions: results must be the same.
+ *
+ * User: serso
+ * Date: 2/25/12
+ * Time: 3:30 PM
+ */
+public class DifferentialTest {
+
+	private static final long SEED = 20120225L;
+
+	private static final int COUNT = 3000;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+		varsRegistry.add(new Var.Builder("diffA", "2sin(x)+diffB"));
+		varsRegistry.add(new Var.Builder("diffB", "π/2"));
+		varsRegistry.add(new Var.Builder("diffC", 3d));
+	}
+
+	@Test
+	public void testToJsclTextProcessor() throws Exception {
+		final ReferenceToJsclTextProcessor reference = new ReferenceToJsclTextProcessor();
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		final Implementation expected = new Implementation("reference") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				return reference.process(expression).getExpression();
+			}
+		};
+
+		final Implementation actual = new Implementation("optimized") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				return processor.process(expression, CancellationToken.NONE, false).getExpression();
+			}
+		};
+
+		final Implementation incremental = new Implementation("incremental") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				final PreparedExpression result = processor.process(expression, CancellationToken.NONE, true);
+				return result.getExpression() + " " + result.getUndefinedVars();
+			}
+		};
+
+		final Implementation full = new Implementation("full") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				final PreparedExpression result = processor.process(expression, CancellationToken.NONE, false);
+				return result.getExpression() + " " + result.getUndefinedVars();
+			}
+		};
+
+		for (NumeralBase numeralBase : new NumeralBase[]{NumeralBase.dec, NumeralBase.hex, NumeralBase.bin}) {
+			final NumeralBase defaultNumeralBase = CalculatorEngine.instance.getNumeralBase();
+			try {
+				CalculatorEngine.instance.setNumeralBase(numeralBase);
+
+				final List<String> expressions = generate(SEED + numeralBase.ordinal());
+				assertSameResults("ToJsclTextProcessor (" + numeralBase + ")", expressions, expected, actual);
+				assertSameResults("ToJsclTextProcessor (" + numeralBase + ")", typing(expressions), full, incremental);
+			} finally {
+				CalculatorEngine.instance.setNumeralBase(defaultNumeralBase);
+			}
+		}
+	}
+
+	@Test
+	public void testTextHighlighter() throws Exception {
+		for (final boolean formatNumber : new boolean[]{false, true}) {
+			final ReferenceTextHighlighter reference = new ReferenceTextHighlighter(0xff000000, formatNumber, JsclMathEngine.instance);
+			final TextHighlighter highlighter = new TextHighlighter(0xff000000, formatNumber, JsclMathEngine.instance);
+
+			final Implementation expected = new Implementation("reference") {
+				@NotNull
+				@Override
+				protected Object run(@NotNull String expression) throws Exception {
+					final TextHighlighter.Result result = reference.process(expression);
+					return result.toString() + " " + result.getOffset();
+				}
+			};
+
+			final Implementation actual = new Implementation("optimized") {
+				@NotNull
+				@Override
+				protected Object run(@NotNull String expression) throws Exception {
+					final TextHighlighter.Result result = highlighter.process(expression);
+					return result.toString() + " " + result.getOffset();
+				}
+			};
+
+			assertSameResults("TextHighlighter (formatNumber = " + formatNumber + ")", generate(SEED), expected, actual);
+		}
+	}
+
+	@Test
+	public void testFromJsclSimplifyTextProcessor() throws Exception {
+		final ReferenceFromJsclSimplifyTextProcessor reference = new ReferenceFromJsclSimplifyTextProcessor();
+		final FromJsclSimplifyTextProcessor processor = FromJsclSimplifyTextProcessor.instance;
+
+		// input of processor is output of jscl => jscl forms of valid expressions are used
+		final List<String> expressions = new ArrayList<String>();
+		for (String expression : generate(SEED)) {
+			try {
+				expressions.add(ToJsclTextProcessor.getInstance().process(expression, CancellationToken.NONE, false).getExpression());
+			} catch (CalculatorParseException e) {
+				expressions.add(expression);
+			}
+		}
+
+		final Implementation expected = new Implementation("reference") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				return reference.process(expression);
+			}
+		};
+
+		final Implementation actual = new Implementation("optimized") {
+			@NotNull
+			@Override
+			protected Object run(@NotNull String expression) throws Exception {
+				return processor.process(expression);
+			}
+		};
+
+		assertSameResults("FromJsclSimplifyTextProcessor", expressions, expected, actual);
+	}
+
+	@NotNull
+	private static List<String> generate(long seed) {
+		final RandomExpressionGenerator generator = new RandomExpressionGenerator(seed);
+		generator.addConstant("diffA");
+		generator.addConstant("diffB");
+		generator.addConstant("diffC");
+
+		final List<String> result = new ArrayList<String>(COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			result.add(generator.next());
+		}
+		return result;
+	}
+
+	/**
+	 * @return all prefixes of first expressions (as they are typed by user)
+	 */
+	@NotNull
+	private static List<String> typing(@NotNull List<String> expressions) {
+		final List<String> result = new ArrayList<String>();
+		for (String expression : expressions.subList(0, Math.min(50, expressions.size()))) {
+			for (int i = 0; i <= expression.length(); i++) {
+				result.add(expression.substring(0, i));
+			}
+		}
+		return result;
+	}
+
+	private static void assertSameResults(@NotNull String name,
+										  @NotNull List<String> expressions,
+										  @NotNull Implementation expected,
+										  @NotNull Implementation actual) {
+		int length = 0;
+		for (String expression : expressions) {
+			length += expression.length();
+			Assert.assertEquals(name + ", " + expected.name + " vs " + actual.name + ": " + expression, expected.process(expression), actual.process(expression));
+		}
+
+		if (Benchmarks.isEnabled()) {
+			// throughput is measured after first run (when all classes are loaded and caches are filled)
+			final double expectedThroughput = expected.getThroughput(expressions, length);
+			final double actualThroughput = actual.getThroughput(expressions, length);
+
+			// optimized implementation must not be slower
+			Assert.assertTrue(name + ": " + actualThroughput + " chars/ms (" + actual.name + "), " + expectedThroughput + " chars/ms (" + expected.name + ")",
+					actualThroughput > expectedThroughput / 2);
+		}
+	}
+
+	private static abstract class Implementation {
+
+		@NotNull
+		private final String name;
+
+		private Implementation(@NotNull String name) {
+			this.name = name;
+		}
+
+		@NotNull
+		protected abstract Object run(@NotNull String expression) throws Exception;
+
+		/**
+		 * @return number of processed characters per millisecond
+		 */
+		private double getThroughput(@NotNull List<String> expressions, int length) {
+			final long start = System.nanoTime();
+			for (String expression : expressions) {
+				process(expression);
+			}
+			final long time = Math.max(1, System.nanoTime() - start);
+
+			return length * 1000000d / time;
+		}
+
+		/**
+		 * @return result of processing or description of exception
+		 */
+		@NotNull
+		private String process(@NotNull String expression) {
+			try {
+				return String.valueOf(run(expression));
+			} catch (CalculatorParseException e) {
+				return e.getClass().getSimpleName() + ": " + e.getMessageCode();
+			} catch (Exception e) {
+				return e.getClass().getSimpleName();
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator;
+
+import jscl.JsclMathEngine;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+import org.solovyev.android.calculator.view.HighlightedText;
+import org.solovyev.android.calculator.view.HighlightedTextDiff;
+import org.solovyev.android.calculator.view.TextHighlighter;
+
+import java.util.*;
+
+/**
+ * User: serso
+ * Date: 2/26/12
+ * Time: 5:30 PM
+ */
+public class HighlightedTextDiffTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testTyping() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xffffffff, true, JsclMathEngine.instance);
+
+		final String expression = new RandomExpressionGenerator(20120226L).nextLong(500);
+
+		// editable is emulated by text and spans
+		final StringBuilder text = new StringBuilder();
+		List<HighlightedText.Span> spans = new ArrayList<HighlightedText.Span>();
+
+		int changedSpans = 0;
+		int redrawnSpans = 0;
+		for (int i = 0; i < expression.length(); i++) {
+			// user types next character at the end
+			insert(text, spans, text.length(), expression.charAt(i));
+
+			final HighlightedText highlightedText = textHighlighter.highlight(text.toString());
+			final HighlightedTextDiff diff = HighlightedTextDiff.newInstance(text, spans, highlightedText);
+
+			// full redraw removes all old spans and sets all new spans on each key press
+			redrawnSpans += spans.size() + highlightedText.getSpans().size();
+
+			spans = apply(text, spans, diff, highlightedText);
+
+			changedSpans += diff.getRemovedSpans().length + diff.getAddedSpans().size();
+		}
+
+		Assert.assertTrue(changedSpans < redrawnSpans / 2);
+	}
+
+	@Test
+	public void testEditing() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xffffffff, true, JsclMathEngine.instance);
+		final RandomExpressionGenerator generator = new RandomExpressionGenerator(20120227L);
+		final Random random = new Random(20120227L);
+
+		for (int i = 0; i < 100; i++) {
+			final StringBuilder text = new StringBuilder();
+			List<HighlightedText.Span> spans = new ArrayList<HighlightedText.Span>();
+
+			final String expression = generator.nextValid();
+			for (int j = 0; j < 20; j++) {
+				// user inserts or deletes character in random position
+				final int position = random.nextInt(text.length() + 1);
+				if (random.nextInt(3) > 0 || position == text.length()) {
+					insert(text, spans, position, expression.charAt(random.nextInt(expression.length())));
+				} else {
+					delete(text, spans, position);
+				}
+
+				final HighlightedText highlightedText = textHighlighter.highlight(text.toString());
+				spans = apply(text, spans, HighlightedTextDiff.newInstance(text, spans, highlightedText), highlightedText);
+			}
+		}
+	}
+
+	@Test
+	public void testNoChanges() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xffffffff, true, JsclMathEngine.instance);
+
+		final HighlightedText highlightedText = textHighlighter.highlight("sin(2)+π*[3]");
+		final HighlightedTextDiff diff = HighlightedTextDiff.newInstance(highlightedText.getText(), highlightedText.getSpans(), highlightedText);
+		Assert.assertFalse(diff.isTextChanged());
+		Assert.assertEquals(0, diff.getRemovedSpans().length);
+		Assert.assertTrue(diff.getAddedSpans().isEmpty());
+	}
+
+	/**
+	 * Method applies diff to the emulated editable and checks that result is the same as new highlighted text
+	 *
+	 * @return spans of editable after applying of diff
+	 */
+	@NotNull
+	private static List<HighlightedText.Span> apply(@NotNull StringBuilder text,
+													@NotNull List<HighlightedText.Span> spans,
+													@NotNull HighlightedTextDiff diff,
+													@NotNull HighlightedText highlightedText) {
+		final List<HighlightedText.Span> result = new ArrayList<HighlightedText.Span>(spans);
+		for (int i = diff.getRemovedSpans().length - 1; i >= 0; i--) {
+			result.remove(diff.getRemovedSpans()[i]);
+		}
+
+		// spans after replaced text are moved (as in android for exclusive spans)
+		final int delta = diff.getNewEnd() - diff.getOldEnd();
+		for (int i = 0; i < result.size(); i++) {
+			final HighlightedText.Span span = result.get(i);
+			if (span.getEnd() <= diff.getStart()) {
+				// span before replaced text is not changed
+			} else {
+				Assert.assertTrue(span.getStart() >= diff.getOldEnd());
+				result.set(i, newSpan(span, span.getStart() + delta, span.getEnd() + delta));
+			}
+		}
+		text.replace(diff.getStart(), diff.getOldEnd(), highlightedText.getText().substring(diff.getStart(), diff.getNewEnd()));
+
+		result.addAll(diff.getAddedSpans());
+
+		Assert.assertEquals(highlightedText.getText(), text.toString());
+		Assert.assertEquals(new HashSet<HighlightedText.Span>(highlightedText.getSpans()), new HashSet<HighlightedText.Span>(result));
+
+		return result;
+	}
+
+	/**
+	 * Method inserts character in the emulated editable, spans are changed as in android for exclusive spans
+	 */
+	private static void insert(@NotNull StringBuilder text, @NotNull List<HighlightedText.Span> spans, int position, char c) {
+		text.insert(position, c);
+		for (int i = 0; i < spans.size(); i++) {
+			final HighlightedText.Span span = spans.get(i);
+			if (span.getStart() >= position) {
+				spans.set(i, newSpan(span, span.getStart() + 1, span.getEnd() + 1));
+			} else if (span.getEnd() > position) {
+				spans.set(i, newSpan(span, span.getStart(), span.getEnd() + 1));
+			}
+		}
+	}
+
+	/**
+	 * Method deletes character from the emulated editable, spans are changed as in android
+	 */
+	private static void delete(@NotNull StringBuilder text, @NotNull List<HighlightedText.Span> spans, int position) {
+		text.deleteCharAt(position);
+		for (int i = 0; i < spans.size(); i++) {
+			final HighlightedText.Span span = spans.get(i);
+			final int start = span.getStart() > position ? span.getStart() - 1 : span.getStart();
+			final int end = span.getEnd() > position ? span.getEnd() - 1 : span.getEnd();
+			spans.set(i, newSpan(span, start, end));
+		}
+	}
+
+	@NotNull
+	private static HighlightedText.Span newSpan(@NotNull HighlightedText.Span span, int start, int end) {
+		return new HighlightedText.Span(start, end, span.getStyle(), span.getColor());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator;
+
+import jscl.JsclMathEngine;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+import org.solovyev.android.calculator.model.CalculatorParseException;
+import org.solovyev.android.calculator.view.HighlightedText;
+import org.solovyev.android.calculator.view.HighlightingScheduler;
+import org.solovyev.android.calculator.view.TextHighlighter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: serso
+ * Date: 2/28/12
+ * Time: 8:20 PM
+ */
+public class HighlightingSchedulerTest {
+
+	private static final long DELAY_MILLIS = 20;
+
+	@NotNull
+	private final TextHighlighter textHighlighter = new TextHighlighter(0xffffffff, true, JsclMathEngine.instance);
+
+	private ScheduledExecutorService worker;
+
+	// emulates UI thread
+	private ExecutorService uiExecutor;
+
+	private HighlightingScheduler scheduler;
+
+	private TestTarget target;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		worker = Executors.newSingleThreadScheduledExecutor();
+		uiExecutor = Executors.newSingleThreadExecutor();
+		scheduler = new HighlightingScheduler(uiExecutor, worker, DELAY_MILLIS);
+		target = new TestTarget();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		worker.shutdownNow();
+		uiExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testSupersede() throws Exception {
+		final String expression = new RandomExpressionGenerator(20120228L).nextLong(200);
+
+		// fast typing: each new character supersedes highlighting of previous text
+		for (int i = 1; i <= expression.length(); i++) {
+			target.text = expression.substring(0, i);
+			scheduler.schedule(target.text, textHighlighter, target);
+		}
+		waitForResults();
+
+		Assert.assertEquals(1, target.results.size());
+		Assert.assertEquals(textHighlighter.highlight(expression).getSpans(), target.results.get(0).getSpans());
+	}
+
+	@Test
+	public void testTextChanged() throws Exception {
+		target.text = "sin(1)";
+		scheduler.schedule(target.text, textHighlighter, target);
+
+		// text is changed but redraw is not requested yet => result must be dropped
+		target.text = "sin(12)";
+		waitForResults();
+
+		Assert.assertTrue(target.results.isEmpty());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		target.text = "sin(1)";
+		scheduler.schedule(target.text, textHighlighter, target);
+		scheduler.cancel();
+		waitForResults();
+
+		Assert.assertTrue(target.results.isEmpty());
+
+		scheduler.schedule(target.text, textHighlighter, target);
+		waitForResults();
+
+		Assert.assertEquals(1, target.results.size());
+		Assert.assertEquals("sin(1)", target.results.get(0).getText());
+	}
+
+	private void waitForResults() throws Exception {
+		// NOTE: worker has one thread => all requests scheduled earlier are done before this one
+		worker.schedule(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, 2 * DELAY_MILLIS, TimeUnit.MILLISECONDS).get();
+
+		uiExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}).get();
+	}
+
+	private static final class TestTarget implements HighlightingScheduler.Target {
+
+		@NotNull
+		private volatile String text = "";
+
+		@NotNull
+		private final List<HighlightedText> results = Collections.synchronizedList(new ArrayList<HighlightedText>());
+
+		@NotNull
+		@Override
+		public CharSequence getCurrentText() {
+			return text;
+		}
+
+		@Override
+		public void onHighlighted(@NotNull HighlightedText highlightedText) {
+			results.add(highlightedText);
+		}
+
+		@Override
+		public void onHighlightingFailed(@NotNull String text, @NotNull CalculatorParseException e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of random expressions as they can be typed by user: numbers (with numeral base prefixes, grouping separators
+ * and exponents), constants, functions, operators, postfix functions and nested brackets.
+ * Invalid expressions are got from valid ones by random insertions/deletions of characters.
+ *
+ * NOTE: the same seed gives the same expressions => failed expression can be reproduced
+ *
+ * User: serso
+ * Date: 2/25/12
+ * Time: 2:15 PM
+ */
+final class RandomExpressionGenerator {
+
+	@NotNull
+	private static final String[] FUNCTIONS = {"sin", "cos", "tan", "cot", "asin", "acos", "atan", "sinh", "cosh", "asinh", "ln", "lg", "exp", "√", "∛", "abs"};
+
+	@NotNull
+	private static final String[] OPERATORS = {"Σ", "∏", "∂", "∫"};
+
+	@NotNull
+	private static final String[] POSTFIX_FUNCTIONS = {"!", "!!", "%", "°"};
+
+	@NotNull
+	private static final String[] CONSTANTS = {"π", "e", "i", "∞", "x", "y", "t", "j"};
+
+	@NotNull
+	private static final String[] BINARY_OPERATIONS = {"+", "-", "*", "/", "^", "×", "∙", "="};
+
+	@NotNull
+	private static final String[] OPEN_GROUP_SYMBOLS = {"(", "[", "{"};
+
+	@NotNull
+	private static final String[] CLOSE_GROUP_SYMBOLS = {")", "]", "}"};
+
+	// characters which are inserted into invalid expressions
+	@NotNull
+	private static final String JUNK = "()[]{}+-*/^.,E' 0123456789ABCDEFabcdefxπ√!°%:ю?";
+
+	@NotNull
+	private final Random random;
+
+	@NotNull
+	private final List<String> extraConstants = new ArrayList<String>();
+
+	RandomExpressionGenerator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param name name of constant which will be used in expressions together with predefined constants
+	 */
+	void addConstant(@NotNull String name) {
+		extraConstants.add(name);
+	}
+
+	/**
+	 * @return random valid or invalid expression
+	 */
+	@NotNull
+	String next() {
+		return random.nextInt(4) == 0 ? nextInvalid() : nextValid();
+	}
+
+	@NotNull
+	String nextValid() {
+		final StringBuilder result = new StringBuilder();
+		appendExpression(result, 0);
+		return result.toString();
+	}
+
+	@NotNull
+	String nextInvalid() {
+		final StringBuilder result = new StringBuilder(nextValid());
+
+		final int mutations = 1 + random.nextInt(3);
+		for (int i = 0; i < mutations; i++) {
+			final int position = random.nextInt(result.length() + 1);
+			if (random.nextBoolean() && position < result.length()) {
+				result.deleteCharAt(position);
+			} else {
+				result.insert(position, JUNK.charAt(random.nextInt(JUNK.length())));
+			}
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * @param size approximate length of expression
+	 * @return long expression composed of random valid expressions
+	 */
+	@NotNull
+	String nextLong(int size) {
+		final StringBuilder result = new StringBuilder(size + 64);
+		appendExpression(result, 0);
+		while (result.length() < size) {
+			result.append(BINARY_OPERATIONS[random.nextInt(4)]);
+			appendExpression(result, 0);
+		}
+		return result.toString();
+	}
+
+	private void appendExpression(@NotNull StringBuilder result, int depth) {
+		final int terms = 1 + random.nextInt(3);
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) {
+				result.append(BINARY_OPERATIONS[random.nextInt(BINARY_OPERATIONS.length)]);
+			}
+			appendTerm(result, depth);
+		}
+	}
+
+	private void appendTerm(@NotNull StringBuilder result, int depth) {
+		if (random.nextInt(5) == 0) {
+			result.append("-");
+		}
+
+		// implicit multiplication: 2π, 2sin(1), (1)(2)
+		final int factors = random.nextInt(4) == 0 ? 2 : 1;
+		for (int i = 0; i < factors; i++) {
+			appendFactor(result, depth);
+		}
+
+		if (random.nextInt(6) == 0) {
+			result.append(POSTFIX_FUNCTIONS[random.nextInt(POSTFIX_FUNCTIONS.length)]);
+		}
+	}
+
+	private void appendFactor(@NotNull StringBuilder result, int depth) {
+		// deep expressions contain only simple factors
+		final int choice = random.nextInt(depth < 4 ? 6 : 2);
+		switch (choice) {
+			case 0:
+				appendNumber(result);
+				break;
+			case 1:
+				appendConstant(result);
+				break;
+			case 2:
+			case 3:
+				result.append(FUNCTIONS[random.nextInt(FUNCTIONS.length)]);
+				appendGroup(result, depth, 0);
+				break;
+			case 4:
+				result.append(OPERATORS[random.nextInt(OPERATORS.length)]);
+				appendGroup(result, depth, 1 + random.nextInt(2));
+				break;
+			default:
+				appendGroup(result, depth, 0);
+				break;
+		}
+	}
+
+	private void appendGroup(@NotNull StringBuilder result, int depth, int additionalArguments) {
+		final int groupSymbol = random.nextInt(5) == 0 ? 1 + random.nextInt(2) : 0;
+
+		result.append(OPEN_GROUP_SYMBOLS[groupSymbol]);
+		appendExpression(result, depth + 1);
+		for (int i = 0; i < additionalArguments; i++) {
+			result.append(random.nextBoolean() ? ", " : ",");
+			appendExpression(result, depth + 1);
+		}
+		result.append(CLOSE_GROUP_SYMBOLS[groupSymbol]);
+	}
+
+	private void appendConstant(@NotNull StringBuilder result) {
+		final int index = random.nextInt(CONSTANTS.length + extraConstants.size());
+		if (index < CONSTANTS.length) {
+			result.append(CONSTANTS[index]);
+		} else {
+			result.append(extraConstants.get(index - CONSTANTS.length));
+		}
+	}
+
+	private void appendNumber(@NotNull StringBuilder result) {
+		switch (random.nextInt(6)) {
+			case 0:
+				result.append("0x:");
+				appendDigits(result, "0123456789ABCDEF", 1 + random.nextInt(8));
+				break;
+			case 1:
+				result.append("0b:");
+				appendDigits(result, "01", 1 + random.nextInt(12));
+				break;
+			default:
+				appendDigits(result, "0123456789", 1 + random.nextInt(9));
+				if (random.nextInt(3) == 0) {
+					result.append(".");
+					appendDigits(result, "0123456789", random.nextInt(4));
+				}
+				if (random.nextInt(6) == 0) {
+					result.append("E");
+					if (random.nextBoolean()) {
+						result.append(random.nextBoolean() ? "-" : "+");
+					}
+					appendDigits(result, "0123456789", 1 + random.nextInt(2));
+				}
+				break;
+		}
+	}
+
+	private void appendDigits(@NotNull StringBuilder result, @NotNull String digits, int count) {
+		for (int i = 0; i < count; i++) {
+			// grouping separators
+			if (i > 0 && random.nextInt(8) == 0) {
+				result.append(random.nextBoolean() ? " " : "'");
+			}
+			result.append(digits.charAt(random.nextInt(digits.length())));
+		}
+	}
+}
@@ -7,16 +7,17 @@
 package org.solovyev.android.calculator;
 
 import jscl.JsclMathEngine;
-import jscl.MathEngine;
 import jscl.NumeralBase;
 import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 import org.solovyev.android.calculator.model.CalculatorEngine;
 import org.solovyev.android.calculator.model.TextProcessor;
+import org.solovyev.android.calculator.view.HighlightedText;
+import org.solovyev.android.calculator.view.ReferenceTextHighlighter;
 import org.solovyev.android.calculator.view.TextHighlighter;
 
-import java.util.Date;
-import java.util.Random;
+import java.util.*;
 
 /**
  * User: serso
@@ -93,9 +94,8 @@ public class TextHighlighterTest {
 		Assert.assertEquals("<b>0x:</b>FF33233FFE", textHighlighter.process("0x:FF33233FFE").toString());
 		Assert.assertEquals("<b>0x:</b>FF33 233 FFE", textHighlighter.process("0x:FF33 233 FFE").toString());
 
-		final MathEngine me = CalculatorEngine.instance.getEngine();
 		try {
-			me.setNumeralBase(NumeralBase.hex);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.hex);
 			Assert.assertEquals("E", textHighlighter.process("E").toString());
 			Assert.assertEquals(".E", textHighlighter.process(".E").toString());
 			Assert.assertEquals("E+", textHighlighter.process("E+").toString());
@@ -108,7 +108,7 @@ public class TextHighlighterTest {
 			Assert.assertEquals("6F.B", textHighlighter.process("6F.B").toString());
 			Assert.assertEquals("006F.B", textHighlighter.process("006F.B").toString());
 		} finally {
-			me.setNumeralBase(NumeralBase.dec);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.dec);
 		}
 
 		Assert.assertEquals("<b>0b:</b>110101", textHighlighter.process("0b:110101").toString());
@@ -121,7 +121,7 @@ public class TextHighlighterTest {
 		Assert.assertEquals("<b>0b:</b>101 010   01 0 111   1 0 10101001", textHighlighter.process("0b:101 010   01 0 111   1 0 10101001").toString());
 
 		try {
-			me.setNumeralBase(NumeralBase.bin);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.bin);
 		Assert.assertEquals("110101", textHighlighter.process("110101").toString());
 		Assert.assertEquals("110101.", textHighlighter.process("110101.").toString());
 		Assert.assertEquals("110101.101", textHighlighter.process("110101.101").toString());
@@ -131,7 +131,239 @@ public class TextHighlighterTest {
 		Assert.assertEquals("1010100101111010101001", textHighlighter.process("1010100101111010101001").toString());
 		Assert.assertEquals("101 010   01 0 111   1 0 10101001", textHighlighter.process("101 010   01 0 111   1 0 10101001").toString());
 		} finally {
-			me.setNumeralBase(NumeralBase.dec);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.dec);
 		}
 	}
+
+	@Test
+	public void testHighlight() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xff000000, true, JsclMathEngine.instance);
+
+		HighlightedText result = textHighlighter.highlight("sin(2)");
+		Assert.assertEquals("sin(2)", result.getText());
+		Assert.assertEquals(Arrays.asList("italic[0, 3)", "color[0, 4)#ff000000", "color[4, 5)#ffffff9a", "color[5, 6)#ff000000"), toStrings(result.getSpans()));
+
+		result = textHighlighter.highlight("1000000+π");
+		Assert.assertEquals("1 000 000+π", result.getText());
+		Assert.assertEquals(2, result.getOffset());
+		Assert.assertEquals(Arrays.asList("bold[10, 11)"), toStrings(result.getSpans()));
+
+		// text after closing bracket without opening bracket is not colored
+		result = textHighlighter.highlight("(1))2(");
+		Assert.assertEquals(Arrays.asList("color[0, 1)#ff000000", "color[1, 2)#ffffff9a", "color[2, 3)#ff000000"), toStrings(result.getSpans()));
+
+		// spans must be the same as HTML tags
+		final RandomExpressionGenerator generator = new RandomExpressionGenerator(20120226L);
+		for (int i = 0; i < 2000; i++) {
+			final String expression = generator.next();
+			if (expression.indexOf('<') < 0 && expression.indexOf('&') < 0) {
+				assertSameAsHtml(expression, textHighlighter);
+			}
+		}
+	}
+
+	@Test
+	public void testLongText() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xff000000, true, JsclMathEngine.instance);
+		final ReferenceTextHighlighter referenceTextHighlighter = new ReferenceTextHighlighter(0xff000000, true, JsclMathEngine.instance);
+
+		final String expression = new RandomExpressionGenerator(20120226L).nextLong(2000);
+		Assert.assertEquals(referenceTextHighlighter.process(expression).toString(), textHighlighter.process(expression).toString());
+	}
+
+	@Test
+	public void testHighlightSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final TextHighlighter textHighlighter = new TextHighlighter(0xff000000, true, JsclMathEngine.instance);
+
+		final String expression = new RandomExpressionGenerator(20120226L).nextLong(2000);
+
+		final int iterations = 200;
+		for (int i = 0; i < iterations; i++) {
+			textHighlighter.process(expression);
+			textHighlighter.highlight(expression);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			textHighlighter.process(expression);
+		}
+		final long htmlTime = (System.nanoTime() - start) / iterations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			textHighlighter.highlight(expression);
+		}
+		final long spansTime = (System.nanoTime() - start) / iterations;
+
+		// NOTE: time of Html.fromHtml() (which is needed for HTML only) is not included as it cannot be run outside of android
+		// => building of spans alone must not be noticeably slower than building of HTML string
+		Assert.assertTrue("HTML " + htmlTime / 1000 + " us, spans " + spansTime / 1000 + " us", spansTime < 2 * htmlTime);
+	}
+
+	@Test
+	public void testDeepNesting() throws Exception {
+		final TextHighlighter textHighlighter = new TextHighlighter(0xff000000, true, JsclMathEngine.instance);
+		final ReferenceTextHighlighter referenceTextHighlighter = new ReferenceTextHighlighter(0xff000000, true, JsclMathEngine.instance);
+
+		// NOTE: reference implementation is recursive => only moderate depth can be checked
+		for (String expression : Arrays.asList(nested(500, "1", 500), nested(500, "1", 0), nested(500, "2", 200) + ")+3(", "((1)" + nested(3, "π", 5) + "[2]")) {
+			Assert.assertEquals(referenceTextHighlighter.process(expression).toString(), textHighlighter.process(expression).toString());
+			assertSameAsHtml(expression, textHighlighter);
+		}
+
+		final int depth = 10000;
+		final String expression = nested(depth, "1", depth);
+		final String unbalanced = nested(depth, "1", depth / 2);
+
+		// NOTE: neighbour groups might have the same color => spans are merged but whole text must be colored
+		final List<HighlightedText.Span> spans = textHighlighter.highlight(unbalanced).getSpans();
+		Assert.assertEquals(0, spans.get(0).getStart());
+		Assert.assertEquals(unbalanced.length(), spans.get(spans.size() - 1).getEnd());
+
+		// NOTE: highlighting is not recursive => deep nesting doesn't overflow stack
+		Assert.assertTrue(textHighlighter.process(expression).toString().length() > expression.length());
+		Assert.assertTrue(textHighlighter.process(unbalanced).toString().length() > unbalanced.length());
+		final List<HighlightedText.Span> balancedSpans = textHighlighter.highlight(expression).getSpans();
+		Assert.assertEquals(expression.length(), balancedSpans.get(balancedSpans.size() - 1).getEnd());
+	}
+
+	@Test
+	public void testDeepNestingSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final TextHighlighter textHighlighter = new TextHighlighter(0xff000000, true, JsclMathEngine.instance);
+
+		final int depth = 10000;
+		final String expression = nested(depth, "1", depth);
+		final String unbalanced = nested(depth, "1", depth / 2);
+
+		final String shallowExpression = nested(depth / 10, "1", depth / 10);
+		final String shallowUnbalanced = nested(depth / 10, "1", depth / 20);
+
+		final int iterations = 20;
+		for (int i = 0; i < iterations; i++) {
+			textHighlighter.process(expression);
+			textHighlighter.highlight(expression);
+			textHighlighter.process(shallowExpression);
+			textHighlighter.highlight(shallowExpression);
+		}
+
+		final long htmlTime = getNanosPerChar(iterations, textHighlighter, false, expression, unbalanced);
+		final long spansTime = getNanosPerChar(iterations, textHighlighter, true, expression, unbalanced);
+
+		final long shallowHtmlTime = getNanosPerChar(iterations * 10, textHighlighter, false, shallowExpression, shallowUnbalanced);
+		final long shallowSpansTime = getNanosPerChar(iterations * 10, textHighlighter, true, shallowExpression, shallowUnbalanced);
+
+		// single pass => time per character doesn't depend on depth (recursive processing is at least quadratic)
+		Assert.assertTrue("HTML " + htmlTime + " ns/char (" + depth + " nested groups), " + shallowHtmlTime + " ns/char (" + depth / 10 + " nested groups)", htmlTime < 4 * Math.max(1, shallowHtmlTime));
+		Assert.assertTrue("spans " + spansTime + " ns/char (" + depth + " nested groups), " + shallowSpansTime + " ns/char (" + depth / 10 + " nested groups)", spansTime < 4 * Math.max(1, shallowSpansTime));
+	}
+
+	private static long getNanosPerChar(int iterations, @NotNull TextHighlighter textHighlighter, boolean spans, @NotNull String... expressions) throws Exception {
+		int length = 0;
+		for (String expression : expressions) {
+			length += expression.length();
+		}
+
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (String expression : expressions) {
+				if (spans) {
+					textHighlighter.highlight(expression);
+				} else {
+					textHighlighter.process(expression);
+				}
+			}
+		}
+		return (System.nanoTime() - start) / iterations / length;
+	}
+
+	@NotNull
+	private static String nested(int numberOfOpenings, @NotNull String s, int numberOfClosings) {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < numberOfOpenings; i++) {
+			result.append("([{".charAt(i % 3));
+		}
+		result.append(s);
+		for (int i = numberOfClosings - 1; i >= 0; i--) {
+			result.append(")]}".charAt((numberOfOpenings - numberOfClosings + i) % 3));
+		}
+		return result.toString();
+	}
+
+	private static void assertSameAsHtml(@NotNull String expression, @NotNull TextHighlighter textHighlighter) throws Exception {
+		final String html = textHighlighter.process(expression).toString();
+		final HighlightedText highlightedText = textHighlighter.highlight(expression);
+
+		// style of each character of text: italic/bold flags and color (0 if not colored)
+		final StringBuilder text = new StringBuilder();
+		final List<String> expectedStyles = new ArrayList<String>();
+
+		final Deque<Integer> colors = new ArrayDeque<Integer>();
+		boolean italic = false;
+		boolean bold = false;
+		for (int i = 0; i < html.length(); i++) {
+			if (html.startsWith("<i>", i)) {
+				italic = true;
+				i += "<i>".length() - 1;
+			} else if (html.startsWith("</i>", i)) {
+				italic = false;
+				i += "</i>".length() - 1;
+			} else if (html.startsWith("<b>", i)) {
+				bold = true;
+				i += "<b>".length() - 1;
+			} else if (html.startsWith("</b>", i)) {
+				bold = false;
+				i += "</b>".length() - 1;
+			} else if (html.startsWith("<font color=\"#", i)) {
+				final int colorStart = i + "<font color=\"#".length();
+				colors.push(0xff000000 | Integer.parseInt(html.substring(colorStart, colorStart + 6), 16));
+				i = html.indexOf('>', i);
+			} else if (html.startsWith("</font>", i)) {
+				colors.pop();
+				i += "</font>".length() - 1;
+			} else {
+				text.append(html.charAt(i));
+				expectedStyles.add(italic + " " + bold + " " + (colors.isEmpty() ? 0 : colors.peek()));
+			}
+		}
+
+		Assert.assertEquals(expression, text.toString(), highlightedText.getText());
+
+		final boolean[] italics = new boolean[text.length()];
+		final boolean[] bolds = new boolean[text.length()];
+		final int[] actualColors = new int[text.length()];
+		for (HighlightedText.Span span : highlightedText.getSpans()) {
+			for (int i = span.getStart(); i < span.getEnd(); i++) {
+				switch (span.getStyle()) {
+					case italic:
+						italics[i] = true;
+						break;
+					case bold:
+						bolds[i] = true;
+						break;
+					case color:
+						// spans must not overlap
+						Assert.assertEquals(expression, 0, actualColors[i]);
+						actualColors[i] = span.getColor();
+						break;
+				}
+			}
+		}
+
+		for (int i = 0; i < text.length(); i++) {
+			Assert.assertEquals(expression + ", " + i, expectedStyles.get(i), italics[i] + " " + bolds[i] + " " + actualColors[i]);
+		}
+	}
+
+	@NotNull
+	private static List<String> toStrings(@NotNull List<HighlightedText.Span> spans) {
+		final List<String> result = new ArrayList<String>();
+		for (HighlightedText.Span span : spans) {
+			result.add(span.toString());
+		}
+		return result;
+	}
 }
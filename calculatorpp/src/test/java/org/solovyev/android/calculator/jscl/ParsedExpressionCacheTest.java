@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.jscl;
+
+import jscl.NumeralBase;
+import jscl.math.Generic;
+import junit.framework.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+
+/**
+ * User: serso
+ * Date: 2/16/12
+ * Time: 9:40 PM
+ */
+public class ParsedExpressionCacheTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		final ParsedExpressionCache cache = ParsedExpressionCache.instance;
+		cache.clear();
+
+		final Generic parsed = cache.parse("2*sin(30)");
+		Assert.assertSame(parsed, cache.parse("2*sin(30)"));
+
+		final NumeralBase numeralBase = CalculatorEngine.instance.getEngine().getNumeralBase();
+		try {
+			CalculatorEngine.instance.getEngine().setNumeralBase(NumeralBase.hex);
+			Assert.assertNotSame(parsed, cache.parse("2*sin(30)"));
+		} finally {
+			CalculatorEngine.instance.getEngine().setNumeralBase(numeralBase);
+		}
+	}
+
+	@Test
+	public void testSameResultAsMathEngine() throws Exception {
+		final String[] expressions = {"2+2", "2*sin(30)", "10%", "100-10%", "√(3)", "x+x", "sin(x)^2+cos(x)^2", "ln(e)", "(1+x)^2", "1/3"};
+
+		for (JsclOperation operation : JsclOperation.values()) {
+			for (String expression : expressions) {
+				// twice: first without cache and second with cache
+				Assert.assertEquals(operation.evaluate(expression), operation.evaluateGeneric(expression).toString());
+				Assert.assertEquals(operation.evaluate(expression), operation.evaluateGeneric(expression).toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import jscl.JsclMathEngine;
+import jscl.NumeralBase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reference implementation of {@link MathType#getType(String, int, boolean)}: all tokens of all math types are checked
+ * in order of priority (used for validation and benchmarking of {@link MathTypeTrie} and by reference implementations of processors)
+ *
+ * User: serso
+ * Date: 2/21/12
+ * Time: 10:48 PM
+ */
+public final class LinearMathTypeMatcher {
+
+	private LinearMathTypeMatcher() {
+		throw new AssertionError();
+	}
+
+	@NotNull
+	public static MathType.Result getType(@NotNull String text, int i, boolean hexMode) {
+		if (i == 0 && text.length() == 0) {
+			return new MathType.Result(MathType.text, text);
+		}
+
+		for (MathType mathType : MathType.getMathTypesByPriority()) {
+			// the first token of type (in order of tokens list)
+			String s = null;
+			for (String token : mathType.getTokens()) {
+				if (text.startsWith(token, i)) {
+					s = token;
+					break;
+				}
+			}
+
+			if (s != null) {
+				if (s.length() == 1) {
+					if (hexMode || JsclMathEngine.instance.getNumeralBase() == NumeralBase.hex) {
+						final Character ch = s.charAt(0);
+						if (NumeralBase.hex.getAcceptableCharacters().contains(ch)) {
+							return new MathType.Result(MathType.digit, s);
+						}
+					}
+				}
+				return new MathType.Result(mathType, s);
+			}
+		}
+
+		return new MathType.Result(MathType.text, text.substring(i));
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.math;
+
+import jscl.NumeralBase;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.model.CalculatorEngine;
+import org.solovyev.android.calculator.model.LiteNumberBuilder;
+import org.solovyev.android.calculator.model.Var;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+/**
+ * User: serso
+ * Date: 2/22/12
+ * Time: 10:05 PM
+ */
+public class MathLexerTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testTokenize() throws Exception {
+		final MathTokenStream tokens = MathLexer.instance.tokenize("sin(2)+ЖЖЖ", false);
+
+		Assert.assertEquals(8, tokens.size());
+		assertToken(tokens.get(0), MathType.function, "sin", 0, 3);
+		assertToken(tokens.get(1), MathType.open_group_symbol, "(", 3, 4);
+		assertToken(tokens.get(2), MathType.digit, "2", 4, 5);
+		assertToken(tokens.get(3), MathType.close_group_symbol, ")", 5, 6);
+		assertToken(tokens.get(4), MathType.binary_operation, "+", 6, 7);
+		// text is split into characters
+		assertToken(tokens.get(7), MathType.text, "Ж", 9, 10);
+
+		Assert.assertEquals(3, tokens.indexOf(5));
+		Assert.assertEquals(-1, tokens.indexOf(1));
+
+		Assert.assertEquals(0, MathLexer.instance.tokenize("", false).size());
+	}
+
+	@Test
+	public void testSameTokensAsMathType() throws Exception {
+		assertSameTokens("sin(4)asin(0.5)√(2)+πcos(√(5+i))E-2+0x:FF+atanh(1)-k11'000 000.5°+ln(e)!%=[]{}" + MathType.INFINITY);
+		assertSameTokens("0x:FF + AB*0b:101E-1");
+
+		final CalculatorEngine engine = CalculatorEngine.instance;
+		final NumeralBase numeralBase = engine.getNumeralBase();
+		try {
+			engine.setNumeralBase(NumeralBase.hex);
+			assertSameTokens("FF+AB*sin(E)-0d:123");
+		} finally {
+			engine.setNumeralBase(numeralBase);
+		}
+	}
+
+	@Test
+	public void testSharedStream() throws Exception {
+		final MathLexer lexer = MathLexer.instance;
+
+		final MathTokenStream tokens = lexer.tokenize("2+3");
+		Assert.assertSame(tokens, lexer.tokenize("2+3"));
+		Assert.assertNotSame(tokens, lexer.tokenize("2+3", false));
+
+		// not shared stream must not replace cached one
+		Assert.assertSame(tokens, lexer.tokenize("2+3"));
+
+		// registries are changed => text must be tokenized again
+		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("lexerTestVar", 2d));
+		Assert.assertNotSame(tokens, lexer.tokenize("2+3"));
+	}
+
+	@Test
+	public void testIncrementalTokenize() throws Exception {
+		// typing
+		assertIncrementalTokenize("sin(30)+12345*π-2sinh(1)+0x:FF1/√(4)-E-2+123E-4");
+
+		// editing in the middle
+		final String[] edits = {"2sin(30)+12345", "2s(30)+12345", "2si(30)+12345", "2sinh(30)+12345", "2sin(30)+12345", "2sin(30)+1345",
+				"2sin(30)-1345", "2asin(30)-1345", "2π(30)-1345", "0x:12+AB", "0x:12AB", "0x12AB", "12AB", "12E-3", "12E3", "1sin(2)3"};
+		for (String edit : edits) {
+			assertIncrementalTokens(edit);
+		}
+
+		final Random random = new Random(0);
+		final String chars = "0123456789.E-+*/()sinco√π'x ";
+		final StringBuilder text = new StringBuilder("sin(1)+cos(2)");
+		for (int i = 0; i < 1000; i++) {
+			final int position = random.nextInt(text.length() + 1);
+			if (random.nextInt(3) == 0 && position < text.length()) {
+				text.deleteCharAt(position);
+			} else {
+				text.insert(position, chars.charAt(random.nextInt(chars.length())));
+			}
+			assertIncrementalTokens(text.toString());
+		}
+	}
+
+	@Test
+	public void testIncrementalTokenizeLongText() throws Exception {
+		final StringBuilder expression = new StringBuilder();
+		while (expression.length() < 10000) {
+			expression.append("sin(").append(expression.length()).append(")*π+");
+		}
+
+		// typing at the end
+		for (int i = 0; i < 10; i++) {
+			assertIncrementalTokens(expression.append(i).toString());
+		}
+
+		// typing in the middle
+		for (int i = 0; i < 10; i++) {
+			assertIncrementalTokens(expression.insert(expression.length() / 2, i % 2 == 0 ? "+" : "s").toString());
+		}
+	}
+
+	@Test
+	public void testIncrementalTokenizeSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final MathLexer lexer = MathLexer.instance;
+
+		final StringBuilder expression = new StringBuilder();
+		while (expression.length() < 10000) {
+			expression.append("sin(").append(expression.length()).append(")*π+");
+		}
+
+		final int iterations = 100;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			lexer.tokenize(expression.append(i % 10).toString(), false);
+		}
+		final long fullTime = System.nanoTime() - start;
+
+		lexer.tokenize(expression.toString());
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			lexer.tokenize(expression.append(i % 10).toString());
+		}
+		final long appendTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			lexer.tokenize(expression.insert(expression.length() / 2, "+").toString());
+		}
+		final long insertTime = System.nanoTime() - start;
+
+		// key press in 10k characters must not cost as much as tokenization of the whole text
+		Assert.assertTrue(appendTime < fullTime);
+		Assert.assertTrue(insertTime < fullTime);
+	}
+
+	@Test
+	public void testAllocations() throws Exception {
+		final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+		// NOTE: allocation counting is an extension of some JVMs => it is used through reflection
+		final Method isSupported = findMethod(threadMXBean, "isThreadAllocatedMemorySupported");
+		final Method getAllocatedBytes = findMethod(threadMXBean, "getThreadAllocatedBytes", long.class);
+		Assume.assumeTrue(isSupported != null && getAllocatedBytes != null && (Boolean) isSupported.invoke(threadMXBean));
+
+		final long threadId = Thread.currentThread().getId();
+
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < 10000) {
+			sb.append("sin(π)*cos(e)+ln(π)-√(e)/");
+		}
+		final String expression = sb.toString();
+
+		// warm up
+		MathTokenStream tokens = null;
+		for (int i = 0; i < 10; i++) {
+			tokens = MathLexer.instance.tokenize(expression, false);
+			iterate(tokens);
+		}
+		Assert.assertNotNull(tokens);
+
+		long start = (Long) getAllocatedBytes.invoke(threadMXBean, threadId);
+		tokens = MathLexer.instance.tokenize(expression, false);
+		final double lexingBytesPerToken = (double) ((Long) getAllocatedBytes.invoke(threadMXBean, threadId) - start) / tokens.size();
+
+		start = (Long) getAllocatedBytes.invoke(threadMXBean, threadId);
+		final int count = iterate(tokens);
+		final double iterationBytesPerToken = (double) ((Long) getAllocatedBytes.invoke(threadMXBean, threadId) - start) / tokens.size();
+
+		Assert.assertEquals(tokens.size(), count);
+		// only arrays of stream are allocated
+		Assert.assertTrue(lexingBytesPerToken < 48);
+		Assert.assertTrue(iterationBytesPerToken < 1);
+	}
+
+	/**
+	 * @return public method of one of interfaces implemented by object or null if there is no such method
+	 */
+	@Nullable
+	private static Method findMethod(@NotNull Object o, @NotNull String name, @NotNull Class<?>... parameterTypes) {
+		for (Class<?> c = o.getClass(); c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				try {
+					return i.getMethod(name, parameterTypes);
+				} catch (NoSuchMethodException e) {
+					// try next interface
+				}
+			}
+		}
+		return null;
+	}
+
+	// the same as preprocessing and highlighting do with tokens
+	private static int iterate(MathTokenStream tokens) {
+		final LiteNumberBuilder nb = new LiteNumberBuilder(CalculatorEngine.instance.getEngine());
+
+		int result = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			final MathType.Result mathType = tokens.getResult(i);
+			nb.process(mathType);
+			if (mathType.getMatch().length() == tokens.getEnd(i) - tokens.getStart(i)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static void assertIncrementalTokenize(String text) {
+		for (int i = 0; i <= text.length(); i++) {
+			assertIncrementalTokens(text.substring(0, i));
+		}
+	}
+
+	private static void assertIncrementalTokens(String text) {
+		final MathTokenStream incremental = MathLexer.instance.tokenize(text);
+		final MathTokenStream full = MathLexer.instance.tokenize(text, false);
+
+		Assert.assertEquals(full.size(), incremental.size());
+		for (int i = 0; i < full.size(); i++) {
+			assertToken(incremental.get(i), full.get(i).getMathType(), full.get(i).getMatch(), full.get(i).getStart(), full.get(i).getEnd());
+			Assert.assertEquals(full.isIdleBefore(i), incremental.isIdleBefore(i));
+		}
+	}
+
+	private static void assertSameTokens(String text) {
+		final MathTokenStream tokens = MathLexer.instance.tokenize(text, false);
+
+		final LiteNumberBuilder nb = new LiteNumberBuilder(CalculatorEngine.instance.getEngine());
+		int t = 0;
+		for (int i = 0; i < text.length(); t++) {
+			final MathType.Result expected = MathType.getType(text, i, nb.isHexMode());
+			nb.process(expected);
+
+			final MathToken actual = tokens.get(t);
+			Assert.assertEquals(expected.getMathType(), actual.getMathType());
+			Assert.assertEquals(i, actual.getStart());
+			if (expected.getMathType() == MathType.text) {
+				Assert.assertEquals(expected.getMatch().substring(0, 1), actual.getMatch());
+				i++;
+			} else {
+				Assert.assertEquals(expected.getMatch(), actual.getMatch());
+				i += expected.getMatch().length();
+			}
+			Assert.assertEquals(i, actual.getEnd());
+		}
+		Assert.assertEquals(t, tokens.size());
+	}
+
+	private static void assertToken(MathToken token, MathType mathType, String match, int start, int end) {
+		Assert.assertEquals(mathType, token.getMathType());
+		Assert.assertEquals(match, token.getMatch());
+		Assert.assertEquals(start, token.getStart());
+		Assert.assertEquals(end, token.getEnd());
+	}
+}
@@ -6,10 +6,17 @@
 
 package org.solovyev.android.calculator.math;
 
+import jscl.math.function.IConstant;
 import junit.framework.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.model.AndroidMathRegistry;
 import org.solovyev.android.calculator.model.CalculatorEngine;
+import org.solovyev.android.calculator.model.Var;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: serso
@@ -45,6 +52,118 @@ public class MathTypeTest {
 		Assert.assertEquals("atanh", MathType.getType("atanh", 0, false).getMatch());
 	}
 
+	@Test
+	public void testMathTypesByPriority() throws Exception {
+		final List<MathType> mathTypes = MathType.getMathTypesByPriority();
+		Assert.assertEquals(MathType.values().length, mathTypes.size());
+		Assert.assertSame(mathTypes, MathType.getMathTypesByPriority());
+
+		for (int i = 1; i < mathTypes.size(); i++) {
+			Assert.assertTrue(mathTypes.get(i - 1).getPriority() <= mathTypes.get(i).getPriority());
+		}
+
+		try {
+			mathTypes.clear();
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testSameResultAsLinearMatcher() throws Exception {
+		final String expression = "sin(4)asin(0.5)√(2)+πcos(√(5+i))E-2+0x:FF+atanh(1)-k11'000 000.5°+ln(e)!%=[]{}" + MathType.INFINITY;
+
+		for (boolean hexMode : new boolean[]{false, true}) {
+			for (int i = 0; i < expression.length(); i++) {
+				final MathType.Result expected = LinearMathTypeMatcher.getType(expression, i, hexMode);
+				final MathType.Result actual = MathType.getType(expression, i, hexMode);
+				Assert.assertEquals(expected.getMathType(), actual.getMathType());
+				Assert.assertEquals(expected.getMatch(), actual.getMatch());
+			}
+		}
+
+		// registries changes must be visible
+		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("trieTestVar", 1d));
+		Assert.assertEquals(MathType.constant, MathType.getType("trieTestVar", 0, false).getMathType());
+		Assert.assertEquals("trieTestVar", MathType.getType("trieTestVar", 0, false).getMatch());
+	}
+
+	@Test
+	public void testLargeRegistry() throws Exception {
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+
+		final List<IConstant> vars = new ArrayList<IConstant>();
+		try {
+			for (int i = 0; i < 500; i++) {
+				vars.add(varsRegistry.add(new Var.Builder("largeRegistryVar" + i, (double) i)));
+			}
+
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 200; i++) {
+				sb.append("sin(").append(i).append(")*largeRegistryVar").append(i).append("+largeRegistryVar");
+			}
+			final String expression = sb.toString();
+
+			// names with common prefixes (e.g. 'largeRegistryVar12' and 'largeRegistryVar1') must be matched as in linear search
+			for (int i = 0; i < expression.length(); i++) {
+				final MathType.Result expected = LinearMathTypeMatcher.getType(expression, i, false);
+				final MathType.Result actual = MathType.getType(expression, i, false);
+				Assert.assertEquals(expected.getMathType(), actual.getMathType());
+				Assert.assertEquals(expected.getMatch(), actual.getMatch());
+			}
+		} finally {
+			for (IConstant var : vars) {
+				varsRegistry.remove(var);
+			}
+		}
+	}
+
+	@Test
+	public void testSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+
+		final List<IConstant> vars = new ArrayList<IConstant>();
+		try {
+			// large user registry
+			for (int i = 0; i < 500; i++) {
+				vars.add(varsRegistry.add(new Var.Builder("speedTestVar" + i, (double) i)));
+			}
+
+			final StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 200; i++) {
+				sb.append("sin(").append(i).append(")*speedTestVar").append(i).append("+");
+			}
+			final String expression = sb.toString();
+
+			// warm up
+			for (int i = 0; i < expression.length(); i++) {
+				LinearMathTypeMatcher.getType(expression, i, false);
+				MathType.getType(expression, i, false);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < expression.length(); i++) {
+				LinearMathTypeMatcher.getType(expression, i, false);
+			}
+			final long linearTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < expression.length(); i++) {
+				MathType.getType(expression, i, false);
+			}
+			final long trieTime = System.nanoTime() - start;
+
+			// trie doesn't depend on number of tokens (linear matching checks all of them)
+			Assert.assertTrue(trieTime < linearTime);
+		} finally {
+			for (IConstant var : vars) {
+				varsRegistry.remove(var);
+			}
+		}
+	}
+
 /*	@Test
 	public void testPostfixFunctionsProcessing() throws Exception {
 
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * User: serso
+ * Date: 2/18/12
+ * Time: 3:21 PM
+ */
+public class BatchEvaluationTest {
+
+	private static final int EXPRESSIONS_COUNT = 2000;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+		CalculatorEngine.instance.setPrecision(3);
+	}
+
+	@Test
+	public void testEvaluateAll() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final List<CalculatorEngine.BatchResult> results = cm.evaluateAll(Arrays.asList("2+2", "sin(30)", "2+", "Infinity", "√(4)"), JsclOperation.numeric);
+		Assert.assertEquals(5, results.size());
+
+		Assert.assertEquals("4", results.get(0).getResult().getResult());
+		Assert.assertEquals("0.5", results.get(1).getResult().getResult());
+		Assert.assertFalse(results.get(2).isSuccess());
+		Assert.assertNotNull(results.get(2).getError());
+		Assert.assertEquals("2+", results.get(2).getExpression());
+		Assert.assertEquals("∞", results.get(3).getResult().getResult());
+		Assert.assertEquals("2", results.get(4).getResult().getResult());
+
+		Assert.assertTrue(cm.evaluateAll(new ArrayList<String>(), JsclOperation.numeric).isEmpty());
+
+		// same results as one by one evaluation
+		final List<String> expressions = newExpressions("3*");
+		final List<CalculatorEngine.BatchResult> batchResults = cm.evaluateAll(expressions, JsclOperation.numeric);
+		for (int i = 0; i < expressions.size(); i++) {
+			Assert.assertEquals(cm.evaluate(JsclOperation.numeric, expressions.get(i)).getResult(), batchResults.get(i).getResult().getResult());
+		}
+	}
+
+	@Test
+	public void testInterruptedEvaluation() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final List<String> expressions = newExpressions("7*");
+		Thread.currentThread().interrupt();
+		try {
+			final List<CalculatorEngine.BatchResult> results = cm.evaluateAll(expressions, JsclOperation.numeric);
+
+			// interruption status must be kept for the caller
+			Assert.assertTrue(Thread.currentThread().isInterrupted());
+
+			// all expressions are reported: either evaluated or not evaluated due to interruption
+			Assert.assertEquals(expressions.size(), results.size());
+			for (int i = 0; i < expressions.size(); i++) {
+				final CalculatorEngine.BatchResult result = results.get(i);
+				Assert.assertEquals(expressions.get(i), result.getExpression());
+				if (!result.isSuccess()) {
+					Assert.assertEquals(Messages.msg_4, result.getError().getMessageCode());
+				}
+			}
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		// warm up
+		cm.evaluateAll(newExpressions("4*"), JsclOperation.numeric);
+
+		// NOTE: different expressions are used in order not to get results from cache
+		final List<String> loopExpressions = newExpressions("5*");
+		long start = System.nanoTime();
+		for (String expression : loopExpressions) {
+			cm.evaluate(JsclOperation.numeric, expression);
+		}
+		final long loopTime = System.nanoTime() - start;
+
+		final List<String> batchExpressions = newExpressions("6*");
+		start = System.nanoTime();
+		cm.evaluateAll(batchExpressions, JsclOperation.numeric);
+		final long batchTime = System.nanoTime() - start;
+
+		// parallel evaluation must not be slower than evaluation one by one (even on one core)
+		Assert.assertTrue(batchTime < 2 * loopTime);
+	}
+
+	@NotNull
+	private static List<String> newExpressions(@NotNull String prefix) {
+		final List<String> result = new ArrayList<String>(EXPRESSIONS_COUNT);
+		for (int i = 0; i < EXPRESSIONS_COUNT; i++) {
+			result.add(prefix + "sin(" + i + ")+√(" + i + ")/" + (i + 1));
+		}
+		return result;
+	}
+}
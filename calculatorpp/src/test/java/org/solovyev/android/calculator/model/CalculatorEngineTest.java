@@ -12,13 +12,26 @@ import jscl.math.Expression;
 import jscl.math.Generic;
 import jscl.math.function.Constant;
 import jscl.math.function.CustomFunction;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.solovyev.android.calculator.jscl.JsclOperation;
+import org.solovyev.android.calculator.math.MathType;
 
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.fail;
 
@@ -43,7 +56,7 @@ public class CalculatorEngineTest {
 
 		final AngleUnit defaultAngleUnit = cm.getEngine().getAngleUnits();
 		try {
-			cm.getEngine().setAngleUnits(AngleUnit.rad);
+			cm.setAngleUnits(AngleUnit.rad);
 			cm.setPrecision(3);
 			try {
 				Assert.assertEquals("0.017", cm.evaluate(JsclOperation.numeric, "°"));
@@ -60,7 +73,7 @@ public class CalculatorEngineTest {
 
 			Assert.assertEquals("∂(cos(t), t, t, 1°)", cm.evaluate(JsclOperation.simplify, "∂(cos(t),t,t,1°)").getResult());
 		} finally {
-			cm.getEngine().setAngleUnits(defaultAngleUnit);
+			cm.setAngleUnits(defaultAngleUnit);
 		}
 	}
 
@@ -126,25 +139,25 @@ public class CalculatorEngineTest {
 		Assert.assertEquals("4", cm.evaluate(JsclOperation.numeric, "2+2").getResult());
 		final AngleUnit defaultAngleUnit = cm.getEngine().getAngleUnits();
 		try {
-			cm.getEngine().setAngleUnits(AngleUnit.rad);
+			cm.setAngleUnits(AngleUnit.rad);
 			Assert.assertEquals("-0.757", cm.evaluate(JsclOperation.numeric, "sin(4)").getResult());
 			Assert.assertEquals("0.524", cm.evaluate(JsclOperation.numeric, "asin(0.5)").getResult());
 			Assert.assertEquals("-0.396", cm.evaluate(JsclOperation.numeric, "sin(4)asin(0.5)").getResult());
 			Assert.assertEquals("-0.56", cm.evaluate(JsclOperation.numeric, "sin(4)asin(0.5)√(2)").getResult());
 			Assert.assertEquals("-0.56", cm.evaluate(JsclOperation.numeric, "sin(4)asin(0.5)√(2)").getResult());
 		} finally {
-			cm.getEngine().setAngleUnits(defaultAngleUnit);
+			cm.setAngleUnits(defaultAngleUnit);
 		}
 		Assert.assertEquals("7.389", cm.evaluate(JsclOperation.numeric, "e^2").getResult());
 		Assert.assertEquals("7.389", cm.evaluate(JsclOperation.numeric, "exp(1)^2").getResult());
 		Assert.assertEquals("7.389", cm.evaluate(JsclOperation.numeric, "exp(2)").getResult());
 		Assert.assertEquals("2+i", cm.evaluate(JsclOperation.numeric, "2*1+√(-1)").getResult());
 		try {
-			cm.getEngine().setAngleUnits(AngleUnit.rad);
+			cm.setAngleUnits(AngleUnit.rad);
 			Assert.assertEquals("0.921+Πi", cm.evaluate(JsclOperation.numeric, "ln(5cosh(38π√(2cos(2))))").getResult());
 			Assert.assertEquals("-3.41+3.41i", cm.evaluate(JsclOperation.numeric, "(5tan(2i)+2i)/(1-i)").getResult());
 		} finally {
-			cm.getEngine().setAngleUnits(defaultAngleUnit);
+			cm.setAngleUnits(defaultAngleUnit);
 		}
 		Assert.assertEquals("7.389i", cm.evaluate(JsclOperation.numeric, "iexp(2)").getResult());
 		Assert.assertEquals("2+7.389i", cm.evaluate(JsclOperation.numeric, "2+iexp(2)").getResult());
@@ -182,7 +195,7 @@ public class CalculatorEngineTest {
 		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("si", 5d));
 
 		try {
-			cm.getEngine().setAngleUnits(AngleUnit.rad);
+			cm.setAngleUnits(AngleUnit.rad);
 			Assert.assertEquals("0.451", cm.evaluate(JsclOperation.numeric, "acos(0.8999999999999811)").getResult());
 			Assert.assertEquals("-0.959", cm.evaluate(JsclOperation.numeric, "sin(5)").getResult());
 			Assert.assertEquals("-4.795", cm.evaluate(JsclOperation.numeric, "sin(5)si").getResult());
@@ -190,7 +203,7 @@ public class CalculatorEngineTest {
 			Assert.assertEquals("-23.973", cm.evaluate(JsclOperation.numeric, "si*sin(5)si").getResult());
 			Assert.assertEquals("-3.309", cm.evaluate(JsclOperation.numeric, "sisin(5si)si").getResult());
 		} finally {
-			cm.getEngine().setAngleUnits(defaultAngleUnit);
+			cm.setAngleUnits(defaultAngleUnit);
 		}
 
 		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("s", 1d));
@@ -214,13 +227,13 @@ public class CalculatorEngineTest {
 		Assert.assertEquals("0.933", cm.evaluate(JsclOperation.numeric, "0x:E/0x:F").getResult());
 
 		try {
-		 	cm.getEngine().setNumeralBase(NumeralBase.hex);
+		 	cm.setNumeralBase(NumeralBase.hex);
 			Assert.assertEquals("E/F", cm.evaluate(JsclOperation.numeric, "0x:E/0x:F").getResult());
 			Assert.assertEquals("E/F", cm.evaluate(JsclOperation.simplify, "0x:E/0x:F").getResult());
 			Assert.assertEquals("E/F", cm.evaluate(JsclOperation.numeric, "E/F").getResult());
 			Assert.assertEquals("E/F", cm.evaluate(JsclOperation.simplify, "E/F").getResult());
 		} finally {
-			cm.getEngine().setNumeralBase(NumeralBase.dec);
+			cm.setNumeralBase(NumeralBase.dec);
 		}
 
 		Assert.assertEquals("0", cm.evaluate(JsclOperation.numeric, "((((((0))))))").getResult());
@@ -311,10 +324,10 @@ public class CalculatorEngineTest {
 
 		final AngleUnit defaultAngleUnit = cm.getEngine().getAngleUnits();
 		try {
-			cm.getEngine().setAngleUnits(AngleUnit.rad);
+			cm.setAngleUnits(AngleUnit.rad);
 			Assert.assertEquals("0.739", cm.evaluate(JsclOperation.numeric, "cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(cos(1))))))))))))))))))))))))))))))))))))").getResult());
 		} finally {
-			cm.getEngine().setAngleUnits(defaultAngleUnit);
+			cm.setAngleUnits(defaultAngleUnit);
 		}
 
 		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("si", 5d));
@@ -411,11 +424,11 @@ public class CalculatorEngineTest {
 
 		final NumeralBase defaultNumeralBase = cm.getEngine().getNumeralBase();
 		try{
-			cm.getEngine().setNumeralBase(NumeralBase.bin);
+			cm.setNumeralBase(NumeralBase.bin);
 			Assert.assertEquals("101", cm.evaluate(JsclOperation.numeric, "10+11").getResult());
 			Assert.assertEquals("10/11", cm.evaluate(JsclOperation.numeric, "10/11").getResult());
 
-			cm.getEngine().setNumeralBase(NumeralBase.hex);
+			cm.setNumeralBase(NumeralBase.hex);
 			Assert.assertEquals("63 7B", cm.evaluate(JsclOperation.numeric, "56CE+CAD").getResult());
 			Assert.assertEquals("E", cm.evaluate(JsclOperation.numeric, "E").getResult());
 		} finally {
@@ -440,4 +453,202 @@ public class CalculatorEngineTest {
 		Assert.assertEquals("-ln(b)/(aln(a)^2)", cm.evaluate(JsclOperation.simplify, "∂(log(a, b), a)").getResult());
 
 	}
+
+	@Test
+	public void testConcurrentEvaluation() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final List<String> expressions = new ArrayList<String>();
+		final List<JsclOperation> operations = new ArrayList<JsclOperation>();
+		for (JsclOperation operation : JsclOperation.values()) {
+			expressions.add("2+2*sin(30)");
+			expressions.add("ln(8)lg(8)+ln(8)");
+			expressions.add("(1-i)/(2+6i)");
+			expressions.add("0x:ABCDEF*e");
+			for (int i = 0; i < 4; i++) {
+				operations.add(operation);
+			}
+		}
+
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < expressions.size(); i++) {
+			expected.add(cm.evaluate(operations.get(i), expressions.get(i)).getResult());
+		}
+
+		// settings snapshot is used: concurrent evaluations with other settings must not affect results
+		final EvaluationSettings settings = cm.getEvaluationSettings();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int j = 0; j < 10; j++) {
+				for (int i = 0; i < expressions.size(); i++) {
+					final JsclOperation operation = operations.get(i);
+					final String expression = expressions.get(i);
+					results.add(executor.submit(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							return cm.evaluate(operation, expression, settings, null).getResult();
+						}
+					}));
+				}
+
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						final EvaluationSettings radSettings = EvaluationSettings.newInstance(10, settings.isRoundResult(), AngleUnit.rad, settings.getNumeralBase(), settings.isScienceNotation(), settings.isUseGroupingSeparator(), settings.getGroupingSeparator());
+						return cm.evaluate(JsclOperation.numeric, "sin(4)", radSettings, null).getResult();
+					}
+				}));
+			}
+
+			int i = 0;
+			for (Future<String> result : results) {
+				if (i == expressions.size()) {
+					Assert.assertEquals("-0.7568024953", result.get());
+					i = 0;
+				} else {
+					Assert.assertEquals(expected.get(i), result.get());
+					i++;
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Assert.assertEquals(settings, cm.getEvaluationSettings());
+	}
+
+	@Test
+	public void testSettingsChangeDoesNotWaitForCalculation() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final Thread calculation = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cm.evaluate(JsclOperation.numeric, "3^10^10^10");
+				} catch (Exception e) {
+					// too long calculation
+				}
+			}
+		});
+		calculation.start();
+
+		try {
+			while (cm.getEngineReadLockCount() == 0) {
+				Thread.yield();
+			}
+
+			cm.setPrecision(2);
+
+			// setter returned while calculation still uses math engine
+			Assert.assertTrue(cm.getEngineReadLockCount() > 0);
+			Assert.assertEquals(2, cm.getEvaluationSettings().getPrecision());
+
+			calculation.join();
+
+			// new settings are applied after calculation
+			Assert.assertEquals("0.33", cm.evaluate(JsclOperation.numeric, "1/3").getResult());
+		} finally {
+			calculation.join();
+			cm.setPrecision(3);
+		}
+	}
+
+	@Test
+	public void testNumeralBaseOfCalculationWithOtherSettings() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final EvaluationSettings settings = cm.getEvaluationSettings();
+		Assert.assertEquals(NumeralBase.dec, cm.getNumeralBase());
+
+		final EvaluationSettings hexSettings = settings.withNumeralBase(NumeralBase.hex);
+		final CancellationToken token = new CancellationToken();
+		final Thread calculation = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cm.evaluate(JsclOperation.numeric, "3^10^10^10", hexSettings, token, null);
+				} catch (Exception e) {
+					// cancelled
+				}
+			}
+		});
+		calculation.start();
+
+		try {
+			// numeral base of calculation is temporarily set in math engine
+			while (cm.getEngine().getNumeralBase() != NumeralBase.hex) {
+				Thread.yield();
+			}
+
+			// ... but is not seen outside of calculation
+			Assert.assertEquals(NumeralBase.dec, cm.getNumeralBase());
+			Assert.assertEquals(NumeralBase.dec, cm.getNumeralBase(cm.getEngine()));
+			Assert.assertEquals(MathType.text, MathType.getType("A", 0, false).getMathType());
+		} finally {
+			token.cancel();
+			calculation.join();
+		}
+
+		Assert.assertEquals(NumeralBase.dec, cm.getEngine().getNumeralBase());
+		Assert.assertEquals(settings, cm.getEvaluationSettings());
+	}
+
+	@Test
+	public void testAsyncEvaluation() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final StringBuilder longExpression = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			longExpression.append("sin(").append(i).append(")+");
+		}
+		longExpression.append("1");
+
+		final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(1);
+		final EvaluationCallback callback = new EvaluationCallback() {
+			@Override
+			public void onSuccess(@NotNull CalculatorEngine.Result result) {
+				results.add(result.getResult());
+				latch.countDown();
+			}
+
+			@Override
+			public void onParseError(@NotNull CalculatorParseException e) {
+				results.add(e.getMessageCode());
+				latch.countDown();
+			}
+
+			@Override
+			public void onEvalError(@NotNull CalculatorEvalException e) {
+				results.add(e.getMessageCode());
+				latch.countDown();
+			}
+		};
+
+		// each evaluation (even cancelled one) posts exactly one command to callback executor
+		final CountDownLatch posted = new CountDownLatch(2);
+		final Executor directExecutor = new Executor() {
+			@Override
+			public void execute(@NotNull Runnable command) {
+				command.run();
+				posted.countDown();
+			}
+		};
+
+		final Object owner = new Object();
+		final CancellationToken longToken = cm.evaluateAsync(owner, JsclOperation.numeric, longExpression.toString(), directExecutor, callback);
+		final CancellationToken token = cm.evaluateAsync(owner, JsclOperation.numeric, "2+2", directExecutor, callback);
+
+		// newer evaluation cancels older one
+		Assert.assertTrue(longToken.isCancelled());
+		Assert.assertFalse(token.isCancelled());
+
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		// let cancelled evaluation finish
+		Assert.assertTrue(posted.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(Arrays.asList("4"), results);
+	}
 }
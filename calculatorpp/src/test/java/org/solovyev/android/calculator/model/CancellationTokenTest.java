@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+import org.solovyev.common.utils.MutableObject;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: serso
+ * Date: 2/14/12
+ * Time: 10:02 PM
+ */
+public class CancellationTokenTest {
+
+	// max time between cancellation and stop of the work
+	private static final long MAX_STOP_TIME_MILLIS = 500;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testPreprocessingCancellation() throws Exception {
+		final String expression = newLongExpression();
+
+		final StartedCancellationToken token = new StartedCancellationToken();
+		final MutableObject<Throwable> error = new MutableObject<Throwable>(null);
+
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ToJsclTextProcessor.getInstance().process(expression, token);
+				} catch (Throwable e) {
+					error.setObject(e);
+				}
+			}
+		});
+		thread.start();
+
+		// work is cancelled only after it was really started
+		Assert.assertTrue(token.started.await(1, TimeUnit.SECONDS));
+
+		final long cancelTime = System.nanoTime();
+		token.cancel();
+		thread.join();
+		final long stopTime = System.nanoTime();
+
+		final long stopMillis = TimeUnit.NANOSECONDS.toMillis(stopTime - cancelTime);
+		Assert.assertTrue(error.getObject() instanceof EvaluationCancelledException);
+		Assert.assertTrue(stopMillis < MAX_STOP_TIME_MILLIS);
+	}
+
+	@Test
+	public void testEvaluationCancellation() throws Exception {
+		final String expression = newLongExpression();
+
+		final StartedCancellationToken token = new StartedCancellationToken();
+		final MutableObject<Throwable> error = new MutableObject<Throwable>(null);
+
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					CalculatorEngine.instance.evaluate(JsclOperation.numeric, expression, null, token, null);
+				} catch (Throwable e) {
+					error.setObject(e);
+				}
+			}
+		});
+		thread.start();
+
+		// work is cancelled only after it was really started
+		Assert.assertTrue(token.started.await(1, TimeUnit.SECONDS));
+
+		final long cancelTime = System.nanoTime();
+		token.cancel();
+		thread.join();
+		final long stopTime = System.nanoTime();
+
+		final long stopMillis = TimeUnit.NANOSECONDS.toMillis(stopTime - cancelTime);
+		Assert.assertTrue(error.getObject() instanceof CalculatorParseException);
+		Assert.assertEquals(Messages.msg_4, ((CalculatorParseException) error.getObject()).getMessageCode());
+		Assert.assertTrue(stopMillis < MAX_STOP_TIME_MILLIS);
+
+		// engine must still work after cancellation
+		Assert.assertEquals("4", CalculatorEngine.instance.evaluate(JsclOperation.numeric, "2+2").getResult());
+	}
+
+	@Test
+	public void testNoneIsNeverCancelled() throws Exception {
+		CancellationToken.NONE.cancel();
+
+		Assert.assertFalse(CancellationToken.NONE.isCancelled());
+		CancellationToken.NONE.checkCancelled();
+	}
+
+	/**
+	 * Token notifying about the first check of cancellation (=> work has been started)
+	 */
+	private static final class StartedCancellationToken extends CancellationToken {
+
+		@NotNull
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		@Override
+		public void checkCancelled() throws EvaluationCancelledException {
+			started.countDown();
+			super.checkCancelled();
+		}
+	}
+
+	@NotNull
+	private static String newLongExpression() {
+		final StringBuilder result = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			result.append("sin(").append(i).append(")+");
+		}
+		result.append("1");
+		return result.toString();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.AngleUnit;
+import jscl.math.Generic;
+import jscl.math.NumericWrapper;
+import jscl.math.numeric.Real;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+
+/**
+ * User: serso
+ * Date: 2/19/12
+ * Time: 5:02 PM
+ */
+public class DoubleEvaluatorTest {
+
+	// numeric expressions of CalculatorEngineTest
+	private static final String[] EXPRESSIONS = {"2+2", "lg(10)", "sin(4)", "asin(0.5)", "sin(4)asin(0.5)", "sin(4)asin(0.5)√(2)",
+			"e^2", "exp(1)^2", "exp(2)", "ln(5cosh(38π√(2cos(2))))", "acos(0.8999999999999811)", "sin(5)", "0.1E3",
+			"ln(8)lg(8)+ln(8)", "((((((0))))))", "-2-2.5", "(1-2)/(2+6)", "sin(30)", "cos(60)*2", "tan(45)", "√(2)^2",
+			"1/3", "2/3", "10/4", "123456789*987", "-(5-7)*3", "2^0.5", "(-2)^2", "-2^2", "3-(-2)", "0.000001*3",
+			"sinh(1)+cosh(1)-tanh(1)", "atan(1)", "100000000/3", "1.5E-3", "1E2+1", "sin(180)", "cos(90)"};
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+		CalculatorEngine.instance.setPrecision(3);
+	}
+
+	@Test
+	public void testSameResultsAsJscl() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final AngleUnit defaultAngleUnit = cm.getEngine().getAngleUnits();
+		try {
+			for (AngleUnit angleUnit : new AngleUnit[]{AngleUnit.deg, AngleUnit.rad, AngleUnit.grad}) {
+				cm.setAngleUnits(angleUnit);
+				for (int precision = 3; precision <= 10; precision += 7) {
+					cm.setPrecision(precision);
+					for (String expression : EXPRESSIONS) {
+						assertSameResult(expression);
+					}
+				}
+			}
+		} finally {
+			cm.setAngleUnits(defaultAngleUnit);
+			cm.setPrecision(3);
+		}
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		final EvaluationSettings settings = CalculatorEngine.instance.getEvaluationSettings();
+
+		// variables and constants
+		Assert.assertNull(DoubleEvaluator.evaluate("2*x", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("π", settings));
+		// complex numbers
+		Assert.assertNull(DoubleEvaluator.evaluate("√(-1)", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("ln(-1)", settings));
+		// infinity
+		Assert.assertNull(DoubleEvaluator.evaluate("1/0", settings));
+		// big numbers
+		Assert.assertNull(DoubleEvaluator.evaluate("2^100", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("12345678901234567890", settings));
+		// chained powers, postfix functions, percents and unknown functions
+		Assert.assertNull(DoubleEvaluator.evaluate("2^3^2", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("4!", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("100-10%", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("cubic(27)", settings));
+		// incomplete expressions
+		Assert.assertNull(DoubleEvaluator.evaluate("2+", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("sin(", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("1.", settings));
+		Assert.assertNull(DoubleEvaluator.evaluate("", settings));
+
+		Assert.assertEquals(4d, DoubleEvaluator.evaluate("2+2", settings));
+		Assert.assertEquals(0d, DoubleEvaluator.evaluate("-0", settings));
+	}
+
+	@Test
+	public void testFastPath() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final EvaluationSettings settings = cm.getEvaluationSettings();
+
+		// arithmetic expressions must not fall back to jscl
+		final String[] expressions = {"2+2", "-2-2.5", "(1-2)/(2+6)", "1/3", "10/4", "123456789*987", "-(5-7)*3", "3-(-2)", "0.000001*3", "((((((0))))))"};
+		for (String expression : expressions) {
+			Assert.assertNotNull(expression, DoubleEvaluator.evaluate(cm.preprocessor.process(expression).getExpression(), settings));
+		}
+	}
+
+	@Test
+	public void testSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final EvaluationSettings settings = cm.getEvaluationSettings();
+		final int iterations = 1000;
+
+		final String[] jsclExpressions = new String[EXPRESSIONS.length];
+		for (int i = 0; i < EXPRESSIONS.length; i++) {
+			jsclExpressions[i] = cm.preprocessor.process(EXPRESSIONS[i]).getExpression();
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (String jsclExpression : jsclExpressions) {
+				JsclOperation.numeric.evaluate(jsclExpression);
+			}
+		}
+		final long jsclTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			for (String jsclExpression : jsclExpressions) {
+				final Double result = DoubleEvaluator.evaluate(jsclExpression, settings);
+				if (result == null) {
+					JsclOperation.numeric.evaluate(jsclExpression);
+				} else {
+					new NumericWrapper(Real.valueOf(result)).toString();
+				}
+			}
+		}
+		final long fastTime = System.nanoTime() - start;
+
+		// NOTE: fallback to jscl is included (not all expressions are done by fast path)
+		Assert.assertTrue(fastTime < jsclTime);
+	}
+
+	private static void assertSameResult(@NotNull String expression) throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final String jsclExpression = cm.preprocessor.process(expression).getExpression();
+
+		final Double result = DoubleEvaluator.evaluate(jsclExpression, cm.getEvaluationSettings());
+		if (result != null) {
+			final Generic expected = JsclOperation.numeric.evaluateGeneric(jsclExpression);
+			final String actual = JsclOperation.numeric.getFromProcessor().process(new NumericWrapper(Real.valueOf(result)));
+			Assert.assertEquals(expression, JsclOperation.numeric.getFromProcessor().process(expected), actual);
+		}
+	}
+}
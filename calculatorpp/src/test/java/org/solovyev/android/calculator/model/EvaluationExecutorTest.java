@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+import org.solovyev.common.utils.MutableObject;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: serso
+ * Date: 2/12/12
+ * Time: 2:03 PM
+ */
+public class EvaluationExecutorTest {
+
+	private static final int WARM_UP_ITERATIONS = 200;
+
+	private static final int ITERATIONS = 2000;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+		CalculatorEngine.instance.setPrecision(3);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception {
+		CalculatorEngine.instance.setEvaluationExecutor(new EvaluationExecutor());
+	}
+
+	@Test
+	public void testPoolIsReused() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		cm.setEvaluationThreadPool(1, 1);
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(String.valueOf(i + 2), cm.evaluate(JsclOperation.numeric, i + "+2").getResult());
+		}
+	}
+
+	@Test
+	public void testAbandonedThreadIsReplaced() throws Exception {
+		final EvaluationExecutor executor = new EvaluationExecutor(1, 1);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final MutableObject<Thread> runawayThread = new MutableObject<Thread>(null);
+
+			// emulates calculation which ignores interruption
+			final Runnable runaway = new Runnable() {
+				@Override
+				public void run() {
+					runawayThread.setObject(Thread.currentThread());
+					started.countDown();
+					while (true) {
+						try {
+							release.await();
+							return;
+						} catch (InterruptedException e) {
+							// ignored
+						}
+					}
+				}
+			};
+
+			executor.execute(runaway);
+			Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+
+			final Runnable notSubmitted = new Runnable() {
+				@Override
+				public void run() {
+				}
+			};
+			Assert.assertFalse(executor.abandon(runawayThread.getObject(), notSubmitted));
+
+			Assert.assertTrue(executor.abandon(runawayThread.getObject(), runaway));
+			Assert.assertEquals(1, executor.getAbandonedThreadsCount());
+
+			// the only thread is busy but next task must be done by replacement
+			final CountDownLatch done = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					done.countDown();
+				}
+			});
+			Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+
+			release.countDown();
+			while (executor.getAbandonedThreadsCount() > 0) {
+				Thread.yield();
+			}
+			Assert.assertEquals(1, executor.getCorePoolSize());
+			Assert.assertEquals(1, executor.getMaximumPoolSize());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testThreadsAreReused() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		final EvaluationExecutor executor = new EvaluationExecutor();
+		cm.setEvaluationExecutor(new Executor() {
+			@Override
+			public void execute(@NotNull final Runnable command) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread());
+						command.run();
+					}
+				});
+			}
+		});
+
+		try {
+			// NOTE: different expressions are used in order not to get results from cache
+			for (int i = 0; i < ITERATIONS; i++) {
+				Assert.assertEquals(String.valueOf(i + 2), cm.evaluate(JsclOperation.numeric, i + "+2").getResult());
+			}
+
+			// no new thread per evaluation
+			Assert.assertTrue(threads.size() > 0);
+			Assert.assertTrue(threads.size() <= EvaluationExecutor.DEFAULT_THREADS);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testEvaluationsPerSecond() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final double threadPerEvaluation = evaluationsPerSecond(new Executor() {
+			@Override
+			public void execute(@NotNull Runnable command) {
+				new Thread(command).start();
+			}
+		}, 1);
+
+		final EvaluationExecutor executor = new EvaluationExecutor();
+		try {
+			final double pooled = evaluationsPerSecond(executor, 2);
+
+			// warm pooled threads must not be slower than new thread per evaluation
+			Assert.assertTrue(pooled > threadPerEvaluation / 2);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param term term added to evaluated numbers (different terms => results of previous runs are not taken from cache)
+	 */
+	private static double evaluationsPerSecond(@NotNull Executor executor, int term) throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		cm.setEvaluationExecutor(executor);
+
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			cm.evaluate(JsclOperation.numeric, term + "+2*" + i);
+		}
+
+		final long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			Assert.assertEquals(String.valueOf(i + term), cm.evaluate(JsclOperation.numeric, i + "+" + term).getResult());
+		}
+		final long end = System.nanoTime();
+
+		return ITERATIONS * 1000000000d / (end - start);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import junit.framework.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+
+import java.io.StringWriter;
+
+/**
+ * User: serso
+ * Date: 2/20/12
+ * Time: 9:40 PM
+ */
+public class EvaluationMetricsTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testSummary() throws Exception {
+		final EvaluationMetricsImpl metrics = new EvaluationMetricsImpl(100);
+
+		Assert.assertEquals(0, metrics.getSummary(EvaluationMetrics.Stage.parsing).getCount());
+
+		for (int i = 1; i <= 100; i++) {
+			metrics.onStage(EvaluationMetrics.Stage.parsing, i);
+		}
+
+		EvaluationMetrics.StageSummary summary = metrics.getSummary(EvaluationMetrics.Stage.parsing);
+		Assert.assertEquals(100, summary.getCount());
+		Assert.assertEquals(50, summary.getP50());
+		Assert.assertEquals(95, summary.getP95());
+		Assert.assertEquals(99, summary.getP99());
+		Assert.assertEquals(100, summary.getMax());
+
+		// only last samples are used for percentiles
+		for (int i = 0; i < 100; i++) {
+			metrics.onStage(EvaluationMetrics.Stage.parsing, 1000);
+		}
+		summary = metrics.getSummary(EvaluationMetrics.Stage.parsing);
+		Assert.assertEquals(200, summary.getCount());
+		Assert.assertEquals(1000, summary.getP50());
+
+		metrics.onTimeout();
+		final StringWriter writer = new StringWriter();
+		metrics.dump(writer);
+		Assert.assertTrue(writer.toString().contains("parsing: count=200"));
+		Assert.assertTrue(writer.toString().contains("timeouts: 1"));
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getSummary(EvaluationMetrics.Stage.parsing).getCount());
+		Assert.assertEquals(0, metrics.getTimeoutCount());
+	}
+
+	@Test
+	public void testEngineMetrics() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final EvaluationMetrics defaultMetrics = cm.getMetrics();
+		try {
+			final EvaluationMetrics metrics = new EvaluationMetricsImpl();
+			cm.setMetrics(metrics);
+			cm.getResultCache().clear();
+
+			cm.evaluate(JsclOperation.numeric, "2+3");
+			Assert.assertEquals(1, metrics.getFastPathCount());
+			Assert.assertEquals(1, metrics.getSummary(EvaluationMetrics.Stage.total).getCount());
+			Assert.assertEquals(1, metrics.getSummary(EvaluationMetrics.Stage.preprocessing).getCount());
+			Assert.assertEquals(0, metrics.getSummary(EvaluationMetrics.Stage.parsing).getCount());
+
+			cm.evaluate(JsclOperation.numeric, "2+3!");
+			Assert.assertEquals(1, metrics.getFastPathCount());
+			Assert.assertEquals(1, metrics.getSummary(EvaluationMetrics.Stage.parsing).getCount());
+			Assert.assertEquals(2, metrics.getSummary(EvaluationMetrics.Stage.evaluation).getCount());
+			Assert.assertEquals(2, metrics.getSummary(EvaluationMetrics.Stage.to_string).getCount());
+			Assert.assertEquals(2, metrics.getSummary(EvaluationMetrics.Stage.postprocessing).getCount());
+
+			// failed evaluation is also recorded
+			try {
+				cm.evaluate(JsclOperation.numeric, "2+");
+				Assert.fail();
+			} catch (CalculatorParseException e) {
+				// ok
+			}
+			Assert.assertEquals(3, metrics.getSummary(EvaluationMetrics.Stage.total).getCount());
+
+			cm.getVarsRegistry().add(new Var.Builder("metricsTestVar", (String) null));
+			Assert.assertEquals("2metricsTestVar", cm.evaluate(JsclOperation.numeric, "2metricsTestVar").getResult());
+			Assert.assertEquals(1, metrics.getFallbackCount());
+		} finally {
+			cm.setMetrics(defaultMetrics);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.math.Expression;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.jscl.JsclOperation;
+
+/**
+ * User: serso
+ * Date: 2/15/12
+ * Time: 9:30 PM
+ */
+public class EvaluationResultCacheTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+		CalculatorEngine.instance.setPrecision(3);
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		final EvaluationResultCache cache = new EvaluationResultCache(3, Long.MAX_VALUE);
+
+		for (int i = 0; i < 5; i++) {
+			cache.put(newKey(String.valueOf(i)), newResult(String.valueOf(i)));
+		}
+		Assert.assertEquals(3, cache.getEntriesCount());
+		Assert.assertNull(cache.get(newKey("0")));
+		Assert.assertNull(cache.get(newKey("1")));
+		Assert.assertNotNull(cache.get(newKey("2")));
+
+		// "2" was used recently => "3" must be evicted
+		cache.put(newKey("5"), newResult("5"));
+		Assert.assertNotNull(cache.get(newKey("2")));
+		Assert.assertNull(cache.get(newKey("3")));
+
+		Assert.assertEquals(3, cache.getHitCount());
+		Assert.assertEquals(3, cache.getMissCount());
+
+		final EvaluationResultCache smallCache = new EvaluationResultCache(100, 1000);
+		for (int i = 0; i < 100; i++) {
+			smallCache.put(newKey(String.valueOf(i)), newResult(String.valueOf(i)));
+			Assert.assertTrue(smallCache.getSize() <= 1000);
+		}
+		Assert.assertTrue(smallCache.getEntriesCount() < 100);
+		Assert.assertNotNull(smallCache.get(newKey("99")));
+	}
+
+	@Test
+	public void testEngineCache() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+		final EvaluationResultCache cache = cm.getResultCache();
+		cache.clear();
+
+		final long hits = cache.getHitCount();
+		Assert.assertEquals("0.5", cm.evaluate(JsclOperation.numeric, "sin(30)").getResult());
+		Assert.assertEquals("0.5", cm.evaluate(JsclOperation.numeric, "sin(30)").getResult());
+		Assert.assertEquals(hits + 1, cache.getHitCount());
+
+		// settings are part of key
+		try {
+			cm.setPrecision(10);
+			Assert.assertEquals("1.7320508076", cm.evaluate(JsclOperation.numeric, "√(3)").getResult());
+		} finally {
+			cm.setPrecision(3);
+		}
+		Assert.assertEquals("1.732", cm.evaluate(JsclOperation.numeric, "√(3)").getResult());
+
+		// registries are part of key
+		cm.getVarsRegistry().add(new Var.Builder("cacheTestVar", 2d));
+		Assert.assertEquals("4", cm.evaluate(JsclOperation.numeric, "2cacheTestVar").getResult());
+		cm.getVarsRegistry().add(new Var.Builder("cacheTestVar", 3d));
+		Assert.assertEquals("6", cm.evaluate(JsclOperation.numeric, "2cacheTestVar").getResult());
+	}
+
+	@NotNull
+	private static EvaluationResultCache.Key newKey(@NotNull String expression) {
+		return new EvaluationResultCache.Key(expression, JsclOperation.numeric, CalculatorEngine.instance.getEvaluationSettings(), "×", 0);
+	}
+
+	@NotNull
+	private static CalculatorEngine.Result newResult(@NotNull String result) throws Exception {
+		return new CalculatorEngine.Result(result, JsclOperation.numeric, Expression.valueOf(result));
+	}
+}
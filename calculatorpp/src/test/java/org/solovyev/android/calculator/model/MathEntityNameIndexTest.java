@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.math.function.IConstant;
+import junit.framework.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * User: serso
+ * Date: 2/24/12
+ * Time: 8:30 PM
+ */
+public class MathEntityNameIndexTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testFindLongest() throws Exception {
+		final MathEntityNameIndex index = new MathEntityNameIndex(3, Arrays.asList("sin", "sinh", "s", "cos", "√", "asinh"));
+
+		Assert.assertEquals(3, index.getVersion());
+		Assert.assertEquals(Arrays.asList("sin", "sinh", "s", "cos", "√", "asinh"), index.getNames());
+		Assert.assertEquals(5, index.getMaxNameLength());
+
+		Assert.assertEquals("sinh", index.findLongest("sinh(2)", 0));
+		Assert.assertEquals("sin", index.findLongest("sin(2)", 0));
+		Assert.assertEquals("s", index.findLongest("si", 0));
+		Assert.assertEquals("sinh", index.findLongest("asinh", 1));
+		Assert.assertEquals("asinh", index.findLongest("asinh", 0));
+		Assert.assertEquals("√", index.findLongest("2√(2)", 1));
+		Assert.assertNull(index.findLongest("2√(2)", 0));
+		Assert.assertNull(index.findLongest("co", 0));
+		Assert.assertNull(index.findLongest("sin", 3));
+	}
+
+	@Test
+	public void testRegistryIndex() throws Exception {
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+
+		final MathEntityNameIndex index = varsRegistry.getNameIndex();
+		Assert.assertSame(index, varsRegistry.getNameIndex());
+		Assert.assertSame(index.getNames(), varsRegistry.getNames());
+		Assert.assertEquals(varsRegistry.getVersion(), index.getVersion());
+
+		varsRegistry.add(new Var.Builder("nameIndexTestVar", 2d));
+		final MathEntityNameIndex newIndex = varsRegistry.getNameIndex();
+		Assert.assertNotSame(index, newIndex);
+		Assert.assertTrue(newIndex.getVersion() > index.getVersion());
+		Assert.assertEquals("nameIndexTestVar", newIndex.findLongest("2nameIndexTestVar", 1));
+		Assert.assertNull(index.findLongest("2nameIndexTestVar", 1));
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.JsclMathEngine;
+import jscl.NumeralBase;
+import junit.framework.Assert;
+import org.jetbrains.annotations.NotNull;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathTokenStream;
+import org.solovyev.android.calculator.math.MathType;
+import org.solovyev.common.utils.MutableObject;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * User: serso
+ * Date: 2/27/12
+ * Time: 9:10 PM
+ */
+public class NumberBuilderTest {
+
+	// characters of which numbers are built (+ some other characters which stop numbers)
+	private static final String NUMBER_CHARS = "0123456789ABCDEF.E+-' ";
+
+	private static final String OTHER_CHARS = "()*/π";
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+	}
+
+	@Test
+	public void testSameResultAsReference() throws Exception {
+		final List<String> expressions = newExpressions(new Random(20120227L), 3000);
+
+		final NumeralBase defaultNb = JsclMathEngine.instance.getNumeralBase();
+		try {
+			for (NumeralBase nb : NumeralBase.values()) {
+				CalculatorEngine.instance.setNumeralBase(nb);
+				// NOTE: second pass is done with cached numbers
+				for (int i = 0; i < 2; i++) {
+					for (String expression : expressions) {
+						assertSameAsReference(expression);
+					}
+				}
+			}
+		} finally {
+			CalculatorEngine.instance.setNumeralBase(defaultNb);
+		}
+
+		Assert.assertTrue(CalculatorEngine.instance.getFormattedNumberCache().getHitCount() > 0);
+	}
+
+	@Test
+	public void testGroupingSeparatorChange() throws Exception {
+		final CalculatorEngine cm = CalculatorEngine.instance;
+
+		assertSameAsReference("1000000+0x:FFFFFF");
+		Assert.assertEquals("1 000 000 (offset 2)", format("1000000"));
+
+		final DecimalFormatSymbols decimalGroupSymbols = new DecimalFormatSymbols();
+		decimalGroupSymbols.setDecimalSeparator('.');
+		try {
+			decimalGroupSymbols.setGroupingSeparator('\'');
+			cm.setDecimalGroupSymbols(decimalGroupSymbols);
+
+			// cached number must not be used
+			assertSameAsReference("1000000+0x:FFFFFF");
+			Assert.assertEquals("1'000'000 (offset 2)", format("1000000"));
+		} finally {
+			decimalGroupSymbols.setGroupingSeparator(JsclMathEngine.GROUPING_SEPARATOR_DEFAULT.charAt(0));
+			cm.setDecimalGroupSymbols(decimalGroupSymbols);
+		}
+
+		Assert.assertEquals("1 000 000 (offset 2)", format("1000000"));
+	}
+
+	@Test
+	public void testEngineIsNotChanged() throws Exception {
+		final NumeralBase defaultNb = JsclMathEngine.instance.getNumeralBase();
+
+		// numbers which don't start with digit are checked by jscl parsers (in other numeral bases than default one)
+		final Thread highlighting = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 1000; i++) {
+						process("0x:.A+0b:E1+0b:.1+.5", false);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		highlighting.start();
+
+		// numeral base of engine must not be changed while numbers are checked (evaluations use the same engine)
+		while (highlighting.isAlive()) {
+			Assert.assertEquals(defaultNb, JsclMathEngine.instance.getNumeralBase());
+		}
+		highlighting.join();
+
+		Assert.assertEquals(defaultNb, JsclMathEngine.instance.getNumeralBase());
+	}
+
+	@Test
+	public void testSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final StringBuilder sb = new StringBuilder();
+		for (String expression : newExpressions(new Random(20120228L), 200)) {
+			sb.append(expression).append("*");
+		}
+		final String expression = sb.toString();
+
+		final int iterations = 100;
+		for (int i = 0; i < iterations; i++) {
+			process(expression, true);
+			process(expression, false);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			process(expression, true);
+		}
+		final long referenceTime = (System.nanoTime() - start) / iterations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			process(expression, false);
+		}
+		final long time = (System.nanoTime() - start) / iterations;
+
+		// numbers are validated without parsing and formatted numbers are cached
+		Assert.assertTrue("reference " + referenceTime / 1000 + " us, optimized " + time / 1000 + " us", time < referenceTime);
+	}
+
+	@Test
+	public void testCachedNumbers() throws Exception {
+		final FormattedNumberCache cache = CalculatorEngine.instance.getFormattedNumberCache();
+		final String expression = "1000000*123456+0x:FFFFFF-0b:101+.5-12345.678E-2";
+
+		final String expected = format(expression);
+		final long misses = cache.getMissCount();
+		final long hits = cache.getHitCount();
+
+		// all numbers are formatted already => taken from cache
+		Assert.assertEquals(expected, format(expression));
+		Assert.assertEquals(misses, cache.getMissCount());
+		Assert.assertTrue(cache.getHitCount() > hits);
+	}
+
+	@NotNull
+	private static List<String> newExpressions(@NotNull Random random, int count) {
+		final List<String> result = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			final StringBuilder sb = new StringBuilder();
+
+			switch (random.nextInt(4)) {
+				case 0:
+					sb.append("0x:");
+					break;
+				case 1:
+					sb.append("0b:");
+					break;
+			}
+
+			final int length = 1 + random.nextInt(15);
+			for (int j = 0; j < length; j++) {
+				if (random.nextInt(10) == 0) {
+					sb.append(OTHER_CHARS.charAt(random.nextInt(OTHER_CHARS.length())));
+				} else {
+					sb.append(NUMBER_CHARS.charAt(random.nextInt(NUMBER_CHARS.length())));
+				}
+			}
+			result.add(sb.toString());
+		}
+		return result;
+	}
+
+	private static void assertSameAsReference(@NotNull String expression) throws Exception {
+		Assert.assertEquals(expression, process(expression, true), process(expression, false));
+	}
+
+	@NotNull
+	private static String format(@NotNull String number) throws Exception {
+		return process(number, false);
+	}
+
+	/**
+	 * @return text with formatted numbers and total offset as it is done by text highlighter
+	 */
+	@NotNull
+	private static String process(@NotNull String expression, boolean reference) throws Exception {
+		final StringBuilder text = new StringBuilder();
+		final MutableObject<Integer> referenceOffset = new MutableObject<Integer>(0);
+		final int[] offset = new int[1];
+		int totalOffset = 0;
+
+		final NumberBuilder numberBuilder = new NumberBuilder(CalculatorEngine.instance.getEngine());
+		final ReferenceNumberBuilder referenceNumberBuilder = new ReferenceNumberBuilder(CalculatorEngine.instance.getEngine());
+
+		final MathTokenStream tokens = MathLexer.instance.tokenize(expression);
+		for (int t = 0; t < tokens.size(); t++) {
+			final MathType.Result mathType = tokens.getResult(t);
+
+			if (reference) {
+				referenceOffset.setObject(0);
+				referenceNumberBuilder.process(text, mathType, referenceOffset);
+				totalOffset += referenceOffset.getObject();
+			} else {
+				offset[0] = 0;
+				numberBuilder.process(text, mathType, offset);
+				totalOffset += offset[0];
+			}
+
+			text.append(mathType.getMatch());
+		}
+
+		if (reference) {
+			referenceOffset.setObject(0);
+			referenceNumberBuilder.processNumber(text, referenceOffset);
+			totalOffset += referenceOffset.getObject();
+		} else {
+			offset[0] = 0;
+			numberBuilder.processNumber(text, offset);
+			totalOffset += offset[0];
+		}
+
+		return totalOffset == 0 ? text.toString() : text.toString() + " (offset " + totalOffset + ")";
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.math.Generic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.solovyev.android.calculator.math.LinearMathTypeMatcher;
+import org.solovyev.android.calculator.math.MathType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Straightforward implementation of {@link FromJsclSimplifyTextProcessor} (math type is searched on each character):
+ * used for checking of results of optimized implementation
+ *
+ * User: serso
+ * Date: 2/25/12
+ * Time: 3:10 PM
+ */
+public class ReferenceFromJsclSimplifyTextProcessor implements TextProcessor<String, Generic> {
+
+	@NotNull
+	@Override
+	public String process(@NotNull Generic from) throws CalculatorParseException {
+		return removeMultiplicationSigns(from.toString());
+	}
+
+	public String process(@NotNull String s) {
+		return removeMultiplicationSigns(s);
+	}
+
+	@NotNull
+	private String removeMultiplicationSigns(String s) {
+		final StringBuilder sb = new StringBuilder();
+
+		MathType.Result mathTypeBefore;
+		MathType.Result mathType = null;
+		MathType.Result mathTypeAfter = null;
+
+		for (int i = 0; i < s.length(); i++) {
+			mathTypeBefore = mathType;
+			if (mathTypeAfter == null) {
+				mathType = LinearMathTypeMatcher.getType(s, i, false);
+			} else {
+				mathType = mathTypeAfter;
+			}
+
+			char ch = s.charAt(i);
+			if (ch == '*') {
+				if (i + 1 < s.length()) {
+					mathTypeAfter = LinearMathTypeMatcher.getType(s, i + 1, false);
+				} else {
+					mathTypeAfter = null;
+				}
+
+				if (needMultiplicationSign(mathTypeBefore == null ? null : mathTypeBefore.getMathType(), mathTypeAfter == null ? null : mathTypeAfter.getMathType())) {
+					sb.append(CalculatorEngine.instance.getMultiplicationSign());
+				}
+
+			} else {
+				if (mathType.getMathType() == MathType.constant || mathType.getMathType() == MathType.function || mathType.getMathType() == MathType.operator) {
+					sb.append(mathType.getMatch());
+					i += mathType.getMatch().length() - 1;
+				} else {
+					sb.append(ch);
+				}
+				mathTypeAfter = null;
+			}
+
+		}
+
+		return sb.toString();
+	}
+
+	private final List<MathType> mathTypes = Arrays.asList(MathType.function, MathType.constant);
+
+	private boolean needMultiplicationSign(@Nullable MathType mathTypeBefore, @Nullable MathType mathTypeAfter) {
+		if (mathTypeBefore == null || mathTypeAfter == null) {
+			return true;
+		} else if (mathTypes.contains(mathTypeBefore) || mathTypes.contains(mathTypeAfter)) {
+			return false;
+		} else if ( mathTypeBefore == MathType.close_group_symbol ) {
+			return false;
+		} else if ( mathTypeAfter == MathType.open_group_symbol ) {
+			return false;
+		}
+
+		return true;
+	}
+
+}
@@ -8,9 +8,17 @@ package org.solovyev.android.calculator.model;
 
 import jscl.JsclMathEngine;
 import jscl.NumeralBase;
+import jscl.math.function.IConstant;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.solovyev.android.calculator.Benchmarks;
+import org.solovyev.android.calculator.math.MathLexer;
+import org.solovyev.android.calculator.math.MathType;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: serso
@@ -19,6 +27,10 @@ import org.junit.Test;
  */
 public class ToJsclTextProcessorTest {
 
+	// names of variables added by test (removed after test)
+	@NotNull
+	private static final List<String> addedVars = new ArrayList<String>();
+
 	@BeforeClass
 	public static void setUp() throws Exception {
 		CalculatorEngine.instance.init(null, null);
@@ -63,10 +75,10 @@ public class ToJsclTextProcessorTest {
 		Assert.assertEquals( "EE", preprocessor.process("EE").toString());
 
 		try {
-			CalculatorEngine.instance.getEngine().setNumeralBase(NumeralBase.hex);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.hex);
 			Assert.assertEquals( "22F*exp(F)", preprocessor.process("22Fexp(F)").toString());
 		} finally {
-			CalculatorEngine.instance.getEngine().setNumeralBase(NumeralBase.dec);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.dec);
 		}
 		Assert.assertEquals( "0x:ABCDEF", preprocessor.process("0x:ABCDEF").toString());
 		Assert.assertEquals( "0x:ABCDEF", preprocessor.process("0x:A BC DEF").toString());
@@ -152,10 +164,262 @@ public class ToJsclTextProcessorTest {
 			JsclMathEngine.instance.setNumeralBase(NumeralBase.bin);
 			Assert.assertEquals("101", JsclMathEngine.instance.evaluate("10+11"));
 
-			JsclMathEngine.instance.setNumeralBase(NumeralBase.hex);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.hex);
 			Assert.assertEquals("56CE+CAD", processor.process("56CE+CAD").getExpression());
 		} finally {
-			JsclMathEngine.instance.setNumeralBase(defaultNumeralBase);
+			CalculatorEngine.instance.setNumeralBase(defaultNumeralBase);
+		}
+	}
+
+	@Test
+	public void testIncrementalProcessing() throws Exception {
+		// typing
+		assertIncrementalProcessing("sin(30)+12345*π-2sinh(1)+0x:FF1/√(4)");
+		assertIncrementalProcessing("[0][1.E-1]2*E-1asin(0.5)√(2)");
+		assertIncrementalProcessing("πsin(4)+πcos(√(5+i))E-2");
+
+		// editing in the middle
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+		final String[] edits = {"2sin(30)+12345", "2s(30)+12345", "2si(30)+12345", "2sinh(30)+12345", "2sin(30)+12345", "2sin(30)+1345", "2sin(30)-1345", "2asin(30)-1345", "2π(30)-1345"};
+		for (String edit : edits) {
+			assertEquals(edit, processor);
+		}
+
+		// settings changes
+		final NumeralBase defaultNumeralBase = CalculatorEngine.instance.getNumeralBase();
+		try{
+			assertEquals("56CE+CAD", processor);
+			CalculatorEngine.instance.setNumeralBase(NumeralBase.hex);
+			assertEquals("56CE+CADE", processor);
+		} finally {
+			CalculatorEngine.instance.setNumeralBase(defaultNumeralBase);
+		}
+	}
+
+	@Test
+	public void testIncrementalProcessingSpeed() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		final StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			expression.append("sin(").append(i).append(")+");
+		}
+		expression.append("12345*");
+
+		final int iterations = 100;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			processor.process(expression.append(i % 10).toString(), CancellationToken.NONE, false);
+		}
+		final long fullTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			processor.process(expression.append(i % 10).toString(), CancellationToken.NONE, true);
+		}
+		final long incrementalTime = System.nanoTime() - start;
+
+		// typing at the end: only the end of expression is processed
+		Assert.assertTrue(incrementalTime < fullTime);
+	}
+
+	@Test
+	public void testVarsExpansion() throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		try {
+			// each variable is used twice in the next one
+			addVar("expA0", "2+3");
+			for (int i = 1; i <= 14; i++) {
+				addVar("expA" + i, "expA" + (i - 1) + "*expA" + (i - 1));
+			}
+			Assert.assertEquals("(((2+3)*(2+3))*((2+3)*(2+3)))", processor.process("expA2").getExpression());
+
+			final String expression = processor.process("expA14+expA14").getExpression();
+			Assert.assertEquals(2 * (1 << 14) * "(2+3)".length() + 2 * ((1 << 14) - 1) * "()*".length() + 1, expression.length());
+
+			// registry is changed => values must be expanded again
+			addVar("expA0", "4+5");
+			Assert.assertEquals("(((4+5)*(4+5))*((4+5)*(4+5)))", processor.process("expA2").getExpression());
+
+			// depth of expansion must be checked also for already expanded values
+			addVar("expB0", "2+3");
+			for (int i = 1; i <= 25; i++) {
+				addVar("expB" + i, "expB" + (i - 1) + "+1");
+			}
+			processor.process("expB10");
+			processor.process("expB18");
+			try {
+				processor.process("expB19");
+				Assert.fail();
+			} catch (CalculatorParseException e) {
+				Assert.assertEquals(Messages.msg_6, e.getMessageCode());
+			}
+			try {
+				processor.process("2*expB25");
+				Assert.fail();
+			} catch (CalculatorParseException e) {
+				Assert.assertEquals(Messages.msg_6, e.getMessageCode());
+			}
+		} finally {
+			removeVars();
+		}
+	}
+
+	@Test
+	public void testSameResultAsReference() throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+		final ReferenceToJsclTextProcessor reference = new ReferenceToJsclTextProcessor();
+
+		try {
+			addVar("refA", "2+refB");
+			addVar("refB", "sin(x)πi");
+
+			final String[] expressions = {"", "[][1]", "[0]ln(1)[2*E-1]", "πsin(4)+πcos(√(5+i))E-2", "3^E10", "EE", "E(-1.2)",
+					"2refA*refB-refA^2", "x+y*t-j", "sin(30)+12345*π-2sinh(1)/√(4)", "e^π*sin(4.01)", "1°sin(1)", "5!*3"};
+
+			for (String expression : expressions) {
+				final PreparedExpression expected = reference.process(expression);
+				final PreparedExpression actual = processor.process(expression, CancellationToken.NONE, false);
+				Assert.assertEquals(expected.getExpression(), actual.getExpression());
+				Assert.assertEquals(expected.getUndefinedVars(), actual.getUndefinedVars());
+			}
+		} finally {
+			removeVars();
 		}
 	}
+
+	@Test
+	public void testNumeralBasePrefixIsNotVar() throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		// 'x' of '0x:' is part of numeral base prefix and not the undefined variable 'x'
+		for (boolean incremental : new boolean[]{false, true}) {
+			Assert.assertTrue(processor.process("0x:FF", CancellationToken.NONE, incremental).getUndefinedVars().isEmpty());
+			Assert.assertTrue(processor.process("2*0x:FF", CancellationToken.NONE, incremental).getUndefinedVars().isEmpty());
+
+			final List<IConstant> undefinedVars = processor.process("0x:FF+2x", CancellationToken.NONE, incremental).getUndefinedVars();
+			Assert.assertEquals(1, undefinedVars.size());
+			Assert.assertEquals("x", undefinedVars.get(0).getName());
+		}
+	}
+
+	@Test
+	public void testProcessedTokensCount() throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		final String part = "sin(30)+12345*π-2sinh(1)/√(4)+i*x-";
+
+		for (int size = 1024; size <= 256 * 1024; size *= 4) {
+			final StringBuilder expression = new StringBuilder(size + part.length());
+			while (expression.length() < size) {
+				expression.append(part);
+			}
+			expression.append("1");
+
+			final String s = expression.toString();
+			// values of variables are expanded only once => not counted later
+			processor.process(s, CancellationToken.NONE, false);
+
+			// each token is processed once => work is linear
+			final CountingCancellationToken token = new CountingCancellationToken();
+			processor.process(s, token, false);
+			Assert.assertEquals(MathLexer.instance.tokenize(s, false).size(), token.getChecksCount());
+
+			// only tokens near the end are processed on typing
+			final CountingCancellationToken incrementalToken = new CountingCancellationToken();
+			processor.process(s + "2", incrementalToken, true);
+			// NOTE: processing restarts from the last token which is far enough from the change (see MathType#getMaxTokenLength())
+			Assert.assertTrue(incrementalToken.getChecksCount() <= 2 * MathType.getMaxTokenLength() + 2);
+		}
+	}
+
+	@Test
+	public void testLinearScaling() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		final String part = "sin(30)+12345*π-2sinh(1)/√(4)+i*x-";
+
+		final List<Integer> sizes = new ArrayList<Integer>();
+		final List<Long> times = new ArrayList<Long>();
+		for (int size = 1024; size <= 1024 * 1024; size *= 4) {
+			final StringBuilder expression = new StringBuilder(size + part.length());
+			while (expression.length() < size) {
+				expression.append(part);
+			}
+			expression.append("1");
+
+			final String s = expression.toString();
+			// warm up
+			processor.process(s, CancellationToken.NONE, false);
+
+			final long start = System.nanoTime();
+			final int iterations = Math.max(1, 1024 * 1024 / size);
+			for (int i = 0; i < iterations; i++) {
+				processor.process(s, CancellationToken.NONE, false);
+			}
+
+			sizes.add(s.length());
+			times.add(Math.max(1, (System.nanoTime() - start) / iterations));
+		}
+
+		final double sizeRatio = (double) sizes.get(sizes.size() - 1) / sizes.get(0);
+		final double timeRatio = (double) times.get(times.size() - 1) / times.get(0);
+
+		// NOTE: big tolerance as time of small inputs is not stable
+		Assert.assertTrue("sizes: " + sizes + ", times (ns): " + times, timeRatio < 4 * sizeRatio);
+	}
+
+	private static void addVar(@NotNull String name, @NotNull String value) {
+		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder(name, value));
+		addedVars.add(name);
+	}
+
+	private static void removeVars() {
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+		for (String name : addedVars) {
+			final IConstant var = varsRegistry.get(name);
+			if (var != null) {
+				varsRegistry.remove(var);
+			}
+		}
+		addedVars.clear();
+	}
+
+	/**
+	 * Token counting number of checks (processor checks token on each processed token of expression)
+	 */
+	private static final class CountingCancellationToken extends CancellationToken {
+
+		private int checksCount = 0;
+
+		@Override
+		public void checkCancelled() throws EvaluationCancelledException {
+			checksCount++;
+			super.checkCancelled();
+		}
+
+		public int getChecksCount() {
+			return checksCount;
+		}
+	}
+
+	private static void assertIncrementalProcessing(@NotNull String expression) throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+		for (int i = 0; i <= expression.length(); i++) {
+			assertEquals(expression.substring(0, i), processor);
+		}
+	}
+
+	private static void assertEquals(@NotNull String expression, @NotNull ToJsclTextProcessor processor) throws Exception {
+		final PreparedExpression incremental = processor.process(expression, CancellationToken.NONE, true);
+		final PreparedExpression full = processor.process(expression, CancellationToken.NONE, false);
+		Assert.assertEquals(full.getExpression(), incremental.getExpression());
+		Assert.assertEquals(full.getUndefinedVars(), incremental.getUndefinedVars());
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2009-2011. Created by serso aka se.solovyev.
+ * For more information, please, contact se.solovyev@gmail.com
+ * or visit http://se.solovyev.org
+ */
+
+package org.solovyev.android.calculator.model;
+
+import jscl.math.function.IConstant;
+import junit.framework.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * User: serso
+ * Date: 2/23/12
+ * Time: 9:45 PM
+ */
+public class VarDependencyGraphTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		CalculatorEngine.instance.init(null, null);
+
+		final AndroidMathRegistry<IConstant> varsRegistry = CalculatorEngine.instance.getVarsRegistry();
+		varsRegistry.add(new Var.Builder("depA", "depB+1"));
+		varsRegistry.add(new Var.Builder("depB", "depC*2"));
+		varsRegistry.add(new Var.Builder("depC", "2+3"));
+		varsRegistry.add(new Var.Builder("depD", "depD+1"));
+		varsRegistry.add(new Var.Builder("depE", "depF"));
+		varsRegistry.add(new Var.Builder("depF", "2depE"));
+		varsRegistry.add(new Var.Builder("depG", "depA+depE"));
+		varsRegistry.add(new Var.Builder("depH", 2d));
+	}
+
+	@Test
+	public void testGraph() throws Exception {
+		final VarDependencyGraph graph = CalculatorEngine.instance.getVarDependencyGraph();
+		Assert.assertSame(graph, CalculatorEngine.instance.getVarDependencyGraph());
+
+		final List<String> order = graph.getTopologicalOrder();
+		Assert.assertTrue(order.indexOf("depC") < order.indexOf("depB"));
+		Assert.assertTrue(order.indexOf("depB") < order.indexOf("depA"));
+		Assert.assertFalse(order.contains("depD"));
+		Assert.assertFalse(order.contains("depH"));
+
+		Assert.assertEquals(Arrays.asList("depC", "depB", "depA"), graph.getExpansionOrder("depA"));
+		Assert.assertEquals(3, graph.getHeight("depA"));
+		Assert.assertEquals(1, graph.getHeight("depC"));
+		Assert.assertEquals(0, graph.getHeight("depH"));
+
+		Assert.assertFalse(graph.isCyclic("depA"));
+		Assert.assertTrue(graph.isCyclic("depD"));
+		Assert.assertTrue(graph.isCyclic("depE"));
+		Assert.assertTrue(graph.isCyclic("depF"));
+		// depends on cycle
+		Assert.assertTrue(graph.isCyclic("depG"));
+		Assert.assertTrue(graph.getExpansionOrder("depG").isEmpty());
+
+		Assert.assertEquals(Arrays.asList("depC", "depA", "depB", "depC"), graph.findCycle("depC", "depA+1"));
+		Assert.assertEquals(Arrays.asList("depH", "depH"), graph.findCycle("depH", "sin(depH)"));
+		Assert.assertNull(graph.findCycle("depC", "depH+1"));
+		Assert.assertNull(graph.findCycle("depC", null));
+
+		// registry is changed => new graph
+		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("depI", "depA"));
+		Assert.assertNotSame(graph, CalculatorEngine.instance.getVarDependencyGraph());
+		Assert.assertEquals(4, CalculatorEngine.instance.getVarDependencyGraph().getHeight("depI"));
+	}
+
+	@Test
+	public void testCycleOfNotRegisteredVar() throws Exception {
+		// new (or renamed) variable is not registered yet => its name is not recognized as variable in values
+		final VarDependencyGraph graph = CalculatorEngine.instance.getVarDependencyGraph();
+		Assert.assertEquals(Arrays.asList("depNew", "depNew"), graph.findCycle("depNew", "depNew+1"));
+		Assert.assertEquals(Arrays.asList("depNew", "depNew"), graph.findCycle("depNew", "2*depA+depNew"));
+		Assert.assertNull(graph.findCycle("depNew", "depA+1"));
+
+		// two steps: variable which uses not yet registered variable is saved first
+		CalculatorEngine.instance.getVarsRegistry().add(new Var.Builder("depJ", "depK"));
+		Assert.assertEquals(Arrays.asList("depK", "depJ", "depK"), CalculatorEngine.instance.getVarDependencyGraph().findCycle("depK", "depJ"));
+		Assert.assertEquals(Arrays.asList("depK", "depJ", "depK"), CalculatorEngine.instance.getVarDependencyGraph().findCycle("depK", "1+depJ*2"));
+		Assert.assertNull(CalculatorEngine.instance.getVarDependencyGraph().findCycle("depK", "depC"));
+	}
+
+	@Test
+	public void testPreprocessing() throws Exception {
+		final ToJsclTextProcessor processor = ToJsclTextProcessor.getInstance();
+
+		Assert.assertEquals("(((2+3)*2)+1)", processor.process("depA").getExpression());
+
+		for (String expression : Arrays.asList("depD", "2*depE", "depG-1")) {
+			try {
+				processor.process(expression);
+				Assert.fail();
+			} catch (CalculatorParseException e) {
+				Assert.assertEquals(Messages.msg_6, e.getMessageCode());
+			}
+		}
+	}
+}